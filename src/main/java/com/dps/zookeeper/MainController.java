@@ -1,8 +1,24 @@
 package com.dps.zookeeper;
 
+import com.dps.zookeeper.client.AllocationClient;
+import com.dps.zookeeper.client.BulkLoadClient;
+import com.dps.zookeeper.client.CacheClient;
+import com.dps.zookeeper.client.ChunkClient;
+import com.dps.zookeeper.client.FaultInjectionClient;
+import com.dps.zookeeper.client.IdleSessionClient;
 import com.dps.zookeeper.client.LatencyClient;
+import com.dps.zookeeper.client.NamespaceClient;
+import com.dps.zookeeper.client.ObserverScalingClient;
+import com.dps.zookeeper.client.ScenarioClient;
+import com.dps.zookeeper.client.SessionStormClient;
 import com.dps.zookeeper.client.ThroughputClient;
+import com.dps.zookeeper.client.TraceImportClient;
+import com.dps.zookeeper.client.TraceReplayClient;
+import com.dps.zookeeper.client.TransportComparisonClient;
 import com.dps.zookeeper.client.ZookeeperClient;
+import com.dps.zookeeper.metrics.LiveMetrics;
+
+import java.util.Arrays;
 
 /**
  * Decides which Zookeeper test to run.
@@ -10,18 +26,72 @@ import com.dps.zookeeper.client.ZookeeperClient;
 public class MainController {
 
     public static void main(String[] args) {
-        // Check if Throughput client or latency client is run.
-        if (args.length == ThroughputClient.EXPECTED_ARGUMENTS) {
-            ZookeeperClient client = new ThroughputClient(args);
+        ZookeeperClient client = createClient(args);
+        if (client != null) {
+            LiveMetrics.startIfConfigured();
             client.start();
+            // In-process Zookeeper servers leave non-daemon threads behind after shutdown
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Create the test client. Mode name as first argument selects the test and allows optional arguments,
+     * otherwise the test is decided by the number of arguments.
+     *
+     * @param args command line arguments
+     * @return client, or null if the arguments didn't match any test
+     */
+    private static ZookeeperClient createClient(String[] args) {
+        if (args.length > 0) {
+            String[] modeArgs = Arrays.copyOfRange(args, 1, args.length);
+            switch (args[0]) {
+                case ThroughputClient.MODE:
+                    return new ThroughputClient(modeArgs);
+                case LatencyClient.MODE:
+                    return new LatencyClient(modeArgs);
+                case FaultInjectionClient.MODE:
+                    return new FaultInjectionClient(modeArgs);
+                case SessionStormClient.MODE:
+                    return new SessionStormClient(modeArgs);
+                case NamespaceClient.MODE:
+                    return new NamespaceClient(modeArgs);
+                case BulkLoadClient.MODE:
+                    return new BulkLoadClient(modeArgs);
+                case TraceImportClient.MODE:
+                    return new TraceImportClient(modeArgs);
+                case TraceReplayClient.MODE:
+                    return new TraceReplayClient(modeArgs);
+                case TransportComparisonClient.MODE:
+                    return new TransportComparisonClient(modeArgs);
+                case ObserverScalingClient.MODE:
+                    return new ObserverScalingClient(modeArgs);
+                case ScenarioClient.MODE:
+                    return new ScenarioClient(modeArgs);
+                case CacheClient.MODE:
+                    return new CacheClient(modeArgs);
+                case ChunkClient.MODE:
+                    return new ChunkClient(modeArgs);
+                case IdleSessionClient.MODE:
+                    return new IdleSessionClient(modeArgs);
+                case AllocationClient.MODE:
+                    return new AllocationClient(modeArgs);
+                default:
+                    break;
+            }
+        }
+        // Check if Throughput client or latency client is run.
+        if (args.length == ScenarioClient.EXPECTED_ARGUMENTS) {
+            return new ScenarioClient(args);
+        } else if (args.length == ThroughputClient.EXPECTED_ARGUMENTS) {
+            return new ThroughputClient(args);
         } else if (args.length == LatencyClient.EXPECTED_ARGUMENTS) {
-            ZookeeperClient client = new LatencyClient(args);
-            client.start();
-        } else {
-            System.out.println("Wrong number of arguments given. " +
-                    "ThroughputClient expects " + ThroughputClient.EXPECTED_ARGUMENTS +
-                    " arguments and LatencyClient expects " + LatencyClient.EXPECTED_ARGUMENTS +
-                    " arguments.");
+            return new LatencyClient(args);
         }
+        System.out.println("Wrong number of arguments given. " +
+                "ThroughputClient expects " + ThroughputClient.EXPECTED_ARGUMENTS +
+                " arguments, LatencyClient expects " + LatencyClient.EXPECTED_ARGUMENTS +
+                " arguments and a scenario file is given as the only argument.");
+        return null;
     }
 }
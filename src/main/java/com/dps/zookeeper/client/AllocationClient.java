@@ -0,0 +1,325 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the bytes allocated for each request of the throughput request path with the allocation
+ * counters of the threads taking part: the thread making the requests and the event and send threads
+ * of the Zookeeper client. Three variants make the same pipelined reads of one node:
+ * "pooled" with the shared callbacks and pooled contexts of {@link ZKThroughputManagerImpl},
+ * "pooled-nolatency" the same without the per-request latency, and "lambda" with a new capturing callback
+ * for every request, like the throughput manager before the pooling. Also times the latency bookkeeping,
+ * which the pooled variant adds to every request.
+ */
+public class AllocationClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the allocation test.
+     */
+    public static final String MODE = "alloc";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 4;
+
+    /**
+     * Zookeeper cluster address.
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 0;
+
+    /**
+     * Node path in Zookeeper, each variant creates it as ephemeral node in turn. The variants read the same
+     * path, because the Zookeeper client allocates for every byte of the path.
+     */
+    private static final int NODE_PATH_IDX = 1;
+
+    /**
+     * Number of measured requests of each variant.
+     */
+    private static final int REQUESTS_IDX = 2;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 3;
+
+    private static final String POOLED = "pooled";
+    private static final String POOLED_NO_LATENCY = "pooled-nolatency";
+    private static final String LAMBDA = "lambda";
+
+    /**
+     * Requests waiting for a response, same as in the throughput test.
+     */
+    private static final int WINDOW = 1000;
+
+    /**
+     * How long to wait before checking again, when the maximum number of requests is waiting.
+     */
+    private static final long WAIT_NANOS = 20000;
+
+    /**
+     * Zookeeper names its threads after the thread creating the client, so they can be found by name.
+     */
+    private static final String THREAD_PREFIX = "Alloc_";
+
+    /**
+     * Calls made to time System.nanoTime and a histogram update.
+     */
+    private static final int TIMING_CALLS = 10000000;
+
+    private String clusterAddress;
+    private String pathInZookeeper;
+    private int requests;
+    private String outputDirectory;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    public AllocationClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Allocation test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        requests = ArgumentParser.parsePositiveInt(args[REQUESTS_IDX], REQUESTS_IDX,
+                "the number of measured requests");
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("The JVM doesn't count the allocated bytes of threads.");
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        RunReport report = new RunReport(MODE);
+        report.config("path", pathInZookeeper)
+                .config("requests", requests)
+                .config("window", WINDOW);
+        report.setStartTime(System.currentTimeMillis());
+        List<String> lines = new ArrayList<>();
+        try {
+            for (String variant : new String[]{POOLED, POOLED_NO_LATENCY, LAMBDA}) {
+                long[] bytes = measure(variant);
+                System.out.println(variant + ": " + bytes[0] + " B/request on the requesting thread, " + bytes[1] +
+                        " B/request on the event thread, " + bytes[2] + " B/request on the send thread");
+                lines.add(variant + " " + bytes[0] + " " + bytes[1] + " " + bytes[2]);
+                Map<String, Object> row = report.result();
+                row.put("variant", variant);
+                row.put("requestingThreadBytes", bytes[0]);
+                row.put("eventThreadBytes", bytes[1]);
+                row.put("sendThreadBytes", bytes[2]);
+            }
+        } catch (Exception e) {
+            System.out.println("Allocation test failed: " + e.getMessage());
+            System.out.println(e.toString());
+            return;
+        }
+        double nanoTime = timeNanoTime();
+        double histogramRecord = timeHistogramRecord();
+        // Two nanoTime calls and updates of the request histogram and the read or write histogram
+        double overhead = 2 * nanoTime + 2 * histogramRecord;
+        System.out.println(String.format("Latency bookkeeping: System.nanoTime %.1f ns, histogram update %.1f ns, " +
+                "%.1f ns per request", nanoTime, histogramRecord, overhead));
+        lines.add(String.format("nanoTimeNs %.1f", nanoTime));
+        lines.add(String.format("histogramRecordNs %.1f", histogramRecord));
+        lines.add(String.format("latencyOverheadNs %.1f", overhead));
+        writeResults(lines);
+        Map<String, Object> row = report.result();
+        row.put("nanoTimeNs", nanoTime);
+        row.put("histogramRecordNs", histogramRecord);
+        row.put("latencyOverheadNs", overhead);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Run the variant and count the bytes its threads allocated during the measured requests.
+     *
+     * @return bytes per request of the requesting, event and send thread
+     */
+    private long[] measure(String variant) throws Exception {
+        String path = pathInZookeeper;
+        String threadName = Thread.currentThread().getName();
+        Thread.currentThread().setName(THREAD_PREFIX + variant);
+        Variant client;
+        try {
+            client = LAMBDA.equals(variant) ? new LambdaVariant(path) : new PooledVariant(path, POOLED.equals(variant));
+        } finally {
+            Thread.currentThread().setName(threadName);
+        }
+        try {
+            // Warm up the code paths before counting
+            client.run(Math.max(1, requests / 10));
+            long[] ids = {Thread.currentThread().getId(), findThread(variant + "-EventThread"),
+                    findThread(variant + "-SendThread")};
+            long[] before = threadBean.getThreadAllocatedBytes(ids);
+            client.run(requests);
+            long[] after = threadBean.getThreadAllocatedBytes(ids);
+            long[] result = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                result[i] = ids[i] < 0 ? -1 : (after[i] - before[i]) / requests;
+            }
+            return result;
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * @return identifier of the Zookeeper thread of the variant, -1 if it isn't found
+     */
+    private static long findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(THREAD_PREFIX + name)) {
+                return thread.getId();
+            }
+        }
+        return -1;
+    }
+
+    private static double timeNanoTime() {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_CALLS; i++) {
+            sink += System.nanoTime();
+        }
+        long elapsed = System.nanoTime() - start;
+        // Keep the calls from being optimized away
+        if (sink == 42) {
+            System.out.println();
+        }
+        return (double) elapsed / TIMING_CALLS;
+    }
+
+    private static double timeHistogramRecord() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_CALLS; i++) {
+            histogram.record(i & 1023);
+        }
+        return (double) (System.nanoTime() - start) / TIMING_CALLS;
+    }
+
+    /**
+     * Write one line for each variant into alloc_results.txt:
+     * variant requestingThreadBytes eventThreadBytes sendThreadBytes
+     * and the timing of the latency bookkeeping as "name nanoseconds".
+     */
+    private void writeResults(List<String> lines) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/alloc_results.txt"), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing allocation results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads of one node with at most {@link #WINDOW} requests waiting.
+     */
+    private interface Variant {
+        /**
+         * Make the requests and wait for every response.
+         */
+        void run(int count) throws InterruptedException;
+
+        void close() throws InterruptedException;
+    }
+
+    private class PooledVariant implements Variant {
+        private final ZKThroughputManagerImpl zkManager;
+        private final String path;
+
+        PooledVariant(String path, boolean recordLatency) throws Exception {
+            this.path = path;
+            zkManager = new ZKThroughputManagerImpl(clusterAddress);
+            zkManager.setRecordLatency(recordLatency);
+            zkManager.create(path, new byte[0]);
+            zkManager.startRequestCounting();
+        }
+
+        @Override
+        public void run(int count) {
+            for (int i = 0; i < count; i++) {
+                while (!zkManager.allowedToMakeRequest()) {
+                    LockSupport.parkNanos(WAIT_NANOS);
+                }
+                zkManager.reduceAllowedRequestCount();
+                zkManager.getZNodeData(path, false);
+            }
+            while (zkManager.getOutstandingRequests() > 0) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            zkManager.closeConnection();
+        }
+    }
+
+    private class LambdaVariant implements Variant {
+        private final ZKConnection zkConnection = new ZKConnection();
+        private final ZooKeeper zkeeper;
+        private final String path;
+        private final AtomicInteger allowedRequests = new AtomicInteger(WINDOW);
+        private final AtomicLong requestsDone = new AtomicLong();
+        private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+        LambdaVariant(String path) throws Exception {
+            this.path = path;
+            zkeeper = zkConnection.connect(clusterAddress);
+            zkeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        }
+
+        @Override
+        public void run(int count) {
+            for (int i = 0; i < count; i++) {
+                while (allowedRequests.get() <= 0) {
+                    LockSupport.parkNanos(WAIT_NANOS);
+                }
+                allowedRequests.decrementAndGet();
+                long start = System.nanoTime();
+                zkeeper.getData(path, false, (rc, p, ctx, data, stat) -> {
+                    requestLatency.record((System.nanoTime() - start) / 1000);
+                    requestsDone.incrementAndGet();
+                    allowedRequests.incrementAndGet();
+                }, null);
+            }
+            while (allowedRequests.get() < WINDOW) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            zkConnection.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dps.zookeeper.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Validation of the command line arguments shared by the benchmark tests.
+ */
+final class ArgumentParser {
+
+    private ArgumentParser() {
+    }
+
+    /**
+     * Check if the argument is positive int.
+     *
+     * @param value       argument
+     * @param index       index of the argument
+     * @param description what the argument is
+     * @return parsed value
+     */
+    static int parsePositiveInt(String value, int index, String description) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) {
+                throw new IllegalArgumentException("Argument at index " + index +
+                        " is expected to be positive int. Given: " + value +
+                        " . It is " + description + ".");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Argument at index " + index +
+                    " is expected to be int. Given: " + value +
+                    " . It is " + description + ".");
+        }
+    }
+
+    /**
+     * Check if the argument is double between 0 and 1.
+     *
+     * @param value       argument
+     * @param index       index of the argument
+     * @param description what the argument is
+     * @return parsed value
+     */
+    static double parseRate(String value, int index, String description) {
+        try {
+            double result = Double.parseDouble(value);
+            if (result > 1 || result < 0) {
+                throw new IllegalArgumentException("Argument at index " + index +
+                        " is expected to be double between 0 and 1. Given: " + value +
+                        " . It is " + description + ".");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Argument at index " + index +
+                    " is expected to be double. Given: " + value +
+                    " . It is " + description + ".");
+        }
+    }
+
+    /**
+     * Check if Zookeeper node path starts with "/".
+     *
+     * @param zookeeperPath node path in Zookeeper
+     * @param index         index of the argument
+     * @return the path
+     */
+    static String checkPathInZookeeper(String zookeeperPath, int index) {
+        if (!zookeeperPath.startsWith("/")) {
+            throw new IllegalArgumentException("Argument at index " + index +
+                    " is expected to with /. Given: " + zookeeperPath +
+                    " . It is the path in Zookeeper");
+        }
+        return zookeeperPath;
+    }
+
+    /**
+     * Read the used data in the test from file.
+     *
+     * @param dataPath path to data file
+     * @return data
+     */
+    static byte[] readData(String dataPath) {
+        try {
+            return Files.readAllBytes(Paths.get(dataPath));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Wasn't able to read data from the provided location: " + dataPath, e);
+        }
+    }
+}
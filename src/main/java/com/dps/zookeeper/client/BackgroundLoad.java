@@ -0,0 +1,383 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.TransportProfile;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.metrics.LiveMetrics;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Same request generation as in the throughput test, used as steady traffic while something else is measured.
+ * Every client has its own session and node, a new session is created if the old one expires.
+ */
+class BackgroundLoad {
+
+    /**
+     * How long a client waits before checking again, when it has the maximum number of requests waiting.
+     */
+    private static final long WAIT_NANOS = 20000;
+
+    /**
+     * How long an inactive client waits before checking again, if it should make requests.
+     */
+    private static final long IDLE_NANOS = 10000000;
+
+    private final int numberOfClients;
+    private final ServerPlacement placement;
+    private final String pathInZookeeper;
+    private volatile double writeRequestRate;
+    private final byte[] data;
+    private final TransportProfile profile;
+
+    /**
+     * Current manager of each client, replaced if the session expires.
+     */
+    private final AtomicReferenceArray<ZKThroughputManagerImpl> managers;
+
+    /**
+     * Requests, latency and errors of managers, which have been replaced. Also guards the replacement,
+     * so a manager is counted either here or in {@link #managers}, never in both or neither.
+     */
+    private final Totals retired = new Totals();
+
+    /**
+     * Reconnects of managers, which have been replaced.
+     */
+    private final List<ZKConnection.Reconnect> retiredReconnects = new ArrayList<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running;
+
+    /**
+     * Clients with a smaller identifier make requests, the others keep their sessions idle.
+     */
+    private volatile int activeClients;
+
+    /**
+     * @param numberOfClients  number of sessions generating requests
+     * @param placement        servers the sessions connect to
+     * @param pathInZookeeper  node path, each client adds its identifier at the end
+     * @param writeRequestRate share of write requests
+     * @param data             data written to the nodes
+     */
+    BackgroundLoad(int numberOfClients, ServerPlacement placement, String pathInZookeeper,
+                   double writeRequestRate, byte[] data) {
+        this(numberOfClients, placement, pathInZookeeper, writeRequestRate, data, null);
+    }
+
+    /**
+     * @param numberOfClients  number of sessions generating requests
+     * @param placement        servers the sessions connect to
+     * @param pathInZookeeper  node path, each client adds its identifier at the end
+     * @param writeRequestRate share of write requests
+     * @param data             data written to the nodes
+     * @param profile          transport of the sessions, null for the client defaults
+     */
+    BackgroundLoad(int numberOfClients, ServerPlacement placement, String pathInZookeeper,
+                   double writeRequestRate, byte[] data, TransportProfile profile) {
+        this.profile = profile;
+        this.numberOfClients = numberOfClients;
+        this.placement = placement;
+        this.pathInZookeeper = pathInZookeeper;
+        this.writeRequestRate = writeRequestRate;
+        this.data = data;
+        this.managers = new AtomicReferenceArray<>(numberOfClients);
+        this.activeClients = numberOfClients;
+    }
+
+    /**
+     * Change the share of write requests, also while the load is running.
+     *
+     * @param writeRequestRate share of write requests
+     */
+    void setWriteRequestRate(double writeRequestRate) {
+        this.writeRequestRate = writeRequestRate;
+    }
+
+    /**
+     * Change the number of clients making requests, also while the load is running.
+     *
+     * @param activeClients number of clients, at most the number of sessions
+     */
+    void setActiveClients(int activeClients) {
+        this.activeClients = Math.min(activeClients, numberOfClients);
+    }
+
+    /**
+     * Wait until no client has a request waiting for a response, after the clients were made inactive
+     * with {@link #setActiveClients(int)}. Responses arriving later would be counted in the next measurement.
+     *
+     * @param timeoutMillis how long to wait at most
+     * @return whether every request was answered in time
+     * @throws InterruptedException
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // A client which read the old number of active clients makes its last request within this time
+        LockSupport.parkNanos(IDLE_NANOS);
+        while (true) {
+            int outstanding = 0;
+            for (int i = 0; i < managers.length(); i++) {
+                ZKThroughputManagerImpl zkManager = managers.get(i);
+                if (zkManager != null) {
+                    outstanding += zkManager.getOutstandingRequests();
+                }
+            }
+            if (outstanding == 0) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Connect every client and create their nodes.
+     *
+     * @throws Exception
+     */
+    void connect() throws Exception {
+        for (int i = 0; i < numberOfClients; i++) {
+            managers.set(i, connect(i));
+        }
+    }
+
+    /**
+     * Start generating requests.
+     */
+    void start() {
+        running = true;
+        for (int i = 0; i < numberOfClients; i++) {
+            int clientId = i;
+            Thread t = new Thread(() -> generateLoad(clientId));
+            t.setName("Client_" + i);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    /**
+     * Stop generating requests and wait for the generating threads to finish.
+     *
+     * @throws InterruptedException
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        for (Thread t : threads) {
+            t.join();
+        }
+        threads.clear();
+    }
+
+    /**
+     * @return requests finished by all clients so far
+     */
+    long totalRequests() {
+        synchronized (retired) {
+            long total = retired.requests;
+            for (int i = 0; i < managers.length(); i++) {
+                ZKThroughputManagerImpl zkManager = managers.get(i);
+                if (zkManager != null) {
+                    total += zkManager.requestsDone.get();
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return write requests finished by all clients so far
+     */
+    long totalWrites() {
+        synchronized (retired) {
+            long total = retired.writes;
+            for (int i = 0; i < managers.length(); i++) {
+                ZKThroughputManagerImpl zkManager = managers.get(i);
+                if (zkManager != null) {
+                    total += zkManager.writeRequestsDone.get();
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return requests, latency and errors of all clients so far, including replaced sessions
+     */
+    Totals totals() {
+        Totals result = new Totals();
+        synchronized (retired) {
+            result.add(retired);
+            for (int i = 0; i < managers.length(); i++) {
+                ZKThroughputManagerImpl zkManager = managers.get(i);
+                if (zkManager != null) {
+                    result.add(zkManager);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the latency and errors of all clients to the report, as operations "read" and "write".
+     *
+     * @param report run report
+     */
+    void report(RunReport report) {
+        Totals totals = totals();
+        RunReport.Operation reads = report.operation("read");
+        reads.latency.add(totals.readLatency);
+        reads.errors.addAndGet(totals.readErrors);
+        RunReport.Operation writes = report.operation("write");
+        writes.latency.add(totals.writeLatency);
+        writes.errors.addAndGet(totals.writeErrors);
+    }
+
+    /**
+     * @return reconnects seen by all clients so far
+     */
+    List<ZKConnection.Reconnect> allReconnects() {
+        List<ZKConnection.Reconnect> result;
+        synchronized (retiredReconnects) {
+            result = new ArrayList<>(retiredReconnects);
+        }
+        for (int i = 0; i < managers.length(); i++) {
+            ZKThroughputManagerImpl zkManager = managers.get(i);
+            if (zkManager != null) {
+                result.addAll(zkManager.getConnection().getReconnects());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return current managers of the clients
+     */
+    List<ZKThroughputManagerImpl> getManagers() {
+        List<ZKThroughputManagerImpl> result = new ArrayList<>();
+        for (int i = 0; i < managers.length(); i++) {
+            result.add(managers.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Close every session.
+     */
+    void close() {
+        running = false;
+        for (int i = 0; i < managers.length(); i++) {
+            ZKThroughputManagerImpl zkManager = managers.get(i);
+            if (zkManager != null) {
+                LiveMetrics.get().unregister("Client_" + i, zkManager);
+                try {
+                    zkManager.closeConnection();
+                } catch (InterruptedException e) {
+                    System.out.println("Exception when trying to close Zookeeper: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Connect the client and create its node.
+     */
+    private ZKThroughputManagerImpl connect(int clientId) throws Exception {
+        String path = pathInZookeeper + clientId;
+        ZKThroughputManagerImpl zkManager = new ZKThroughputManagerImpl(placement.connectStringFor(clientId), profile);
+        if (zkManager.exists(path) == null) {
+            zkManager.create(path, data);
+        }
+        zkManager.startRequestCounting();
+        LiveMetrics.get().register("Client_" + clientId, zkManager);
+        return zkManager;
+    }
+
+    private void generateLoad(int clientId) {
+        String path = pathInZookeeper + clientId;
+        Random random = new Random();
+        while (running) {
+            ZKThroughputManagerImpl zkManager = managers.get(clientId);
+            if (zkManager.getConnection().isExpired()) {
+                try {
+                    replace(clientId, zkManager, connect(clientId));
+                } catch (Exception e) {
+                    System.out.println("Client_" + clientId + ": Wasn't able to create new session: " + e.getMessage());
+                }
+                continue;
+            }
+            if (clientId >= activeClients) {
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            if (zkManager.allowedToMakeRequest()) {
+                zkManager.reduceAllowedRequestCount();
+                if (random.nextDouble() <= writeRequestRate) {
+                    zkManager.update(path, data);
+                } else {
+                    zkManager.getZNodeData(path, false);
+                }
+            } else {
+                // Don't spin while waiting for responses, the CPU is needed by the client and in-process servers
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Keep the counts of the expired session and put the new manager in its place. The old session is
+     * closed first, so its counts don't change any more.
+     */
+    private void replace(int clientId, ZKThroughputManagerImpl zkManager, ZKThroughputManagerImpl replacement)
+            throws InterruptedException {
+        zkManager.closeConnection();
+        synchronized (retiredReconnects) {
+            retiredReconnects.addAll(zkManager.getConnection().getReconnects());
+        }
+        synchronized (retired) {
+            retired.add(zkManager);
+            managers.set(clientId, replacement);
+        }
+    }
+
+    /**
+     * Finished requests, latency in microseconds and errors of the clients.
+     */
+    static final class Totals {
+        long requests;
+        long writes;
+        long readErrors;
+        long writeErrors;
+        final LatencyHistogram readLatency = new LatencyHistogram();
+        final LatencyHistogram writeLatency = new LatencyHistogram();
+
+        void add(ZKThroughputManagerImpl zkManager) {
+            requests += zkManager.requestsDone.get();
+            writes += zkManager.writeRequestsDone.get();
+            readErrors += zkManager.readErrors.get();
+            writeErrors += zkManager.writeErrors.get();
+            readLatency.add(zkManager.readLatency);
+            writeLatency.add(zkManager.writeLatency);
+        }
+
+        void add(Totals other) {
+            requests += other.requests;
+            writes += other.writes;
+            readErrors += other.readErrors;
+            writeErrors += other.writeErrors;
+            readLatency.add(other.readLatency);
+            writeLatency.add(other.writeLatency);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ZKNamespaceManagerImpl;
+import com.dps.zookeeper.stats.RunReport;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pre-populates Zookeeper with a tree of the given shape before a benchmark. Nodes are created with
+ * pipelined asynchronous creates, optionally batched into multi requests, by several sessions in parallel.
+ * Existing nodes are skipped, so an interrupted load is finished by running it again.
+ */
+public class BulkLoadClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the bulk loader.
+     */
+    public static final String MODE = "load";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 6;
+
+    /**
+     * Zookeeper cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 0;
+
+    /**
+     * Tree shape, "fanOut:depth:valueSize".
+     */
+    private static final int SHAPE_IDX = 1;
+
+    /**
+     * Root of the tree in Zookeeper, missing parents are created.
+     */
+    private static final int NODE_PATH_IDX = 2;
+
+    /**
+     * Number of sessions creating the nodes.
+     */
+    private static final int NUMBER_OF_SESSIONS_IDX = 3;
+
+    /**
+     * Number of creates in one multi request, 1 sends every create separately.
+     */
+    private static final int BATCH_SIZE_IDX = 4;
+
+    /**
+     * Directory where to write the load results.
+     */
+    private static final int OUTPUT_DIR_IDX = 5;
+
+    /**
+     * How often the progress is printed.
+     */
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private String clusterAddress;
+    private int fanOut;
+    private int depth;
+    private byte[] data;
+    private String root;
+    private int numberOfSessions;
+    private int batchSize;
+    private String outputDirectory;
+
+    public BulkLoadClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Bulk loader expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        parseShape(args[SHAPE_IDX]);
+        root = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        numberOfSessions = ArgumentParser.parsePositiveInt(args[NUMBER_OF_SESSIONS_IDX], NUMBER_OF_SESSIONS_IDX,
+                "the number of sessions creating the nodes");
+        batchSize = ArgumentParser.parsePositiveInt(args[BATCH_SIZE_IDX], BATCH_SIZE_IDX,
+                "the number of creates in one multi request");
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    /**
+     * Parse "fanOut:depth:valueSize", value size can be 0.
+     */
+    private void parseShape(String shape) {
+        String[] parts = shape.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Argument at index " + SHAPE_IDX +
+                    " is expected to be fanOut:depth:valueSize. Given: " + shape + " . It is the tree shape.");
+        }
+        fanOut = ArgumentParser.parsePositiveInt(parts[0], SHAPE_IDX, "the fan-out of the tree");
+        depth = ArgumentParser.parsePositiveInt(parts[1], SHAPE_IDX, "the depth of the tree");
+        int valueSize = "0".equals(parts[2]) ? 0 :
+                ArgumentParser.parsePositiveInt(parts[2], SHAPE_IDX, "the value size of the nodes");
+        data = new byte[valueSize];
+        new Random().nextBytes(data);
+    }
+
+    /**
+     * @return number of nodes in the tree, not including the root
+     */
+    private long totalNodes() {
+        long total = 0;
+        long level = 1;
+        for (int i = 0; i < depth; i++) {
+            level *= fanOut;
+            total += level;
+        }
+        return total;
+    }
+
+    @Override
+    public void start() {
+        List<ZKNamespaceManagerImpl> managers = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfSessions; i++) {
+                ZKNamespaceManagerImpl zkManager = new ZKNamespaceManagerImpl(clusterAddress);
+                zkManager.startLoad(batchSize);
+                managers.add(zkManager);
+            }
+            long start = System.currentTimeMillis();
+            managers.get(0).createParents(root, new byte[0]);
+
+            // Levels above the split level are created by the first session, then every session
+            // creates whole subtrees below it, so parents and children are always in the same session.
+            int splitLevel = 1;
+            long splitNodes = fanOut;
+            while (splitLevel < depth && splitNodes < numberOfSessions) {
+                splitLevel++;
+                splitNodes *= fanOut;
+            }
+            ZKNamespaceManagerImpl first = managers.get(0);
+            for (int level = 1; level < splitLevel; level++) {
+                long levelNodes = (long) Math.pow(fanOut, level);
+                for (long i = 0; i < levelNodes; i++) {
+                    first.loadNode(pathOf(i, level), data);
+                }
+            }
+            first.finishLoad();
+
+            int levelToSplit = splitLevel;
+            long subtrees = splitNodes;
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int s = 0; s < numberOfSessions; s++) {
+                int sessionId = s;
+                ZKNamespaceManagerImpl zkManager = managers.get(s);
+                Thread t = new Thread(() -> {
+                    try {
+                        for (long i = sessionId; i < subtrees && failure.get() == null; i += numberOfSessions) {
+                            loadSubtree(zkManager, pathOf(i, levelToSplit), levelToSplit);
+                        }
+                        zkManager.finishLoad();
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                t.setName("Loader_" + s);
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) {
+                while (t.isAlive()) {
+                    t.join(PROGRESS_INTERVAL_MILLIS);
+                    if (t.isAlive()) {
+                        printProgress(managers, start);
+                    }
+                }
+            }
+            long duration = System.currentTimeMillis() - start;
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            long created = 0;
+            long existing = 0;
+            for (ZKNamespaceManagerImpl zkManager : managers) {
+                created += zkManager.getNodesCreated();
+                existing += zkManager.getNodesExisting();
+            }
+            double nodesPerSecond = created * 1000.0 / Math.max(1, duration);
+            System.out.println("Loaded " + totalNodes() + " nodes under " + root + " in " + duration + " ms: " +
+                    created + " created, " + existing + " existed already, " +
+                    String.format("%.0f", nodesPerSecond) + " nodes/s");
+            writeResults(created, existing, duration, nodesPerSecond);
+            writeReport(created, existing, start, duration, nodesPerSecond);
+        } catch (Exception e) {
+            System.out.println("Bulk load failed, run it again to continue: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            for (ZKNamespaceManagerImpl zkManager : managers) {
+                try {
+                    zkManager.closeConnection();
+                } catch (InterruptedException e) {
+                    System.out.println("Exception when trying to close Zookeeper: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue the node and everything under it, depth first.
+     */
+    private void loadSubtree(ZKNamespaceManagerImpl zkManager, String path, int level) throws Exception {
+        zkManager.loadNode(path, data);
+        if (level < depth) {
+            for (int i = 0; i < fanOut; i++) {
+                loadSubtree(zkManager, path + "/n" + i, level + 1);
+            }
+        }
+    }
+
+    /**
+     * Path of the node with the index among the nodes of its level, the index digits in base fan-out
+     * are the child numbers on the way from the root.
+     */
+    private String pathOf(long index, int level) {
+        String[] names = new String[level];
+        long rest = index;
+        for (int i = level - 1; i >= 0; i--) {
+            names[i] = "/n" + (rest % fanOut);
+            rest /= fanOut;
+        }
+        StringBuilder path = new StringBuilder(root.equals("/") ? "" : root);
+        for (String name : names) {
+            path.append(name);
+        }
+        return path.toString();
+    }
+
+    private void printProgress(List<ZKNamespaceManagerImpl> managers, long start) {
+        long done = 0;
+        for (ZKNamespaceManagerImpl zkManager : managers) {
+            done += zkManager.getNodesCreated() + zkManager.getNodesExisting();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(done + "/" + totalNodes() + " nodes, " +
+                String.format("%.0f", done * 1000.0 / elapsed) + " nodes/s");
+    }
+
+    /**
+     * Write results into a file, one "name value" pair on each line.
+     */
+    private void writeResults(long created, long existing, long duration, double nodesPerSecond) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/load_results.txt"), StandardCharsets.UTF_8)) {
+            writer.write("nodes " + totalNodes() + "\n");
+            writer.write("created " + created + "\n");
+            writer.write("existing " + existing + "\n");
+            writer.write("value_size " + data.length + "\n");
+            writer.write("sessions " + numberOfSessions + "\n");
+            writer.write("batch_size " + batchSize + "\n");
+            writer.write("duration_ms " + duration + "\n");
+            writer.write("nodes_per_second " + nodesPerSecond + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing load results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the same results as in load_results.txt. The loader doesn't time
+     * single requests, so the report has no operations.
+     */
+    private void writeReport(long created, long existing, long start, long duration, double nodesPerSecond) {
+        RunReport report = new RunReport(MODE);
+        report.config("fanOut", fanOut)
+                .config("depth", depth)
+                .config("root", root)
+                .config("sessions", numberOfSessions)
+                .config("batchSize", batchSize);
+        Map<String, Object> row = report.result();
+        row.put("nodes", totalNodes());
+        row.put("created", created);
+        row.put("existing", existing);
+        row.put("durationMillis", duration);
+        row.put("nodesPerSecond", nodesPerSecond);
+        report.setStartTime(start);
+        report.setEndTime(start + duration);
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+}
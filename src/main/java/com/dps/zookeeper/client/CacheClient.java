@@ -0,0 +1,532 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKCachingManagerImpl;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.connection.ZKLatencyManagerImpl;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerMonitor;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Compares reads served by Zookeeper with reads served by {@link ZKCachingManagerImpl} under different write
+ * rates. Reader sessions read random nodes back to back, one writer session updates random nodes at the
+ * given rate. Every node holds the sequence number of its last write, so a reader can tell when it got
+ * older data than a write acknowledged before the read started, and for how long the data had been stale.
+ */
+public class CacheClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the cache test.
+     */
+    public static final String MODE = "cache";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 8;
+
+    /**
+     * Number of reader sessions, each with its own cache.
+     */
+    private static final int NUMBER_OF_READERS_IDX = 0;
+
+    /**
+     * Zookeeper cluster address.
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 1;
+
+    /**
+     * Parent path of the read nodes.
+     */
+    private static final int NODE_PATH_IDX = 2;
+
+    /**
+     * Number of nodes the readers pick from.
+     */
+    private static final int NUMBER_OF_NODES_IDX = 3;
+
+    /**
+     * Comma separated write rates in writes per second, for example "0,10,100".
+     */
+    private static final int WRITE_RATES_IDX = 4;
+
+    /**
+     * Maximum number of nodes in the cache of one reader.
+     */
+    private static final int CACHE_CAPACITY_IDX = 5;
+
+    /**
+     * Measured duration of each run in seconds.
+     */
+    private static final int DURATION_IDX = 6;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 7;
+
+    /**
+     * Reads made before the measurement starts, so that the caches are filled and the JIT has compiled the read path.
+     */
+    private static final long WARM_UP_MILLIS = 2000;
+
+    /**
+     * Acknowledge times kept for each node, to find when the first write a stale read missed was acknowledged.
+     */
+    private static final int ACK_HISTORY = 16;
+
+    private int numberOfReaders;
+    private String clusterAddress;
+    private String pathInZookeeper;
+    private int numberOfNodes;
+    private List<Double> writeRates = new ArrayList<>();
+    private int cacheCapacity;
+    private long durationMillis;
+    private String outputDirectory;
+
+    /**
+     * Sequence number of the last acknowledged write of each node.
+     */
+    private AtomicLongArray acknowledged;
+
+    /**
+     * Acknowledge times of the last {@link #ACK_HISTORY} writes of each node in nanoseconds.
+     */
+    private AtomicLongArray acknowledgedAt;
+
+    public CacheClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Cache test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfReaders = ArgumentParser.parsePositiveInt(args[NUMBER_OF_READERS_IDX], NUMBER_OF_READERS_IDX,
+                "the number of reader sessions");
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        numberOfNodes = ArgumentParser.parsePositiveInt(args[NUMBER_OF_NODES_IDX], NUMBER_OF_NODES_IDX,
+                "the number of read nodes");
+        for (String rate : args[WRITE_RATES_IDX].split(",")) {
+            try {
+                double writeRate = Double.parseDouble(rate.trim());
+                if (writeRate < 0) {
+                    throw new NumberFormatException();
+                }
+                writeRates.add(writeRate);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Argument at index " + WRITE_RATES_IDX +
+                        " is expected to be comma separated non-negative writes per second. Given: " + args[WRITE_RATES_IDX]);
+            }
+        }
+        cacheCapacity = ArgumentParser.parsePositiveInt(args[CACHE_CAPACITY_IDX], CACHE_CAPACITY_IDX,
+                "the number of nodes cached by one reader");
+        durationMillis = ArgumentParser.parsePositiveInt(args[DURATION_IDX], DURATION_IDX,
+                "the measured duration of each run in seconds") * 1000L;
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        long startTime = System.currentTimeMillis();
+        List<Result> results = new ArrayList<>();
+        ZKConnection writerConnection = new ZKConnection();
+        try {
+            ZooKeeper writer = writerConnection.connect(clusterAddress);
+            createNodes(writer);
+            for (double writeRate : writeRates) {
+                for (boolean cached : new boolean[]{false, true}) {
+                    Result result = run(writer, writeRate, cached);
+                    result.print();
+                    results.add(result);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Cache test failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            try {
+                writerConnection.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeResults(results);
+        writeReport(results, startTime);
+    }
+
+    private String nodePath(int node) {
+        return pathInZookeeper + "/n" + node;
+    }
+
+    /**
+     * Create the parents and the read nodes, existing nodes are reset to sequence number 0.
+     */
+    private void createNodes(ZooKeeper writer) throws KeeperException, InterruptedException {
+        int index = 0;
+        while ((index = pathInZookeeper.indexOf('/', index + 1)) > 0) {
+            createIfMissing(writer, pathInZookeeper.substring(0, index), new byte[0]);
+        }
+        createIfMissing(writer, pathInZookeeper, new byte[0]);
+        for (int i = 0; i < numberOfNodes; i++) {
+            if (!createIfMissing(writer, nodePath(i), encode(0))) {
+                writer.setData(nodePath(i), encode(0), -1);
+            }
+        }
+        acknowledged = new AtomicLongArray(numberOfNodes);
+        acknowledgedAt = new AtomicLongArray(numberOfNodes * ACK_HISTORY);
+    }
+
+    private static boolean createIfMissing(ZooKeeper writer, String path, byte[] data)
+            throws KeeperException, InterruptedException {
+        try {
+            writer.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        }
+    }
+
+    private static byte[] encode(long sequence) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(sequence).array();
+    }
+
+    /**
+     * Run the readers with or without the cache while the writer updates nodes at the given rate.
+     */
+    private Result run(ZooKeeper writer, double writeRate, boolean cached) throws Exception {
+        List<Reader> readers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        Result result = new Result(writeRate, cached);
+        Thread writerThread = null;
+        WriteLoop writeLoop = null;
+        try {
+            for (int i = 0; i < numberOfReaders; i++) {
+                ZKConnection connection = new ZKConnection();
+                ZooKeeper client = connection.connect(clusterAddress);
+                ZKCachingManagerImpl cache = cached ? new ZKCachingManagerImpl(
+                        new ZKLatencyManagerImpl(connection, client), client, cacheCapacity) : null;
+                readers.add(new Reader(connection, client, cache));
+            }
+            if (writeRate > 0) {
+                writeLoop = new WriteLoop(writer, writeRate);
+                writerThread = new Thread(writeLoop);
+                writerThread.setName("CacheWriter");
+                writerThread.start();
+            }
+            for (int i = 0; i < readers.size(); i++) {
+                Thread t = new Thread(readers.get(i));
+                t.setName("CacheReader_" + i);
+                t.start();
+                threads.add(t);
+            }
+            Thread.sleep(WARM_UP_MILLIS);
+
+            for (Reader reader : readers) {
+                reader.recording = true;
+            }
+            long writesBefore = writeLoop == null ? 0 : writeLoop.writes;
+            long start = System.nanoTime();
+            Thread.sleep(durationMillis);
+            for (Reader reader : readers) {
+                reader.recording = false;
+            }
+            long elapsed = System.nanoTime() - start;
+            long writes = writeLoop == null ? 0 : writeLoop.writes - writesBefore;
+            result.serverWatches = serverWatches();
+
+            for (Reader reader : readers) {
+                reader.running = false;
+            }
+            if (writeLoop != null) {
+                writeLoop.running = false;
+                writerThread.join();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long reads = 0;
+            long serverReads = 0;
+            for (Reader reader : readers) {
+                reads += reader.reads;
+                serverReads += reader.serverReads;
+                result.readLatency.add(reader.readLatency);
+                result.staleness.add(reader.staleness);
+                result.invalidations += reader.invalidations;
+                result.evictions += reader.evictions;
+            }
+            result.readsPerSecond = reads * 1e9 / elapsed;
+            result.serverReadsPerSecond = serverReads * 1e9 / elapsed;
+            result.writesPerSecond = writes * 1e9 / elapsed;
+            result.invalidationsPerSecond = result.invalidations * 1e9 / elapsed;
+            result.staleFraction = reads == 0 ? 0 : (double) result.staleness.getCount() / reads;
+            return result;
+        } finally {
+            for (Reader reader : readers) {
+                reader.running = false;
+            }
+            if (writeLoop != null) {
+                writeLoop.running = false;
+            }
+            for (Reader reader : readers) {
+                reader.connection.close();
+            }
+        }
+    }
+
+    /**
+     * Watches the servers hold for all sessions, read with "mntr".
+     *
+     * @return sum of the watch counts, -1 if no server answered
+     */
+    private long serverWatches() {
+        long watches = -1;
+        for (String server : new ServerPlacement(clusterAddress, ServerPlacement.RANDOM).getServers()) {
+            Map<String, String> stats = ServerMonitor.mntr(server);
+            String count = stats.get("zk_watch_count");
+            if (count != null) {
+                watches = Math.max(watches, 0) + Long.parseLong(count);
+            }
+        }
+        return watches;
+    }
+
+    /**
+     * Updates random nodes at a fixed rate and records when each write was acknowledged.
+     */
+    private class WriteLoop implements Runnable {
+        private final ZooKeeper writer;
+        private final long intervalNanos;
+        private final long[] sequences = new long[numberOfNodes];
+        private volatile boolean running = true;
+        private volatile long writes;
+
+        WriteLoop(ZooKeeper writer, double writeRate) {
+            this.writer = writer;
+            this.intervalNanos = (long) (1e9 / writeRate);
+            for (int i = 0; i < numberOfNodes; i++) {
+                sequences[i] = acknowledged.get(i);
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = System.nanoTime();
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                next += intervalNanos;
+                int node = ThreadLocalRandom.current().nextInt(numberOfNodes);
+                long sequence = sequences[node] + 1;
+                try {
+                    writer.setData(nodePath(node), encode(sequence), -1);
+                } catch (KeeperException e) {
+                    continue;
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sequences[node] = sequence;
+                acknowledgedAt.set(node * ACK_HISTORY + (int) (sequence % ACK_HISTORY), System.nanoTime());
+                acknowledged.set(node, sequence);
+                writes++;
+            }
+        }
+    }
+
+    /**
+     * Reads random nodes back to back, from Zookeeper or through the cache.
+     */
+    private class Reader implements Runnable {
+        private final ZKConnection connection;
+        private final ZooKeeper client;
+        private final ZKCachingManagerImpl cache;
+        private volatile boolean running = true;
+        private volatile boolean recording = false;
+        private final LatencyHistogram readLatency = new LatencyHistogram();
+        private final LatencyHistogram staleness = new LatencyHistogram();
+        private long reads;
+        private long serverReads;
+        private long invalidations;
+        private long evictions;
+
+        Reader(ZKConnection connection, ZooKeeper client, ZKCachingManagerImpl cache) {
+            this.connection = connection;
+            this.client = client;
+            this.cache = cache;
+        }
+
+        @Override
+        public void run() {
+            boolean recorded = false;
+            long invalidationsBefore = 0;
+            long evictionsBefore = 0;
+            // Ends when the window closes or the run is stopped, the counts are taken either way
+            while (running && (recording || !recorded)) {
+                if (recording && !recorded) {
+                    recorded = true;
+                    if (cache != null) {
+                        invalidationsBefore = cache.invalidations.get();
+                        evictionsBefore = cache.evictions.get();
+                    }
+                }
+                int node = ThreadLocalRandom.current().nextInt(numberOfNodes);
+                long ackedBefore = acknowledged.get(node);
+                // Misses are counted by this thread only, so the ones of this read are known exactly
+                long missesBefore = cache != null ? cache.misses.get() : 0;
+                long start = System.nanoTime();
+                byte[] data;
+                try {
+                    data = cache != null ? cache.getData(nodePath(node)) : client.getData(nodePath(node), false, null);
+                } catch (KeeperException e) {
+                    continue;
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long end = System.nanoTime();
+                // Reads finishing outside the window aren't counted
+                if (!recorded || !recording) {
+                    continue;
+                }
+                reads++;
+                serverReads += cache != null ? cache.misses.get() - missesBefore : 1;
+                readLatency.record((end - start) / 1000);
+                long sequence = ByteBuffer.wrap(data).getLong();
+                if (sequence < ackedBefore) {
+                    // The first missed write, or the oldest one still kept if the reader is far behind
+                    long missed = Math.max(sequence + 1, ackedBefore - ACK_HISTORY + 1);
+                    long ackTime = acknowledgedAt.get(node * ACK_HISTORY + (int) (missed % ACK_HISTORY));
+                    staleness.record(Math.max(0, start - ackTime) / 1000);
+                }
+            }
+            if (recorded && cache != null) {
+                invalidations = cache.invalidations.get() - invalidationsBefore;
+                evictions = cache.evictions.get() - evictionsBefore;
+            }
+        }
+    }
+
+    /**
+     * Write one line for each run into cache_results.txt:
+     * writesPerSecond cached readsPerSecond serverReadsPerSecond offload readP50Us readP99Us
+     * staleFraction staleP50Us staleP99Us staleMaxUs invalidationsPerSecond evictions serverWatches
+     */
+    private void writeResults(List<Result> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/cache_results.txt"), StandardCharsets.UTF_8)) {
+            for (Result r : results) {
+                writer.write(r.writesPerSecond + " " + r.cached + " " + r.readsPerSecond + " " +
+                        r.serverReadsPerSecond + " " + r.offload() + " " + r.readLatency.getPercentile(50) + " " +
+                        r.readLatency.getPercentile(99) + " " + r.staleFraction + " " +
+                        r.staleness.getPercentile(50) + " " + r.staleness.getPercentile(99) + " " +
+                        r.staleness.getMax() + " " + r.invalidationsPerSecond + " " + r.evictions + " " +
+                        r.serverWatches + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing cache results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the operations "cached_rate.read" or "uncached_rate.read" and
+     * "cached_rate.stale" or "uncached_rate.stale" for the read latency and the staleness of each run,
+     * and the same results as in cache_results.txt.
+     */
+    private void writeReport(List<Result> results, long startTime) {
+        RunReport report = new RunReport(MODE);
+        report.config("readers", numberOfReaders)
+                .config("path", pathInZookeeper)
+                .config("nodes", numberOfNodes)
+                .config("writeRates", writeRates.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .config("cacheCapacity", cacheCapacity)
+                .config("durationMillis", durationMillis);
+        for (Result r : results) {
+            String run = (r.cached ? "cached_" : "uncached_") + r.writeRate;
+            report.operation(run + ".read").latency.add(r.readLatency);
+            report.operation(run + ".stale").latency.add(r.staleness);
+            Map<String, Object> row = report.result();
+            row.put("writeRate", r.writeRate);
+            row.put("writesPerSecond", r.writesPerSecond);
+            row.put("cached", r.cached);
+            row.put("readsPerSecond", r.readsPerSecond);
+            row.put("serverReadsPerSecond", r.serverReadsPerSecond);
+            row.put("offload", r.offload());
+            row.put("readP50Us", r.readLatency.getPercentile(50));
+            row.put("readP99Us", r.readLatency.getPercentile(99));
+            row.put("staleFraction", r.staleFraction);
+            row.put("staleP50Us", r.staleness.getPercentile(50));
+            row.put("staleP99Us", r.staleness.getPercentile(99));
+            row.put("staleMaxUs", r.staleness.getMax());
+            row.put("invalidationsPerSecond", r.invalidationsPerSecond);
+            row.put("evictions", r.evictions);
+            row.put("serverWatches", r.serverWatches);
+        }
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(Long.BYTES);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one run.
+     */
+    private static class Result {
+        private final double writeRate;
+        private final boolean cached;
+        private double readsPerSecond;
+        private double serverReadsPerSecond;
+        private double writesPerSecond;
+        private double invalidationsPerSecond;
+        private double staleFraction;
+        private long invalidations;
+        private long evictions;
+        private long serverWatches;
+        private final LatencyHistogram readLatency = new LatencyHistogram();
+        private final LatencyHistogram staleness = new LatencyHistogram();
+
+        Result(double writeRate, boolean cached) {
+            this.writeRate = writeRate;
+            this.cached = cached;
+        }
+
+        /**
+         * @return share of the reads which didn't reach Zookeeper
+         */
+        double offload() {
+            return readsPerSecond == 0 ? 0 : 1 - serverReadsPerSecond / readsPerSecond;
+        }
+
+        void print() {
+            System.out.println((cached ? "Cached" : "Uncached") + " reads, " + writeRate + " writes/s requested, " +
+                    String.format("%.0f", writesPerSecond) + " done: " + String.format("%.0f", readsPerSecond) +
+                    " reads/s, " + String.format("%.0f", serverReadsPerSecond) + " reached Zookeeper (offload " +
+                    String.format("%.1f", offload() * 100) + "%), read p50 " + readLatency.getPercentile(50) +
+                    " us, p99 " + readLatency.getPercentile(99) + " us");
+            System.out.println("  stale reads " + String.format("%.4f", staleFraction * 100) + "%, stale for p50 " +
+                    staleness.getPercentile(50) + " us, p99 " + staleness.getPercentile(99) + " us, max " +
+                    staleness.getMax() + " us; " + String.format("%.0f", invalidationsPerSecond) +
+                    " invalidations/s, " + evictions + " evictions, " + serverWatches + " watches on the servers");
+        }
+    }
+}
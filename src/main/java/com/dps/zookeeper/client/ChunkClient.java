@@ -0,0 +1,401 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ZKChunkedManagerImpl;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerMonitor;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Compares large values stored in a single node with values chunked over child nodes by
+ * {@link ZKChunkedManagerImpl}, for each of the given value sizes. Every layout writes a number of values,
+ * then reads and rewrites each of them for a number of rounds, and the servers are asked how much data
+ * and how many nodes the values take while they exist.
+ */
+public class ChunkClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the chunking test.
+     */
+    public static final String MODE = "chunks";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 7;
+
+    /**
+     * Zookeeper cluster address.
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 0;
+
+    /**
+     * Node path in Zookeeper, the values are stored under it.
+     */
+    private static final int NODE_PATH_IDX = 1;
+
+    /**
+     * Comma separated value sizes in kilobytes, for example "64,512,1000,4096".
+     */
+    private static final int VALUE_SIZES_IDX = 2;
+
+    /**
+     * Chunk size in kilobytes.
+     */
+    private static final int CHUNK_SIZE_IDX = 3;
+
+    /**
+     * Number of values stored at the same time for each size and layout.
+     */
+    private static final int NUMBER_OF_VALUES_IDX = 4;
+
+    /**
+     * Number of times each value is read and rewritten.
+     */
+    private static final int ROUNDS_IDX = 5;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 6;
+
+    private static final String SINGLE = "single";
+    private static final String CHUNKED = "chunked";
+
+    private String clusterAddress;
+    private String pathInZookeeper;
+    private List<Integer> valueSizes = new ArrayList<>();
+    private int chunkSize;
+    private int numberOfValues;
+    private int rounds;
+    private String outputDirectory;
+
+    public ChunkClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Chunking test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        for (String size : args[VALUE_SIZES_IDX].split(",")) {
+            valueSizes.add(ArgumentParser.parsePositiveInt(size.trim(), VALUE_SIZES_IDX,
+                    "the comma separated value sizes in kilobytes") * 1024);
+        }
+        chunkSize = ArgumentParser.parsePositiveInt(args[CHUNK_SIZE_IDX], CHUNK_SIZE_IDX,
+                "the chunk size in kilobytes") * 1024;
+        if (chunkSize > ZKChunkedManagerImpl.MULTI_BYTES) {
+            throw new IllegalArgumentException("Argument at index " + CHUNK_SIZE_IDX +
+                    " is expected to be at most " + ZKChunkedManagerImpl.MULTI_BYTES / 1024 + " kilobytes. Given: " +
+                    args[CHUNK_SIZE_IDX] + " . It is the chunk size in kilobytes.");
+        }
+        numberOfValues = ArgumentParser.parsePositiveInt(args[NUMBER_OF_VALUES_IDX], NUMBER_OF_VALUES_IDX,
+                "the number of values stored for each size");
+        rounds = ArgumentParser.parsePositiveInt(args[ROUNDS_IDX], ROUNDS_IDX,
+                "the number of times each value is read and rewritten");
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        long startTime = System.currentTimeMillis();
+        List<Result> results = new ArrayList<>();
+        for (int valueSize : valueSizes) {
+            byte[] value = new byte[valueSize];
+            new Random(valueSize).nextBytes(value);
+            for (String layout : new String[]{SINGLE, CHUNKED}) {
+                Result result = new Result(valueSize, layout);
+                try {
+                    run(result, value);
+                } catch (Exception e) {
+                    result.failure = e.toString();
+                }
+                result.print();
+                results.add(result);
+            }
+        }
+        writeResults(results);
+        writeReport(results, startTime);
+    }
+
+    /**
+     * Create the root of the values and every missing node above it. Values an interrupted earlier run
+     * left under the root are deleted.
+     */
+    private void prepareRoot(String root) throws IOException, InterruptedException, KeeperException {
+        ZKConnection connection = new ZKConnection();
+        ZooKeeper client = connection.connect(clusterAddress);
+        try {
+            deleteLeftOver(client, root);
+            int next = root.indexOf('/', 1);
+            while (true) {
+                String prefix = next < 0 ? root : root.substring(0, next);
+                try {
+                    client.create(prefix, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                } catch (KeeperException.NodeExistsException e) {
+                    // Exists already
+                }
+                if (next < 0) {
+                    return;
+                }
+                next = root.indexOf('/', next + 1);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Write, read and rewrite the values in one layout, then delete them. Every layout and size gets
+     * a new session, so a connection dropped by a value above the server limit doesn't affect the others.
+     */
+    private void run(Result result, byte[] value) throws Exception {
+        String root = pathInZookeeper + "/" + result.layout + "_" + value.length;
+        prepareRoot(root);
+        Store store = SINGLE.equals(result.layout) ? new SingleStore() : new ChunkedStore();
+        long dataBefore = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+        long nodesBefore = ServerMonitor.maxOverServers(clusterAddress, "zk_znode_count");
+        List<String> written = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfValues; i++) {
+                String path = root + "/v" + i;
+                long start = System.nanoTime();
+                store.write(path, value, true);
+                result.writeLatency.record((System.nanoTime() - start) / 1000);
+                written.add(path);
+            }
+            for (int round = 0; round < rounds; round++) {
+                for (String path : written) {
+                    long start = System.nanoTime();
+                    byte[] read = store.read(path);
+                    result.readLatency.record((System.nanoTime() - start) / 1000);
+                    // Compare the content once, the length every time
+                    if (read.length != value.length || (round == 0 && !Arrays.equals(read, value))) {
+                        throw new IllegalStateException("Value read from " + path + " differs from the written one");
+                    }
+                    start = System.nanoTime();
+                    store.write(path, value, false);
+                    result.writeLatency.record((System.nanoTime() - start) / 1000);
+                }
+            }
+            long dataAfter = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+            long nodesAfter = ServerMonitor.maxOverServers(clusterAddress, "zk_znode_count");
+            if (dataBefore >= 0 && dataAfter >= 0) {
+                result.dataBytesPerValue = (double) (dataAfter - dataBefore) / numberOfValues;
+                result.nodesPerValue = (double) (nodesAfter - nodesBefore) / numberOfValues;
+            }
+        } finally {
+            try {
+                for (String path : written) {
+                    store.delete(path);
+                }
+                store.delete(root);
+            } catch (KeeperException e) {
+                // Session lost after a rejected value, the nodes are deleted on the next run
+            }
+            store.close();
+        }
+    }
+
+    /**
+     * Values in one layout.
+     */
+    private interface Store {
+        void write(String path, byte[] value, boolean create) throws KeeperException, InterruptedException;
+
+        byte[] read(String path) throws KeeperException, InterruptedException;
+
+        void delete(String path) throws KeeperException, InterruptedException;
+
+        void close() throws InterruptedException;
+    }
+
+    /**
+     * Every value in one node.
+     */
+    private class SingleStore implements Store {
+        private final ZKConnection connection = new ZKConnection();
+        private final ZooKeeper client;
+
+        SingleStore() throws IOException, InterruptedException {
+            client = connection.connect(clusterAddress);
+        }
+
+        @Override
+        public void write(String path, byte[] value, boolean create) throws KeeperException, InterruptedException {
+            if (create) {
+                client.create(path, value, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } else {
+                client.setData(path, value, -1);
+            }
+        }
+
+        @Override
+        public byte[] read(String path) throws KeeperException, InterruptedException {
+            return client.getData(path, false, null);
+        }
+
+        @Override
+        public void delete(String path) throws KeeperException, InterruptedException {
+            client.delete(path, -1);
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            connection.close();
+        }
+    }
+
+    /**
+     * Every value chunked over child nodes.
+     */
+    private class ChunkedStore implements Store {
+        private final ZKChunkedManagerImpl zkManager;
+
+        ChunkedStore() throws IOException, InterruptedException {
+            zkManager = new ZKChunkedManagerImpl(clusterAddress, chunkSize);
+        }
+
+        @Override
+        public void write(String path, byte[] value, boolean create) throws KeeperException, InterruptedException {
+            zkManager.write(path, value);
+        }
+
+        @Override
+        public byte[] read(String path) throws KeeperException, InterruptedException {
+            return zkManager.read(path);
+        }
+
+        @Override
+        public void delete(String path) throws KeeperException, InterruptedException {
+            zkManager.delete(path);
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            zkManager.closeConnection();
+        }
+    }
+
+    /**
+     * Delete the values an interrupted earlier run left behind.
+     */
+    private static void deleteLeftOver(ZooKeeper client, String root) throws KeeperException, InterruptedException {
+        if (client.exists(root, false) == null) {
+            return;
+        }
+        for (String value : client.getChildren(root, false)) {
+            for (String chunk : client.getChildren(root + "/" + value, false)) {
+                client.delete(root + "/" + value + "/" + chunk, -1);
+            }
+            client.delete(root + "/" + value, -1);
+        }
+        client.delete(root, -1);
+    }
+
+    /**
+     * Write one line for each value size and layout into chunk_results.txt:
+     * valueBytes layout writes writeP50Us writeP99Us reads readP50Us readP99Us dataBytesPerValue nodesPerValue status
+     * A layout which failed has status "failed", the data and nodes are -1 if the servers didn't answer "mntr".
+     */
+    private void writeResults(List<Result> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/chunk_results.txt"), StandardCharsets.UTF_8)) {
+            for (Result r : results) {
+                writer.write(r.valueSize + " " + r.layout + " " + r.writeLatency.getCount() + " " +
+                        r.writeLatency.getPercentile(50) + " " + r.writeLatency.getPercentile(99) + " " +
+                        r.readLatency.getCount() + " " + r.readLatency.getPercentile(50) + " " +
+                        r.readLatency.getPercentile(99) + " " + r.dataBytesPerValue + " " + r.nodesPerValue + " " +
+                        (r.failure == null ? "ok" : "failed") + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing chunking results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the operations "layout_valueBytes.write" and "layout_valueBytes.read"
+     * of each value size and layout and the same results as in chunk_results.txt. A failed layout
+     * counts as one write error.
+     */
+    private void writeReport(List<Result> results, long startTime) {
+        RunReport report = new RunReport(MODE);
+        report.config("path", pathInZookeeper)
+                .config("valueBytes", valueSizes.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .config("chunkBytes", chunkSize)
+                .config("values", numberOfValues)
+                .config("rounds", rounds);
+        for (Result r : results) {
+            String run = r.layout + "_" + r.valueSize;
+            RunReport.Operation writes = report.operation(run + ".write");
+            writes.latency.add(r.writeLatency);
+            if (r.failure != null) {
+                writes.errors.incrementAndGet();
+            }
+            report.operation(run + ".read").latency.add(r.readLatency);
+            Map<String, Object> row = report.result();
+            row.put("valueBytes", r.valueSize);
+            row.put("layout", r.layout);
+            row.put("writes", r.writeLatency.getCount());
+            row.put("writeP50Us", r.writeLatency.getPercentile(50));
+            row.put("writeP99Us", r.writeLatency.getPercentile(99));
+            row.put("reads", r.readLatency.getCount());
+            row.put("readP50Us", r.readLatency.getPercentile(50));
+            row.put("readP99Us", r.readLatency.getPercentile(99));
+            row.put("dataBytesPerValue", r.dataBytesPerValue);
+            row.put("nodesPerValue", r.nodesPerValue);
+            row.put("status", r.failure == null ? "ok" : "failed");
+            row.put("failure", r.failure);
+        }
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one value size and layout.
+     */
+    private static class Result {
+        private final int valueSize;
+        private final String layout;
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+        private final LatencyHistogram readLatency = new LatencyHistogram();
+        private double dataBytesPerValue = -1;
+        private double nodesPerValue = -1;
+        private String failure;
+
+        Result(int valueSize, String layout) {
+            this.valueSize = valueSize;
+            this.layout = layout;
+        }
+
+        void print() {
+            String name = valueSize / 1024 + " KB " + layout;
+            if (failure != null) {
+                System.out.println(name + " failed after " + writeLatency.getCount() + " writes: " + failure);
+                return;
+            }
+            System.out.println(name + ": write p50 " + writeLatency.getPercentile(50) + " us, p99 " +
+                    writeLatency.getPercentile(99) + " us, read p50 " + readLatency.getPercentile(50) + " us, p99 " +
+                    readLatency.getPercentile(99) + " us, " + String.format("%.0f", dataBytesPerValue) +
+                    " data bytes and " + String.format("%.1f", nodesPerValue) + " nodes per value on the servers");
+        }
+    }
+}
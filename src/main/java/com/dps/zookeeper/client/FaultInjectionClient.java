@@ -0,0 +1,395 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.ensemble.FaultInjector;
+import com.dps.zookeeper.ensemble.FaultProxy;
+import com.dps.zookeeper.ensemble.FaultScenario;
+import com.dps.zookeeper.ensemble.LocalEnsemble;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ThroughputTimeSeries;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs throughput load while servers are killed and restarted on a schedule. Measures the time to elect
+ * a new leader, the reconnect latency seen by the clients and the dip and recovery of throughput. Writes
+ * are also measured on their own, because reads can recover while writes still fail.
+ */
+public class FaultInjectionClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the fault injection test.
+     */
+    public static final String MODE = "fault";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 8;
+
+    /**
+     * Number of clients, which are created.
+     */
+    private static final int NUMBER_OF_CLIENTS_IDX = 0;
+
+    /**
+     * Servers to use, "local:N" for in-process ensemble of N peers
+     * or "proxy:host:port,host:port,..." for proxies in front of a running ensemble.
+     */
+    private static final int ENSEMBLE_IDX = 1;
+
+    /**
+     * Path in Zookeeper. Each client adds it's ID to the end of path name.
+     */
+    private static final int NODE_PATH_IDX = 2;
+
+    /**
+     * Percentage of writes in generated requests
+     */
+    private static final int WRITE_RATE_IDX = 3;
+
+    /**
+     * Path to data, which is used in the test
+     */
+    private static final int DATA_PATH_IDX = 4;
+
+    /**
+     * Duration of the test in seconds.
+     */
+    private static final int DURATION_IDX = 5;
+
+    /**
+     * Fault schedule, see {@link FaultScenario}.
+     */
+    private static final int SCHEDULE_IDX = 6;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 7;
+
+    private static final String LOCAL_PREFIX = "local:";
+    private static final String PROXY_PREFIX = "proxy:";
+
+    /**
+     * Width of one throughput time series bucket.
+     */
+    private static final long BUCKET_MILLIS = 100;
+
+    /**
+     * Throughput before the fault is averaged over this window.
+     */
+    private static final long BASELINE_WINDOW_MILLIS = 5000;
+
+    /**
+     * Throughput is recovered when one second average is back at this share of the baseline.
+     */
+    private static final double RECOVERY_THRESHOLD = 0.9;
+
+    /**
+     * How long to wait for a leader to be elected.
+     */
+    private static final long ELECTION_TIMEOUT_MILLIS = 60000;
+
+    private int numberOfClients;
+    private FaultInjector injector;
+    private String pathInZookeeper;
+    private double writeRequestRate;
+    private byte[] data;
+    private long durationMillis;
+    private FaultScenario scenario;
+    private String ensemble;
+    private String schedule;
+    private String outputDirectory;
+    private BackgroundLoad load;
+
+    public FaultInjectionClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Fault injection test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfClients = ArgumentParser.parsePositiveInt(args[NUMBER_OF_CLIENTS_IDX], NUMBER_OF_CLIENTS_IDX,
+                "the number of clients created");
+        ensemble = args[ENSEMBLE_IDX];
+        injector = parseEnsemble(ensemble);
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        writeRequestRate = ArgumentParser.parseRate(args[WRITE_RATE_IDX], WRITE_RATE_IDX,
+                "the write request generation rate");
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        durationMillis = ArgumentParser.parsePositiveInt(args[DURATION_IDX], DURATION_IDX,
+                "the duration of the test in seconds") * 1000L;
+        schedule = args[SCHEDULE_IDX];
+        scenario = new FaultScenario(schedule);
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    /**
+     * Create the servers where faults are injected.
+     *
+     * @param ensemble "local:N" or "proxy:clusterAddress"
+     * @return fault injector
+     */
+    private FaultInjector parseEnsemble(String ensemble) {
+        if (ensemble.startsWith(LOCAL_PREFIX)) {
+            return new LocalEnsemble(ArgumentParser.parsePositiveInt(ensemble.substring(LOCAL_PREFIX.length()),
+                    ENSEMBLE_IDX, "the number of peers in local ensemble"));
+        } else if (ensemble.startsWith(PROXY_PREFIX)) {
+            return new FaultProxy(ensemble.substring(PROXY_PREFIX.length()));
+        }
+        throw new IllegalArgumentException("Argument at index " + ENSEMBLE_IDX +
+                " is expected to be " + LOCAL_PREFIX + "N or " + PROXY_PREFIX + "host:port,... Given: " + ensemble);
+    }
+
+    @Override
+    public void start() {
+        try {
+            injector.start();
+            if (!injector.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+                System.out.println("Ensemble didn't elect a leader in " + ELECTION_TIMEOUT_MILLIS + " ms");
+                return;
+            }
+            String connectString = injector.getConnectString();
+            System.out.println("Ensemble ready: " + connectString + ", leader " + injector.getLeaderId());
+
+            load = new BackgroundLoad(numberOfClients, new ServerPlacement(connectString, ServerPlacement.RANDOM),
+                    pathInZookeeper, writeRequestRate, data);
+            load.connect();
+
+            ThroughputTimeSeries timeSeries = new ThroughputTimeSeries(BUCKET_MILLIS, load::totalRequests);
+            ThroughputTimeSeries writeSeries = new ThroughputTimeSeries(BUCKET_MILLIS, load::totalWrites);
+            timeSeries.start();
+            writeSeries.start();
+            long startTime = timeSeries.getStartTime();
+            load.start();
+
+            List<FaultResult> results = runSchedule(startTime);
+
+            long sleep = startTime + durationMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+            load.stop();
+            timeSeries.stop();
+            writeSeries.stop();
+
+            List<ZKConnection.Reconnect> reconnects = load.allReconnects();
+            for (int i = 0; i < results.size(); i++) {
+                long nextFault = i + 1 < results.size() ? results.get(i + 1).faultTime : startTime + durationMillis;
+                results.get(i).analyze(timeSeries, writeSeries, reconnects, nextFault);
+            }
+            printResults(results);
+            writeResults(results);
+            writeReport(results, timeSeries, connectString);
+            timeSeries.write(outputDirectory + "/throughput_timeseries.txt");
+            writeSeries.write(outputDirectory + "/write_timeseries.txt");
+        } catch (Exception e) {
+            System.out.println("Fault injection test failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            if (load != null) {
+                load.close();
+            }
+            injector.close();
+        }
+    }
+
+    /**
+     * Execute the fault steps at their scheduled time.
+     *
+     * @param startTime benchmark start time
+     * @return result of each step
+     * @throws Exception
+     */
+    private List<FaultResult> runSchedule(long startTime) throws Exception {
+        List<FaultResult> results = new ArrayList<>();
+        for (FaultScenario.Step step : scenario.getSteps()) {
+            if (step.atMillis >= durationMillis) {
+                break;
+            }
+            long sleep = startTime + step.atMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+            FaultResult result = new FaultResult(step, System.currentTimeMillis());
+            result.servers = scenario.execute(step, injector);
+            System.out.println("Fault " + step + ": servers " + result.servers);
+            if (step.affectsLeader()) {
+                if (injector.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+                    result.electionMillis = System.currentTimeMillis() - result.faultTime;
+                    System.out.println("Leader " + injector.getLeaderId() + " elected in " + result.electionMillis + " ms");
+                } else {
+                    System.out.println("No leader elected in " + ELECTION_TIMEOUT_MILLIS + " ms");
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void printResults(List<FaultResult> results) {
+        for (FaultResult result : results) {
+            System.out.println(result.describe());
+        }
+    }
+
+    /**
+     * Write one line for each fault:
+     * seconds action servers electionMs reconnects avgReconnectMs maxReconnectMs baselineRps minRps recoveryMs
+     * baselineWps minWps writeRecoveryMs
+     */
+    private void writeResults(List<FaultResult> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/fault_results.txt"), StandardCharsets.UTF_8)) {
+            for (FaultResult r : results) {
+                writer.write(r.step.atMillis / 1000.0 + " " + r.step.action + " " + r.servers.toString().replace(" ", "") +
+                        " " + r.electionMillis + " " + r.reconnectCount + " " + r.averageReconnectMillis +
+                        " " + r.maxReconnectMillis + " " + r.requests.baseline + " " + r.requests.minimum +
+                        " " + r.requests.recoveryMillis + " " + r.writes.baseline + " " + r.writes.minimum +
+                        " " + r.writes.recoveryMillis + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing fault results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the read and write latency of the whole test and one result for each fault.
+     */
+    private void writeReport(List<FaultResult> results, ThroughputTimeSeries timeSeries, String connectString) {
+        RunReport report = new RunReport(MODE);
+        report.config("clients", numberOfClients)
+                .config("ensemble", ensemble)
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate)
+                .config("durationMillis", durationMillis)
+                .config("schedule", schedule);
+        load.report(report);
+        for (FaultResult r : results) {
+            Map<String, Object> row = report.result();
+            row.put("seconds", r.step.atMillis / 1000.0);
+            row.put("action", r.step.action);
+            row.put("servers", r.servers.toString().replace(" ", ""));
+            row.put("electionMillis", r.electionMillis);
+            row.put("reconnects", r.reconnectCount);
+            row.put("averageReconnectMillis", r.averageReconnectMillis);
+            row.put("maxReconnectMillis", r.maxReconnectMillis);
+            row.put("baselineRequestsPerSecond", r.requests.baseline);
+            row.put("minimumRequestsPerSecond", r.requests.minimum);
+            row.put("recoveryMillis", r.requests.recoveryMillis);
+            row.put("baselineWritesPerSecond", r.writes.baseline);
+            row.put("minimumWritesPerSecond", r.writes.minimum);
+            row.put("writeRecoveryMillis", r.writes.recoveryMillis);
+        }
+        report.setStartTime(timeSeries.getStartTime());
+        report.setEndTime(timeSeries.getStartTime() + durationMillis);
+        report.setEnsembleAddress(connectString);
+        report.setPayloadBytes(data.length);
+        report.setTimeSeries(timeSeries);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one fault.
+     */
+    private static class FaultResult {
+        private final FaultScenario.Step step;
+        private final long faultTime;
+        private List<Integer> servers = new ArrayList<>();
+        private long electionMillis = -1;
+        private int reconnectCount;
+        private double averageReconnectMillis;
+        private long maxReconnectMillis;
+        private final Recovery requests = new Recovery();
+        private final Recovery writes = new Recovery();
+
+        FaultResult(FaultScenario.Step step, long faultTime) {
+            this.step = step;
+            this.faultTime = faultTime;
+        }
+
+        /**
+         * Find the reconnects caused by the fault and the throughput dip after it.
+         *
+         * @param timeSeries  throughput of the whole test
+         * @param writeSeries write throughput of the whole test
+         * @param reconnects  reconnects of all clients
+         * @param nextFault   time of the next fault or end of the test
+         */
+        void analyze(ThroughputTimeSeries timeSeries, ThroughputTimeSeries writeSeries,
+                     List<ZKConnection.Reconnect> reconnects, long nextFault) {
+            long sum = 0;
+            for (ZKConnection.Reconnect reconnect : reconnects) {
+                if (reconnect.disconnectedAt >= faultTime && reconnect.disconnectedAt < nextFault) {
+                    reconnectCount++;
+                    sum += reconnect.latencyMillis;
+                    maxReconnectMillis = Math.max(maxReconnectMillis, reconnect.latencyMillis);
+                }
+            }
+            averageReconnectMillis = reconnectCount == 0 ? 0 : (double) sum / reconnectCount;
+            requests.analyze(timeSeries, faultTime, nextFault);
+            writes.analyze(writeSeries, faultTime, nextFault);
+        }
+
+        String describe() {
+            return "Fault " + step + " on servers " + servers + ": " +
+                    (electionMillis >= 0 ? "leader elected in " + electionMillis + " ms, " : "") +
+                    reconnectCount + " reconnects, " + String.format("%.1f", averageReconnectMillis) + " ms average, " +
+                    maxReconnectMillis + " ms max reconnect latency, throughput " + requests.describe("requests") +
+                    ", writes " + writes.describe("writes");
+        }
+    }
+
+    /**
+     * Dip and recovery of one throughput time series after a fault.
+     */
+    private static class Recovery {
+        private double baseline;
+        private double minimum;
+        private long recoveryMillis = -1;
+
+        void analyze(ThroughputTimeSeries timeSeries, long faultTime, long nextFault) {
+            int faultBucket = timeSeries.bucketOf(faultTime);
+            int endBucket = timeSeries.bucketOf(nextFault);
+            int window = (int) (BASELINE_WINDOW_MILLIS / timeSeries.getBucketMillis());
+            int second = (int) (1000 / timeSeries.getBucketMillis());
+            baseline = timeSeries.requestsPerSecond(faultBucket - window, faultBucket);
+            minimum = Double.MAX_VALUE;
+            int dipBucket = -1;
+            for (int i = faultBucket; i < endBucket; i++) {
+                minimum = Math.min(minimum, timeSeries.requestsPerSecond(i, i + 1));
+                if (dipBucket == -1 && timeSeries.requestsPerSecond(i, i + second) < baseline * RECOVERY_THRESHOLD) {
+                    dipBucket = i;
+                }
+            }
+            if (minimum == Double.MAX_VALUE) {
+                minimum = 0;
+            }
+            if (dipBucket == -1) {
+                recoveryMillis = 0;
+                return;
+            }
+            // Recovered when a full second from the bucket on is back at the baseline
+            for (int i = dipBucket; i < endBucket; i++) {
+                if (timeSeries.requestsPerSecond(i, i + second) >= baseline * RECOVERY_THRESHOLD) {
+                    recoveryMillis = timeSeries.getStartTime() + i * timeSeries.getBucketMillis() - faultTime;
+                    return;
+                }
+            }
+        }
+
+        String describe(String unit) {
+            return String.format("%.0f", baseline) + " " + unit + "/s before, " +
+                    String.format("%.0f", minimum) + " " + unit + "/s at lowest, " +
+                    (recoveryMillis >= 0 ? "recovered in " + recoveryMillis + " ms" : "didn't recover");
+        }
+    }
+}
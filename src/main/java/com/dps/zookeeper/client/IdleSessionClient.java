@@ -0,0 +1,522 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKAsyncManager;
+import com.dps.zookeeper.connection.ZKAsyncManagerImpl;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.LatencyTimeSeries;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerMetricsCollector;
+import com.dps.zookeeper.stats.ServerMonitor;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds a fleet of idle sessions, which only send pings and own ephemeral nodes, next to foreground clients
+ * making synchronous requests back to back. Foreground latency is measured without the idle sessions,
+ * while the idle sessions are connected and while the servers expire them: the idle clients are stopped
+ * without closing their sessions, like crashed processes, so the servers expire every session and delete
+ * its ephemerals at about the same time.
+ */
+public class IdleSessionClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the idle session test.
+     */
+    public static final String MODE = "idle";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 10;
+
+    /**
+     * Number of idle sessions.
+     */
+    private static final int NUMBER_OF_SESSIONS_IDX = 0;
+
+    /**
+     * Ephemeral nodes created by each idle session.
+     */
+    private static final int EPHEMERALS_IDX = 1;
+
+    /**
+     * Session timeout of the idle sessions in milliseconds.
+     */
+    private static final int SESSION_TIMEOUT_IDX = 2;
+
+    /**
+     * Zookeeper cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 3;
+
+    /**
+     * Number of foreground clients.
+     */
+    private static final int NUMBER_OF_CLIENTS_IDX = 4;
+
+    /**
+     * Path in Zookeeper. Each foreground client adds it's ID to the end of path name, ephemerals are
+     * created under path + "_idle".
+     */
+    private static final int NODE_PATH_IDX = 5;
+
+    /**
+     * Percentage of writes in the foreground requests.
+     */
+    private static final int WRITE_RATE_IDX = 6;
+
+    /**
+     * Path to data, which is used in the test
+     */
+    private static final int DATA_PATH_IDX = 7;
+
+    /**
+     * Duration of the measurement before and with the idle sessions in seconds.
+     */
+    private static final int HOLD_IDX = 8;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 9;
+
+    /**
+     * Number of threads creating the Zookeeper clients.
+     */
+    private static final int OPENER_THREADS = 16;
+
+    /**
+     * How long to wait for the idle sessions to be established.
+     */
+    private static final long CONNECT_TIMEOUT_MILLIS = 300000;
+
+    /**
+     * Ephemeral creates waiting for a response, same limit as in throughput test.
+     */
+    private static final int MAX_OUTSTANDING_REQUESTS = 1000;
+
+    /**
+     * Width of one latency time series bucket, also how often the sessions are counted during expiry.
+     */
+    private static final long BUCKET_MILLIS = 100;
+
+    /**
+     * Time to wait for the expiry in addition to three session timeouts.
+     */
+    private static final long EXPIRY_SLACK_MILLIS = 30000;
+
+    /**
+     * Sessions known to the ensemble, read with "mntr". Counted instead of the ephemerals, so the expiry
+     * is seen also without ephemerals, and instead of the connections, which close when the clients stop.
+     */
+    private static final String SESSIONS_METRIC = "zk_global_sessions";
+
+    private static final String BASELINE = "baseline";
+    private static final String OPEN = "open";
+    private static final String IDLE = "idle";
+    private static final String EXPIRY_WAIT = "expiry_wait";
+    private static final String EXPIRY = "expiry";
+
+    private int numberOfSessions;
+    private int ephemeralsPerSession;
+    private int sessionTimeoutMillis;
+    private String clusterAddress;
+    private int numberOfClients;
+    private String pathInZookeeper;
+    private double writeRequestRate;
+    private byte[] data;
+    private long holdMillis;
+    private String outputDirectory;
+
+    /**
+     * Foreground latency of each phase in execution order.
+     */
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private volatile Phase currentPhase;
+    private final LatencyTimeSeries latencySeries = new LatencyTimeSeries(BUCKET_MILLIS);
+    private volatile boolean running = true;
+
+    public IdleSessionClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Idle session test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfSessions = ArgumentParser.parsePositiveInt(args[NUMBER_OF_SESSIONS_IDX], NUMBER_OF_SESSIONS_IDX,
+                "the number of idle sessions");
+        // Sessions without ephemerals are allowed
+        ephemeralsPerSession = "0".equals(args[EPHEMERALS_IDX]) ? 0 :
+                ArgumentParser.parsePositiveInt(args[EPHEMERALS_IDX], EPHEMERALS_IDX,
+                        "the number of ephemeral nodes of each idle session");
+        sessionTimeoutMillis = ArgumentParser.parsePositiveInt(args[SESSION_TIMEOUT_IDX], SESSION_TIMEOUT_IDX,
+                "the session timeout of the idle sessions in milliseconds");
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        numberOfClients = ArgumentParser.parsePositiveInt(args[NUMBER_OF_CLIENTS_IDX], NUMBER_OF_CLIENTS_IDX,
+                "the number of foreground clients");
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        writeRequestRate = ArgumentParser.parseRate(args[WRITE_RATE_IDX], WRITE_RATE_IDX,
+                "the write request generation rate");
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        holdMillis = ArgumentParser.parsePositiveInt(args[HOLD_IDX], HOLD_IDX,
+                "the measured duration before and with the idle sessions in seconds") * 1000L;
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        List<ZKConnection> foregroundSessions = new ArrayList<>();
+        List<Thread> foreground = new ArrayList<>();
+        List<ZKConnection> idleSessions = new ArrayList<>();
+        List<ZooKeeper> idleClients = new ArrayList<>();
+        ServerMetricsCollector serverMetrics = new ServerMetricsCollector(
+                new ServerPlacement(clusterAddress, ServerPlacement.RANDOM).getServers(), ServerMonitor::mntr, BUCKET_MILLIS);
+        Map<String, Object> results = new LinkedHashMap<>();
+        boolean abandoned = false;
+        try {
+            ZooKeeper firstClient = null;
+            for (int i = 0; i < numberOfClients; i++) {
+                ZKConnection connection = new ZKConnection();
+                ZooKeeper client = connection.connect(clusterAddress);
+                foregroundSessions.add(connection);
+                if (firstClient == null) {
+                    firstClient = client;
+                }
+                String path = pathInZookeeper + i;
+                createIfMissing(client, path, data, CreateMode.PERSISTENT);
+                Thread t = new Thread(() -> runForeground(client, path));
+                t.setName("Foreground_" + i);
+                foreground.add(t);
+            }
+            String idleRoot = pathInZookeeper + "_idle";
+            createIfMissing(firstClient, idleRoot, new byte[0], CreateMode.PERSISTENT);
+
+            latencySeries.start();
+            serverMetrics.start(latencySeries.getStartTime());
+            startPhase(BASELINE);
+            for (Thread t : foreground) {
+                t.start();
+            }
+            Thread.sleep(holdMillis);
+            long sessionsBefore = ServerMonitor.maxOverServers(clusterAddress, SESSIONS_METRIC);
+
+            startPhase(OPEN);
+            long openStart = System.currentTimeMillis();
+            openSessions(idleSessions, idleClients);
+            int connected = 0;
+            long deadline = openStart + CONNECT_TIMEOUT_MILLIS;
+            for (ZKConnection session : idleSessions) {
+                if (session.awaitConnected(Math.max(1, deadline - System.currentTimeMillis()))) {
+                    connected++;
+                }
+            }
+            long created = createEphemerals(idleSessions, idleClients, idleRoot);
+            long openMillis = System.currentTimeMillis() - openStart;
+            int negotiatedTimeout = idleSessions.isEmpty() ? 0 : idleSessions.get(0).getNegotiatedSessionTimeout();
+            System.out.println(connected + " idle sessions connected and " + created + " ephemerals created in " +
+                    openMillis + " ms, session timeout " + negotiatedTimeout + " ms");
+
+            startPhase(IDLE);
+            Thread.sleep(holdMillis);
+
+            // Stop the idle clients without closing their sessions, the servers expire them
+            long sessionsOpen = ServerMonitor.maxOverServers(clusterAddress, SESSIONS_METRIC);
+            startPhase(EXPIRY_WAIT);
+            long abandonedAt = System.currentTimeMillis();
+            for (ZKConnection session : idleSessions) {
+                session.abandon();
+            }
+            abandoned = true;
+            long[] expiry = awaitExpiry(sessionsBefore, sessionsOpen, abandonedAt,
+                    Math.max(negotiatedTimeout, sessionTimeoutMillis));
+            // A short bucket after the last deletion shows how fast the latency recovers
+            Thread.sleep(BUCKET_MILLIS * 10);
+
+            running = false;
+            for (Thread t : foreground) {
+                t.join();
+            }
+            currentPhase.endMillis = System.currentTimeMillis() - latencySeries.getStartTime();
+            serverMetrics.stop();
+
+            results.put("idle_sessions", numberOfSessions);
+            results.put("connected", connected);
+            results.put("ephemerals_created", created);
+            results.put("requested_session_timeout_ms", sessionTimeoutMillis);
+            results.put("negotiated_session_timeout_ms", negotiatedTimeout);
+            results.put("open_ms", openMillis);
+            results.put("first_expiry_after_ms", expiry[0] < 0 ? -1 : expiry[0] - abandonedAt);
+            results.put("all_expired_after_ms", expiry[1] < 0 ? -1 : expiry[1] - abandonedAt);
+            results.put("expiry_processing_ms", expiry[0] < 0 || expiry[1] < 0 ? -1 : expiry[1] - expiry[0]);
+            for (Phase phase : phases.values()) {
+                phase.addResults(results);
+                phase.print();
+            }
+            System.out.println("Expiry started " + results.get("first_expiry_after_ms") + " ms and finished " +
+                    results.get("all_expired_after_ms") + " ms after the idle clients stopped");
+        } catch (Exception e) {
+            System.out.println("Idle session test failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            running = false;
+            for (ZKConnection session : idleSessions) {
+                if (!abandoned) {
+                    try {
+                        session.close();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            for (ZKConnection session : foregroundSessions) {
+                try {
+                    session.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        writeResults(results);
+        writeReport(results, serverMetrics);
+        latencySeries.write(outputDirectory + "/idle_latency_timeseries.txt");
+        serverMetrics.write(outputDirectory + "/server_metrics.txt");
+    }
+
+    private static void createIfMissing(ZooKeeper client, String path, byte[] data, CreateMode mode)
+            throws KeeperException, InterruptedException {
+        try {
+            client.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode);
+        } catch (KeeperException.NodeExistsException e) {
+            // Left by an earlier run
+        }
+    }
+
+    /**
+     * Foreground requests back to back, the latency goes to the current phase and the time series.
+     */
+    private void runForeground(ZooKeeper client, String path) {
+        while (running) {
+            boolean write = ThreadLocalRandom.current().nextDouble() < writeRequestRate;
+            Phase phase = currentPhase;
+            long start = System.nanoTime();
+            try {
+                if (write) {
+                    client.setData(path, data, -1);
+                } else {
+                    client.getData(path, false, null);
+                }
+            } catch (KeeperException e) {
+                phase.errors.incrementAndGet();
+                continue;
+            } catch (InterruptedException e) {
+                return;
+            }
+            long latency = (System.nanoTime() - start) / 1000;
+            phase.latency.record(latency);
+            latencySeries.record(latency);
+        }
+    }
+
+    private void startPhase(String name) {
+        Phase phase = new Phase(name, System.currentTimeMillis() - latencySeries.getStartTime());
+        phases.put(name, phase);
+        Phase previous = currentPhase;
+        if (previous != null) {
+            previous.endMillis = phase.startMillis;
+        }
+        currentPhase = phase;
+    }
+
+    /**
+     * Start connecting every idle session, with the same opener threads as the session storm test.
+     */
+    private void openSessions(List<ZKConnection> sessions, List<ZooKeeper> clients) throws InterruptedException {
+        ZKConnection[] opened = new ZKConnection[numberOfSessions];
+        ZooKeeper[] openedClients = new ZooKeeper[numberOfSessions];
+        ExecutorService openers = Executors.newFixedThreadPool(OPENER_THREADS);
+        for (int i = 0; i < numberOfSessions; i++) {
+            int sessionId = i;
+            openers.execute(() -> {
+                ZKConnection session = new ZKConnection(null, sessionTimeoutMillis);
+                try {
+                    openedClients[sessionId] = session.startConnect(clusterAddress);
+                    opened[sessionId] = session;
+                } catch (IOException e) {
+                    System.out.println("Idle_" + sessionId + ": Wasn't able to create client: " + e.getMessage());
+                }
+            });
+        }
+        openers.shutdown();
+        openers.awaitTermination(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < numberOfSessions; i++) {
+            if (opened[i] != null) {
+                sessions.add(opened[i]);
+                clients.add(openedClients[i]);
+            }
+        }
+    }
+
+    /**
+     * Create the ephemerals of every connected idle session with pipelined asynchronous creates.
+     *
+     * @return number of ephemerals created
+     */
+    private long createEphemerals(List<ZKConnection> sessions, List<ZooKeeper> clients, String root)
+            throws InterruptedException {
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REQUESTS);
+        AtomicLong created = new AtomicLong();
+        for (int i = 0; i < sessions.size(); i++) {
+            ZKConnection session = sessions.get(i);
+            if (session.getConnectedAt() == 0) {
+                continue;
+            }
+            ZKAsyncManager async = new ZKAsyncManagerImpl(session, clients.get(i));
+            for (int j = 0; j < ephemeralsPerSession; j++) {
+                outstanding.acquire();
+                async.create(root + "/s" + i + "_" + j, new byte[0], CreateMode.EPHEMERAL).thenAccept(result -> {
+                    if (result.isOk()) {
+                        created.incrementAndGet();
+                    }
+                    outstanding.release();
+                });
+            }
+        }
+        // Wait for the last responses
+        outstanding.acquire(MAX_OUTSTANDING_REQUESTS);
+        outstanding.release(MAX_OUTSTANDING_REQUESTS);
+        return created.get();
+    }
+
+    /**
+     * Count the sessions on the servers until the idle sessions are expired, with their ephemerals.
+     * The phase changes from waiting to expiry when the first idle session is expired.
+     *
+     * @param sessionsBefore sessions before the idle sessions were opened
+     * @param sessionsOpen   sessions when the idle clients were stopped
+     * @return time of the first and the last expiry in milliseconds since epoch, -1 if not seen
+     */
+    private long[] awaitExpiry(long sessionsBefore, long sessionsOpen, long abandonedAt, int timeoutMillis)
+            throws InterruptedException {
+        long[] expiry = {-1, -1};
+        long highest = sessionsOpen;
+        // The servers check for expired sessions every tick, give them a few timeouts
+        long deadline = abandonedAt + 3L * timeoutMillis + EXPIRY_SLACK_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            long sessions = ServerMonitor.maxOverServers(clusterAddress, SESSIONS_METRIC);
+            if (sessions < 0) {
+                // The servers don't answer "mntr", wait until the sessions have surely expired
+                Thread.sleep(Math.max(0, abandonedAt + 2L * timeoutMillis - System.currentTimeMillis()));
+                startPhase(EXPIRY);
+                return expiry;
+            }
+            highest = Math.max(highest, sessions);
+            if (expiry[0] < 0 && sessions < highest) {
+                expiry[0] = System.currentTimeMillis();
+                startPhase(EXPIRY);
+            }
+            if (sessions <= Math.max(sessionsBefore, 0)) {
+                expiry[1] = System.currentTimeMillis();
+                if (expiry[0] < 0) {
+                    // Every session was expired within one poll
+                    expiry[0] = expiry[1];
+                    startPhase(EXPIRY);
+                }
+                return expiry;
+            }
+            Thread.sleep(BUCKET_MILLIS);
+        }
+        return expiry;
+    }
+
+    /**
+     * Write results into a file, one "name value" pair on each line.
+     */
+    private void writeResults(Map<String, Object> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/idle_results.txt"), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Object> entry : results.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing idle session results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the foreground latency and errors of each phase as operation
+     * "phase.request", the server metrics and the same results as in idle_results.txt.
+     */
+    private void writeReport(Map<String, Object> results, ServerMetricsCollector serverMetrics) {
+        RunReport report = new RunReport(MODE);
+        report.config("idleSessions", numberOfSessions)
+                .config("ephemeralsPerSession", ephemeralsPerSession)
+                .config("sessionTimeoutMillis", sessionTimeoutMillis)
+                .config("clients", numberOfClients)
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate)
+                .config("holdMillis", holdMillis);
+        for (Phase phase : phases.values()) {
+            RunReport.Operation op = report.operation(phase.name + ".request");
+            op.latency.add(phase.latency);
+            op.errors.addAndGet(phase.errors.get());
+        }
+        report.result().putAll(results);
+        report.setStartTime(latencySeries.getStartTime());
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.setServerMetrics(serverMetrics);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Foreground latency of one phase.
+     */
+    private static class Phase {
+        private final String name;
+        private final long startMillis;
+        private long endMillis = -1;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        Phase(String name, long startMillis) {
+            this.name = name;
+            this.startMillis = startMillis;
+        }
+
+        void addResults(Map<String, Object> results) {
+            results.put(name + "_start_ms", startMillis);
+            results.put(name + "_end_ms", endMillis);
+            results.put(name + "_requests", latency.getCount());
+            results.put(name + "_errors", errors.get());
+            results.put(name + "_latency_mean_us", latency.getMean());
+            results.put(name + "_latency_p50_us", latency.getPercentile(50));
+            results.put(name + "_latency_p99_us", latency.getPercentile(99));
+            results.put(name + "_latency_p999_us", latency.getPercentile(99.9));
+            results.put(name + "_latency_max_us", latency.getMax());
+        }
+
+        void print() {
+            System.out.println("Foreground " + name + ": " + latency.summary("us") + ", " + errors.get() + " errors");
+        }
+    }
+}
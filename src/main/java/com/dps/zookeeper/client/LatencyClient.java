@@ -1,7 +1,10 @@
 package com.dps.zookeeper.client;
 
+import com.dps.zookeeper.connection.ServerPlacement;
 import com.dps.zookeeper.connection.ZKLatencyManagerImpl;
 import com.dps.zookeeper.connection.ZKManager;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerBreakdown;
 import org.apache.zookeeper.KeeperException;
 
 import java.io.FileOutputStream;
@@ -11,6 +14,8 @@ import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -23,6 +28,11 @@ public class LatencyClient implements ZookeeperClient {
      */
     public static final int EXPECTED_ARGUMENTS = 6;
 
+    /**
+     * Mode name, which selects latency test and allows optional arguments.
+     */
+    public static final String MODE = "latency";
+
     /**
      * Number of clients in benchmark
      */
@@ -53,6 +63,11 @@ public class LatencyClient implements ZookeeperClient {
      */
     private static final int OUTPUT_DIR_IDX = 5;
 
+    /**
+     * Optional placement of the sessions on the servers, see {@link ServerPlacement}.
+     */
+    private static final int PLACEMENT_IDX = 6;
+
     private CountDownLatch countDownLatch;
     private int numberOfClients;
     private String outputDirectory;
@@ -60,27 +75,68 @@ public class LatencyClient implements ZookeeperClient {
     private String nodePath;
     private byte[] data;
     private int numberOFNodesToCreate;
+    private ServerPlacement serverPlacement;
+    private String placement;
+    private final ServerBreakdown serverBreakdown = new ServerBreakdown();
+    private final RunReport report = new RunReport(MODE);
 
     public LatencyClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS && args.length != EXPECTED_ARGUMENTS + 1) {
+            throw new IllegalArgumentException("Latency test expects " + EXPECTED_ARGUMENTS + " or " +
+                    (EXPECTED_ARGUMENTS + 1) + " arguments. Given: " + args.length);
+        }
         checkPathInZookeeper(args[NODE_PATH_IDX]);
         parseNumberOfClients(args[NUMBER_OF_CLIENTS_IDX]);
         parseNumberOfNodesToCreate(args[NUMBER_OF_NODES_TO_CREATE_IDX]);
         readData(args[DATA_LOCATION]);
         this.clusterAddress = args[CLUSTER_ADDRESS_IDX];
         this.outputDirectory = args[OUTPUT_DIR_IDX];
-
+        this.placement = args.length > PLACEMENT_IDX ? args[PLACEMENT_IDX] : ServerPlacement.RANDOM;
+        this.serverPlacement = new ServerPlacement(clusterAddress, placement);
     }
 
     @Override
     public void start() {
         countDownLatch = new CountDownLatch(numberOfClients);
+        List<Thread> threads = new ArrayList<>();
+        long firstStart = System.currentTimeMillis();
         for (int i = 0; i < numberOfClients; i++) {
-            LatencyTask task = new LatencyTask(i, clusterAddress, nodePath, numberOFNodesToCreate, data, outputDirectory);
+            LatencyTask task = new LatencyTask(i, serverPlacement.connectStringFor(i), nodePath, numberOFNodesToCreate, data, outputDirectory);
             Thread t = new Thread(task);
             t.setName("Client_" + i);
             t.start();
-
+            threads.add(t);
         }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Show how the latency differs between ensemble members
+        long lastEnd = System.currentTimeMillis();
+        serverBreakdown.print(lastEnd - firstStart);
+        serverBreakdown.write(outputDirectory + "/server_breakdown.txt");
+        writeReport(firstStart, lastEnd);
+    }
+
+    /**
+     * Write the run report with the configuration and the latency of creates.
+     */
+    private void writeReport(long startTime, long endTime) {
+        report.config("numberOfClients", numberOfClients)
+                .config("clusterAddress", clusterAddress)
+                .config("path", nodePath)
+                .config("numberOfNodes", numberOFNodesToCreate)
+                .config("placement", placement);
+        report.setStartTime(startTime);
+        report.setEndTime(endTime);
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.setServers(serverBreakdown);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
     }
 
     /**
@@ -172,23 +228,41 @@ public class LatencyClient implements ZookeeperClient {
         @Override
         public void run() {
             ZKLatencyManagerImpl zkManager = null;
+            // Deletes are asynchronous, their time shows up in the next create of the session
+            RunReport.Operation create = report.operation("create");
+            boolean creating = false;
             try {
                 zkManager = new ZKLatencyManagerImpl(clusterAddress);
+                String server = serverPlacement.isPinned() ? clusterAddress : zkManager.getConnectedServer();
+                ServerBreakdown.ServerCounters serverCounters = serverBreakdown.forServer(server);
+                serverCounters.sessions.incrementAndGet();
                 checkPrerequisites(zkManager, path);
                 System.out.println("Client_" + clientId + ": starting test");
                 long startTime = System.currentTimeMillis();
                 for (int i = 0; i < numberOfNodes; i++) {
+                    creating = true;
+                    long requestStart = System.nanoTime();
                     zkManager.create(path, data);
+                    create.latency.record((System.nanoTime() - requestStart) / 1000);
+                    creating = false;
                     zkManager.delete(path);
                 }
                 long endTime = System.currentTimeMillis();
+                // Every node is created and deleted
+                serverCounters.requests.addAndGet(2L * numberOfNodes);
+                serverCounters.writes.addAndGet(2L * numberOfNodes);
+                serverCounters.latencyMillis.addAndGet(endTime - startTime);
                 countDownLatch.countDown();
                 countDownLatch.await();
                 writeStart(clientId, startTime);
                 writeEnd(clientId, endTime);
+                System.out.println("Client_" + clientId + ": Connected to " + server);
                 System.out.println("Client_" + clientId + ": Started " + startTime);
                 System.out.println("Client_" + clientId + ": Ended " + endTime);
             } catch (Exception e) {
+                if (creating) {
+                    create.errors.incrementAndGet();
+                }
                 System.out.println("Client_" + clientId + ": Exception was thrown");
                 System.out.println(e.getMessage());
                 System.out.println(e.toString());
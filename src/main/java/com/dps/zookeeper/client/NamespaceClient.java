@@ -0,0 +1,308 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ZKNamespaceManagerImpl;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerMonitor;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Tests how latency and server memory scale with the size of the namespace.
+ * Three tree shapes are supported:
+ * <ul>
+ * <li>wide - one parent with N children, measures getChildren of the parent</li>
+ * <li>deep - chain of N nested nodes, measures getData and create at the bottom of the chain</li>
+ * <li>delete - tree of N nodes, measures recursive deletion of the whole tree</li>
+ * </ul>
+ */
+public class NamespaceClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the namespace test.
+     */
+    public static final String MODE = "namespace";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 7;
+
+    /**
+     * Zookeeper cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 0;
+
+    /**
+     * Tree shape, wide, deep or delete.
+     */
+    private static final int SHAPE_IDX = 1;
+
+    /**
+     * Comma separated tree sizes: number of children, depth or number of nodes.
+     */
+    private static final int SIZES_IDX = 2;
+
+    /**
+     * Path in Zookeeper, shape and size are added to the end of it for every tree.
+     */
+    private static final int NODE_PATH_IDX = 3;
+
+    /**
+     * Path to data, which is stored in every node.
+     */
+    private static final int DATA_PATH_IDX = 4;
+
+    /**
+     * Number of measured requests for each size.
+     */
+    private static final int REPETITIONS_IDX = 5;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 6;
+
+    public static final String WIDE = "wide";
+    public static final String DEEP = "deep";
+    public static final String DELETE = "delete";
+
+    /**
+     * Number of children of every node in the tree, which is deleted.
+     */
+    private static final int DELETE_FAN_OUT = 10;
+
+    /**
+     * getChildren response of a million children is over 10 MB, default limit is 1 MB.
+     */
+    private static final String JUTE_MAXBUFFER = String.valueOf(64 * 1024 * 1024);
+
+    private String clusterAddress;
+    private String shape;
+    private List<Integer> sizes;
+    private String pathInZookeeper;
+    private byte[] data;
+    private int repetitions;
+    private String outputDirectory;
+
+    public NamespaceClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Namespace test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        shape = args[SHAPE_IDX];
+        if (!WIDE.equals(shape) && !DEEP.equals(shape) && !DELETE.equals(shape)) {
+            throw new IllegalArgumentException("Argument at index " + SHAPE_IDX + " is expected to be " +
+                    WIDE + ", " + DEEP + " or " + DELETE + ". Given: " + shape + " . It is the tree shape.");
+        }
+        sizes = new ArrayList<>();
+        for (String size : args[SIZES_IDX].split(",")) {
+            sizes.add(ArgumentParser.parsePositiveInt(size.trim(), SIZES_IDX, "the tree size"));
+        }
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        repetitions = ArgumentParser.parsePositiveInt(args[REPETITIONS_IDX], REPETITIONS_IDX,
+                "the number of measured requests for each size");
+        outputDirectory = args[OUTPUT_DIR_IDX];
+        if (System.getProperty("jute.maxbuffer") == null) {
+            System.setProperty("jute.maxbuffer", JUTE_MAXBUFFER);
+        }
+    }
+
+    @Override
+    public void start() {
+        long startTime = System.currentTimeMillis();
+        ZKNamespaceManagerImpl zkManager = null;
+        List<Result> results = new ArrayList<>();
+        try {
+            zkManager = new ZKNamespaceManagerImpl(clusterAddress);
+            for (int size : sizes) {
+                String root = pathInZookeeper + "_" + shape + size;
+                if (zkManager.exists(root) != null) {
+                    zkManager.deleteRecursive(root);
+                }
+                long baseDataSize = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+                if (DELETE.equals(shape)) {
+                    results.add(measureDelete(zkManager, root, size));
+                } else {
+                    results.addAll(measureTree(zkManager, root, size, baseDataSize));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Namespace test failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            if (zkManager != null) {
+                try {
+                    zkManager.closeConnection();
+                } catch (InterruptedException e) {
+                    System.out.println("Exception when trying to close Zookeeper: " + e.getMessage());
+                }
+            }
+        }
+        for (Result result : results) {
+            System.out.println(result.describe());
+        }
+        writeResults(results);
+        writeReport(results, startTime);
+    }
+
+    /**
+     * Build a wide or deep tree, measure reads and writes in it and delete it.
+     */
+    private List<Result> measureTree(ZKNamespaceManagerImpl zkManager, String root, int size, long baseDataSize)
+            throws Exception {
+        List<Result> results = new ArrayList<>();
+        zkManager.create(root, data);
+        long buildStart = System.currentTimeMillis();
+        String leaf = zkManager.createTree(root, WIDE.equals(shape) ? size : 1, size, data);
+        long buildMillis = System.currentTimeMillis() - buildStart;
+        long znodeCount = ServerMonitor.maxOverServers(clusterAddress, "zk_znode_count");
+        long dataSize = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+        long treeDataSize = dataSize >= 0 && baseDataSize >= 0 ? dataSize - baseDataSize : -1;
+
+        if (WIDE.equals(shape)) {
+            LatencyHistogram getChildren = new LatencyHistogram();
+            for (int i = 0; i < repetitions; i++) {
+                long start = System.nanoTime();
+                zkManager.getChildren(root);
+                getChildren.record((System.nanoTime() - start) / 1000);
+            }
+            results.add(new Result(size, "getChildren", getChildren, buildMillis, znodeCount, treeDataSize));
+        } else {
+            LatencyHistogram getData = new LatencyHistogram();
+            LatencyHistogram create = new LatencyHistogram();
+            String child = leaf + "/leaf";
+            for (int i = 0; i < repetitions; i++) {
+                long start = System.nanoTime();
+                zkManager.getZNodeData(leaf, false);
+                getData.record((System.nanoTime() - start) / 1000);
+                start = System.nanoTime();
+                zkManager.create(child, data);
+                create.record((System.nanoTime() - start) / 1000);
+                zkManager.delete(child);
+            }
+            results.add(new Result(size, "getData", getData, buildMillis, znodeCount, treeDataSize));
+            results.add(new Result(size, "create", create, buildMillis, znodeCount, treeDataSize));
+        }
+
+        LatencyHistogram delete = new LatencyHistogram();
+        long start = System.nanoTime();
+        zkManager.deleteRecursive(root);
+        delete.record((System.nanoTime() - start) / 1000);
+        results.add(new Result(size, "deleteRecursive", delete, buildMillis, znodeCount, treeDataSize));
+        return results;
+    }
+
+    /**
+     * Build the tree and delete it recursively as many times as there are repetitions.
+     */
+    private Result measureDelete(ZKNamespaceManagerImpl zkManager, String root, int size) throws Exception {
+        LatencyHistogram delete = new LatencyHistogram();
+        long buildMillis = 0;
+        long znodeCount = -1;
+        long treeDataSize = -1;
+        for (int i = 0; i < repetitions; i++) {
+            long baseDataSize = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+            zkManager.create(root, data);
+            long buildStart = System.currentTimeMillis();
+            zkManager.createTree(root, DELETE_FAN_OUT, size, data);
+            buildMillis = System.currentTimeMillis() - buildStart;
+            znodeCount = ServerMonitor.maxOverServers(clusterAddress, "zk_znode_count");
+            long dataSize = ServerMonitor.maxOverServers(clusterAddress, "zk_approximate_data_size");
+            treeDataSize = dataSize >= 0 && baseDataSize >= 0 ? dataSize - baseDataSize : -1;
+            long start = System.nanoTime();
+            zkManager.deleteRecursive(root);
+            delete.record((System.nanoTime() - start) / 1000);
+        }
+        return new Result(size, "deleteRecursive", delete, buildMillis, znodeCount, treeDataSize);
+    }
+
+    /**
+     * Write one line for each measured request type:
+     * shape size request count meanUs p50Us p99Us maxUs buildMs znodeCount treeDataSizeBytes
+     */
+    private void writeResults(List<Result> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/namespace_results.txt"), StandardCharsets.UTF_8)) {
+            for (Result r : results) {
+                writer.write(shape + " " + r.size + " " + r.request + " " + r.latency.getCount() + " " +
+                        r.latency.getMean() + " " + r.latency.getPercentile(50) + " " +
+                        r.latency.getPercentile(99) + " " + r.latency.getMax() + " " + r.buildMillis + " " +
+                        r.znodeCount + " " + r.treeDataSize + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing namespace results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with an operation "request.size" for each measured request type and tree size
+     * and the same results as in namespace_results.txt.
+     */
+    private void writeReport(List<Result> results, long startTime) {
+        RunReport report = new RunReport(MODE);
+        report.config("shape", shape)
+                .config("sizes", sizes.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .config("path", pathInZookeeper)
+                .config("repetitions", repetitions);
+        for (Result r : results) {
+            report.operation(r.request + "." + r.size).latency.add(r.latency);
+            Map<String, Object> row = report.result();
+            row.put("shape", shape);
+            row.put("size", r.size);
+            row.put("request", r.request);
+            row.put("count", r.latency.getCount());
+            row.put("meanUs", r.latency.getMean());
+            row.put("p50Us", r.latency.getPercentile(50));
+            row.put("p99Us", r.latency.getPercentile(99));
+            row.put("maxUs", r.latency.getMax());
+            row.put("buildMillis", r.buildMillis);
+            row.put("znodeCount", r.znodeCount);
+            row.put("treeDataSizeBytes", r.treeDataSize);
+        }
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Latency of one request type for one tree size.
+     */
+    private class Result {
+        private final int size;
+        private final String request;
+        private final LatencyHistogram latency;
+        private final long buildMillis;
+        private final long znodeCount;
+        private final long treeDataSize;
+
+        Result(int size, String request, LatencyHistogram latency, long buildMillis, long znodeCount, long treeDataSize) {
+            this.size = size;
+            this.request = request;
+            this.latency = latency;
+            this.buildMillis = buildMillis;
+            this.znodeCount = znodeCount;
+            this.treeDataSize = treeDataSize;
+        }
+
+        String describe() {
+            return shape + " " + size + ": " + request + " latency " + latency.summary("us") +
+                    ", tree built in " + buildMillis + " ms, " +
+                    (znodeCount >= 0 ? znodeCount + " znodes, tree data " + treeDataSize + " bytes" :
+                            "server statistics not available (mntr not allowed)");
+        }
+    }
+}
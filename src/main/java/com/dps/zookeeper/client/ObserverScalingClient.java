@@ -0,0 +1,333 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.ensemble.LocalEnsemble;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import org.apache.zookeeper.server.ServerStats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the throughput workload against in-process ensembles with the same voting peers and a growing
+ * number of observers. Sessions are pinned round-robin to the observers, or to the voting peers when
+ * there are no observers, so the reads are served by the observers and the writes are forwarded to the leader.
+ */
+public class ObserverScalingClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the observer scaling test.
+     */
+    public static final String MODE = "observers";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 8;
+
+    /**
+     * Number of clients generating requests.
+     */
+    private static final int NUMBER_OF_CLIENTS_IDX = 0;
+
+    /**
+     * Number of voting peers in every ensemble.
+     */
+    private static final int VOTERS_IDX = 1;
+
+    /**
+     * Comma separated numbers of observers, for example "0,2,4".
+     */
+    private static final int OBSERVERS_IDX = 2;
+
+    /**
+     * Path in Zookeeper. Each client adds it's ID to the end of path name.
+     */
+    private static final int NODE_PATH_IDX = 3;
+
+    /**
+     * Percentage of writes in generated requests.
+     */
+    private static final int WRITE_RATE_IDX = 4;
+
+    /**
+     * Path to data, which is used in the test
+     */
+    private static final int DATA_PATH_IDX = 5;
+
+    /**
+     * Measured duration of each ensemble in seconds.
+     */
+    private static final int DURATION_IDX = 6;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 7;
+
+    /**
+     * Requests made before the measurement starts, so that the JIT has compiled the request path.
+     */
+    private static final long WARM_UP_MILLIS = 5000;
+
+    /**
+     * How long to wait for the local ensemble to elect a leader and the observers to join.
+     */
+    private static final long ELECTION_TIMEOUT_MILLIS = 60000;
+
+    private int numberOfClients;
+    private int voters;
+    private List<Integer> observerCounts = new ArrayList<>();
+    private String pathInZookeeper;
+    private double writeRequestRate;
+    private byte[] data;
+    private long durationMillis;
+    private String outputDirectory;
+
+    public ObserverScalingClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Observer scaling test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfClients = ArgumentParser.parsePositiveInt(args[NUMBER_OF_CLIENTS_IDX], NUMBER_OF_CLIENTS_IDX,
+                "the number of clients created");
+        voters = ArgumentParser.parsePositiveInt(args[VOTERS_IDX], VOTERS_IDX, "the number of voting peers");
+        for (String count : args[OBSERVERS_IDX].split(",")) {
+            try {
+                int observers = Integer.parseInt(count.trim());
+                if (observers < 0) {
+                    throw new NumberFormatException();
+                }
+                observerCounts.add(observers);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Argument at index " + OBSERVERS_IDX +
+                        " is expected to be comma separated non-negative numbers of observers. Given: " + args[OBSERVERS_IDX]);
+            }
+        }
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        writeRequestRate = ArgumentParser.parseRate(args[WRITE_RATE_IDX], WRITE_RATE_IDX,
+                "the write request generation rate");
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        durationMillis = ArgumentParser.parsePositiveInt(args[DURATION_IDX], DURATION_IDX,
+                "the measured duration of each ensemble in seconds") * 1000L;
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        long startTime = System.currentTimeMillis();
+        List<Result> results = new ArrayList<>();
+        for (int observers : observerCounts) {
+            try {
+                Result result = run(observers);
+                result.print();
+                results.add(result);
+            } catch (Exception e) {
+                System.out.println("Ensemble with " + observers + " observers failed: " + e.getMessage());
+                System.out.println(e.toString());
+            }
+        }
+        writeResults(results);
+        writeReport(results, startTime);
+    }
+
+    /**
+     * Run the workload against a fresh ensemble with the given number of observers.
+     */
+    private Result run(int observers) throws Exception {
+        LocalEnsemble ensemble = new LocalEnsemble(voters, observers, null);
+        BackgroundLoad load = null;
+        try {
+            ensemble.start();
+            if (!ensemble.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+                throw new IllegalStateException("Ensemble didn't elect a leader in " + ELECTION_TIMEOUT_MILLIS + " ms");
+            }
+            List<Integer> pinnedTo = observers > 0 ? ensemble.getObserverIds() : ensemble.getServerIds();
+            StringBuilder address = new StringBuilder();
+            for (int serverId : pinnedTo) {
+                address.append(address.length() == 0 ? "" : ",").append(ensemble.getClientAddress(serverId));
+            }
+            load = new BackgroundLoad(numberOfClients, new ServerPlacement(address.toString(), ServerPlacement.ROUND_ROBIN),
+                    pathInZookeeper, writeRequestRate, data);
+            load.connect();
+            load.start();
+            Thread.sleep(WARM_UP_MILLIS);
+
+            Result result = new Result(observers);
+            for (int serverId : ensemble.getServerIds()) {
+                Member member = new Member(serverId);
+                member.packetsBefore = packets(ensemble.getServerStats(serverId));
+                result.members.put(serverId, member);
+            }
+            long readsBefore = 0;
+            long writesBefore = 0;
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                zkManager.requestLatency.reset();
+                zkManager.writeLatency.reset();
+                readsBefore += zkManager.readRequestsDone.get();
+                writesBefore += zkManager.writeRequestsDone.get();
+            }
+            long start = System.nanoTime();
+            Thread.sleep(durationMillis);
+            long reads = -readsBefore;
+            long writes = -writesBefore;
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                reads += zkManager.readRequestsDone.get();
+                writes += zkManager.writeRequestsDone.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            for (Member member : result.members.values()) {
+                ServerStats stats = ensemble.getServerStats(member.serverId);
+                member.packetsPerSecond = (packets(stats) - member.packetsBefore) * 1e9 / elapsed;
+                member.sessions = stats == null ? 0 : stats.getNumAliveClientConnections();
+                member.role = ensemble.getRole(member.serverId);
+            }
+            load.stop();
+
+            result.readsPerSecond = reads * 1e9 / elapsed;
+            result.writesPerSecond = writes * 1e9 / elapsed;
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                result.requestLatency.add(zkManager.requestLatency);
+                result.writeLatency.add(zkManager.writeLatency);
+            }
+            return result;
+        } finally {
+            if (load != null) {
+                load.close();
+            }
+            ensemble.close();
+        }
+    }
+
+    /**
+     * Packets the server received from and sent to its clients. Writes forwarded by followers and observers
+     * reach the leader over the quorum connections and aren't counted here.
+     *
+     * @return packets on client connections, 0 if the server isn't serving clients
+     */
+    private static long packets(ServerStats stats) {
+        return stats == null ? 0 : stats.getPacketsReceived() + stats.getPacketsSent();
+    }
+
+    /**
+     * Write one line for each ensemble into observer_results.txt:
+     * observers readsPerSecond writesPerSecond writeMeanUs writeP50Us writeP99Us requestP50Us requestP99Us
+     * and one line for each member of each ensemble into observer_members.txt:
+     * observers serverId role sessions clientPacketsPerSecond
+     */
+    private void writeResults(List<Result> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/observer_results.txt"), StandardCharsets.UTF_8);
+             Writer members = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/observer_members.txt"), StandardCharsets.UTF_8)) {
+            for (Result r : results) {
+                writer.write(r.observers + " " + r.readsPerSecond + " " + r.writesPerSecond + " " +
+                        r.writeLatency.getMean() + " " + r.writeLatency.getPercentile(50) + " " +
+                        r.writeLatency.getPercentile(99) + " " + r.requestLatency.getPercentile(50) + " " +
+                        r.requestLatency.getPercentile(99) + "\n");
+                for (Member m : r.members.values()) {
+                    members.write(r.observers + " " + m.serverId + " " + m.role + " " + m.sessions + " " +
+                            m.packetsPerSecond + "\n");
+                }
+            }
+            writer.flush();
+            members.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing observer scaling results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the operations "observersN.request" and "observersN.write" of each ensemble,
+     * a result of type "ensemble" for each line of observer_results.txt and of type "member" for each line
+     * of observer_members.txt.
+     */
+    private void writeReport(List<Result> results, long startTime) {
+        RunReport report = new RunReport(MODE);
+        report.config("clients", numberOfClients)
+                .config("voters", voters)
+                .config("observers", observerCounts.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate)
+                .config("durationMillis", durationMillis);
+        for (Result r : results) {
+            report.operation("observers" + r.observers + ".request").latency.add(r.requestLatency);
+            report.operation("observers" + r.observers + ".write").latency.add(r.writeLatency);
+            Map<String, Object> row = report.result();
+            row.put("type", "ensemble");
+            row.put("observers", r.observers);
+            row.put("readsPerSecond", r.readsPerSecond);
+            row.put("writesPerSecond", r.writesPerSecond);
+            row.put("writeMeanUs", r.writeLatency.getMean());
+            row.put("writeP50Us", r.writeLatency.getPercentile(50));
+            row.put("writeP99Us", r.writeLatency.getPercentile(99));
+            row.put("requestP50Us", r.requestLatency.getPercentile(50));
+            row.put("requestP99Us", r.requestLatency.getPercentile(99));
+            for (Member m : r.members.values()) {
+                Map<String, Object> member = report.result();
+                member.put("type", "member");
+                member.put("observers", r.observers);
+                member.put("serverId", m.serverId);
+                member.put("role", m.role);
+                member.put("sessions", m.sessions);
+                member.put("clientPacketsPerSecond", m.packetsPerSecond);
+            }
+        }
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress("local:" + voters);
+        report.setPayloadBytes(data.length);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one ensemble.
+     */
+    private static class Result {
+        private final int observers;
+        private double readsPerSecond;
+        private double writesPerSecond;
+        private final LatencyHistogram requestLatency = new LatencyHistogram();
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+        private final Map<Integer, Member> members = new LinkedHashMap<>();
+
+        Result(int observers) {
+            this.observers = observers;
+        }
+
+        void print() {
+            System.out.println(observers + " observers: " + String.format("%.0f", readsPerSecond) + " reads/s, " +
+                    String.format("%.0f", writesPerSecond) + " writes/s, write latency p50 " +
+                    writeLatency.getPercentile(50) + " us, p99 " + writeLatency.getPercentile(99) +
+                    " us, all requests p50 " + requestLatency.getPercentile(50) + " us");
+            for (Member m : members.values()) {
+                System.out.println("  server " + m.serverId + " (" + m.role + "): " + m.sessions + " sessions, " +
+                        String.format("%.0f", m.packetsPerSecond) + " client packets/s");
+            }
+        }
+    }
+
+    /**
+     * Load of one ensemble member.
+     */
+    private static class Member {
+        private final int serverId;
+        private String role;
+        private int sessions;
+        private long packetsBefore;
+        private double packetsPerSecond;
+
+        Member(int serverId) {
+            this.serverId = serverId;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.ensemble.FaultScenario;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark described by a scenario file: settings shared by the whole run and phases, which run one
+ * after another with the same sessions. Empty lines and lines starting with # are ignored.
+ * Settings are "name = value":
+ * <ul>
+ * <li>ensemble - "local:N" for an in-process ensemble, "proxy:host:port,..." for proxies in front of
+ * a running ensemble or a plain cluster address "host:port,..."; fault phases need local or proxy</li>
+ * <li>sessions - number of sessions opened at the start</li>
+ * <li>path - node path, each session adds its identifier at the end</li>
+ * <li>data - path to the data written by the sessions</li>
+ * <li>output - directory where to write the results</li>
+ * <li>placement - optional placement of the sessions, see {@link com.dps.zookeeper.connection.ServerPlacement}</li>
+ * <li>writeRate - optional default write rate of the phases, 0 by default</li>
+ * </ul>
+ * Phases are "phase name type key=value ...". Types:
+ * <ul>
+ * <li>load - populate nodes=N children with valueSize=B bytes under path + "_data", in batches of batch=N</li>
+ * <li>warm - run the workload without recording it</li>
+ * <li>measure - run and record the workload</li>
+ * <li>fault - run and record the workload while the schedule=... of {@link FaultScenario} is executed,
+ * times relative to the phase start</li>
+ * <li>recover - restart the killed servers, wait for a leader, then run and record the workload</li>
+ * </ul>
+ * Workload phases take duration=seconds, writeRate=0..1 and clients=N, the number of sessions making
+ * requests, all sessions by default.
+ */
+public class Scenario {
+
+    public static final String LOAD = "load";
+    public static final String WARM = "warm";
+    public static final String MEASURE = "measure";
+    public static final String FAULT = "fault";
+    public static final String RECOVER = "recover";
+
+    private static final String PHASE = "phase";
+
+    private String ensemble;
+    private int sessions;
+    private String path;
+    private String dataPath;
+    private String outputDirectory;
+    private String placement;
+    private double writeRate = 0;
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * Read and validate the scenario file.
+     *
+     * @param fileName path to the scenario file
+     * @return scenario
+     */
+    public static Scenario read(String fileName) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Wasn't able to read scenario from the provided location: " + fileName, e);
+        }
+        Scenario scenario = new Scenario();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                if (line.startsWith(PHASE + " ")) {
+                    scenario.phases.add(scenario.parsePhase(line.substring(PHASE.length()).trim()));
+                } else {
+                    scenario.parseSetting(line);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + " of " + fileName + ": " + e.getMessage());
+            }
+        }
+        scenario.validate(fileName);
+        return scenario;
+    }
+
+    private void parseSetting(String line) {
+        int separator = line.indexOf('=');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected \"name = value\" or \"phase name type ...\". Given: " + line);
+        }
+        String name = line.substring(0, separator).trim();
+        String value = line.substring(separator + 1).trim();
+        switch (name) {
+            case "ensemble":
+                if (value.startsWith("local:")) {
+                    parsePositiveInt("number of peers in local ensemble", value.substring("local:".length()));
+                }
+                ensemble = value;
+                break;
+            case "sessions":
+                sessions = parsePositiveInt(name, value);
+                break;
+            case "path":
+                if (!value.startsWith("/")) {
+                    throw new IllegalArgumentException("path is expected to start with /. Given: " + value);
+                }
+                path = value;
+                break;
+            case "data":
+                dataPath = value;
+                break;
+            case "output":
+                outputDirectory = value;
+                break;
+            case "placement":
+                placement = value;
+                break;
+            case "writeRate":
+                writeRate = parseRate(name, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+    }
+
+    private Phase parsePhase(String line) {
+        String[] parts = line.split("\\s+");
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Phase is expected to be \"phase name type key=value ...\". Given: " + line);
+        }
+        String type = parts[1];
+        if (!LOAD.equals(type) && !WARM.equals(type) && !MEASURE.equals(type) &&
+                !FAULT.equals(type) && !RECOVER.equals(type)) {
+            throw new IllegalArgumentException("Unknown phase type: " + type);
+        }
+        Phase phase = new Phase(parts[0], type, writeRate);
+        for (int i = 2; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Phase option is expected to be key=value. Given: " + parts[i]);
+            }
+            String key = parts[i].substring(0, separator);
+            String value = parts[i].substring(separator + 1);
+            switch (key) {
+                case "duration":
+                    phase.durationMillis = parsePositiveInt(key, value) * 1000L;
+                    break;
+                case "writeRate":
+                    phase.writeRate = parseRate(key, value);
+                    break;
+                case "clients":
+                    phase.clients = parsePositiveInt(key, value);
+                    break;
+                case "schedule":
+                    phase.schedule = new FaultScenario(value);
+                    break;
+                case "nodes":
+                    phase.nodes = parsePositiveInt(key, value);
+                    break;
+                case "valueSize":
+                    phase.valueSize = Integer.parseInt(value);
+                    if (phase.valueSize < 0) {
+                        throw new IllegalArgumentException("valueSize can't be negative. Given: " + value);
+                    }
+                    break;
+                case "batch":
+                    phase.batchSize = parsePositiveInt(key, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown phase option: " + key);
+            }
+        }
+        if (LOAD.equals(type) && phase.nodes == 0) {
+            throw new IllegalArgumentException("Load phase " + phase.name + " needs nodes=N");
+        }
+        if (!LOAD.equals(type) && phase.durationMillis == 0) {
+            throw new IllegalArgumentException("Phase " + phase.name + " needs duration=seconds");
+        }
+        if (FAULT.equals(type) && phase.schedule == null) {
+            throw new IllegalArgumentException("Fault phase " + phase.name + " needs schedule=seconds:action,...");
+        }
+        return phase;
+    }
+
+    private void validate(String fileName) {
+        Map<String, Object> required = new LinkedHashMap<>();
+        required.put("ensemble", ensemble);
+        required.put("sessions", sessions == 0 ? null : sessions);
+        required.put("path", path);
+        required.put("data", dataPath);
+        required.put("output", outputDirectory);
+        for (Map.Entry<String, Object> entry : required.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Scenario " + fileName + " doesn't set " + entry.getKey());
+            }
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("Scenario " + fileName + " has no phases");
+        }
+        for (Phase phase : phases) {
+            if (phase.clients > sessions) {
+                throw new IllegalArgumentException("Phase " + phase.name + " uses " + phase.clients +
+                        " clients, but the scenario opens only " + sessions + " sessions");
+            }
+            if ((FAULT.equals(phase.type) || RECOVER.equals(phase.type)) && !hasFaultInjector()) {
+                throw new IllegalArgumentException("Phase " + phase.name + " needs a local or proxy ensemble");
+            }
+        }
+    }
+
+    /**
+     * @return true, if the ensemble setting allows servers to be killed
+     */
+    public boolean hasFaultInjector() {
+        return ensemble.startsWith("local:") || ensemble.startsWith("proxy:");
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) {
+                throw new IllegalArgumentException(name + " is expected to be positive int. Given: " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is expected to be int. Given: " + value);
+        }
+    }
+
+    private static double parseRate(String name, String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (result < 0 || result > 1) {
+                throw new IllegalArgumentException(name + " is expected to be between 0 and 1. Given: " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is expected to be double. Given: " + value);
+        }
+    }
+
+    public String getEnsemble() {
+        return ensemble;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getDataPath() {
+        return dataPath;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * @return placement of the sessions, null for the default
+     */
+    public String getPlacement() {
+        return placement;
+    }
+
+    /**
+     * @return phases in execution order
+     */
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * One phase of the scenario.
+     */
+    public static class Phase {
+        public final String name;
+        public final String type;
+        private long durationMillis;
+        private double writeRate;
+        private int clients;
+        private FaultScenario schedule;
+        private int nodes;
+        private int valueSize = 0;
+        private int batchSize = 50;
+
+        Phase(String name, String type, double writeRate) {
+            this.name = name;
+            this.type = type;
+            this.writeRate = writeRate;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public double getWriteRate() {
+            return writeRate;
+        }
+
+        /**
+         * @param sessions sessions of the scenario
+         * @return sessions making requests during the phase
+         */
+        public int getClients(int sessions) {
+            return clients == 0 ? sessions : clients;
+        }
+
+        /**
+         * @return fault schedule of a fault phase, null for the other phases
+         */
+        public FaultScenario getSchedule() {
+            return schedule;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public int getValueSize() {
+            return valueSize;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * @return true, if the phase records throughput and latency
+         */
+        public boolean isRecorded() {
+            return MEASURE.equals(type) || FAULT.equals(type) || RECOVER.equals(type);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.connection.ZKNamespaceManagerImpl;
+import com.dps.zookeeper.ensemble.FaultInjector;
+import com.dps.zookeeper.ensemble.FaultProxy;
+import com.dps.zookeeper.ensemble.FaultScenario;
+import com.dps.zookeeper.ensemble.LocalEnsemble;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerMetricsCollector;
+import com.dps.zookeeper.stats.ServerMonitor;
+import com.dps.zookeeper.stats.ThroughputTimeSeries;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the phases of a {@link Scenario} back to back in one JVM. The sessions are opened once and every
+ * phase reuses them, so a sweep over several workloads pays the JVM start and the session setup only once.
+ */
+public class ScenarioClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the scenario runner.
+     */
+    public static final String MODE = "scenario";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 1;
+
+    /**
+     * Path to the scenario file.
+     */
+    private static final int SCENARIO_IDX = 0;
+
+    private static final String LOCAL_PREFIX = "local:";
+    private static final String PROXY_PREFIX = "proxy:";
+
+    /**
+     * Width of one throughput time series bucket.
+     */
+    private static final long BUCKET_MILLIS = 100;
+
+    /**
+     * How long to wait for a leader to be elected.
+     */
+    private static final long ELECTION_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * How long to wait at the end of a phase for the responses to its requests.
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private final String scenarioFile;
+    private final Scenario scenario;
+    private final byte[] data;
+    private FaultInjector injector;
+    private BackgroundLoad load;
+    private ZKNamespaceManagerImpl loader;
+
+    /**
+     * Servers killed by fault phases and not yet restarted.
+     */
+    private final List<Integer> killed = new ArrayList<>();
+
+    public ScenarioClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Scenario runner expects " + EXPECTED_ARGUMENTS +
+                    " argument. Given: " + args.length);
+        }
+        scenarioFile = args[SCENARIO_IDX];
+        scenario = Scenario.read(scenarioFile);
+        data = ArgumentParser.readData(scenario.getDataPath());
+    }
+
+    @Override
+    public void start() {
+        List<PhaseResult> results = new ArrayList<>();
+        ThroughputTimeSeries timeSeries = null;
+        ServerMetricsCollector serverMetrics = null;
+        try {
+            String address = startEnsemble();
+            String placement = scenario.getPlacement() == null ? ServerPlacement.RANDOM : scenario.getPlacement();
+            load = new BackgroundLoad(scenario.getSessions(), new ServerPlacement(address, placement),
+                    scenario.getPath(), 0, data);
+            long connectStart = System.currentTimeMillis();
+            load.connect();
+            System.out.println(scenario.getSessions() + " sessions connected in " +
+                    (System.currentTimeMillis() - connectStart) + " ms");
+            load.setActiveClients(0);
+            timeSeries = new ThroughputTimeSeries(BUCKET_MILLIS, load::totalRequests);
+            timeSeries.start();
+            serverMetrics = serverMetrics();
+            serverMetrics.start(timeSeries.getStartTime());
+            load.start();
+
+            for (Scenario.Phase phase : scenario.getPhases()) {
+                System.out.println("Phase " + phase.name + " (" + phase.type + ") started");
+                PhaseResult result = Scenario.LOAD.equals(phase.type) ? runLoad(phase, address) : runWorkload(phase);
+                System.out.println(result.describe());
+                results.add(result);
+            }
+            load.stop();
+            timeSeries.stop();
+            serverMetrics.stop();
+        } catch (Exception e) {
+            System.out.println("Scenario failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            if (load != null) {
+                load.close();
+            }
+            if (loader != null) {
+                try {
+                    loader.closeConnection();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (injector != null) {
+                injector.close();
+            }
+        }
+        writeResults(results);
+        writeReport(results, timeSeries, serverMetrics);
+        if (timeSeries != null) {
+            timeSeries.write(scenario.getOutputDirectory() + "/throughput_timeseries.txt");
+        }
+        if (serverMetrics != null) {
+            serverMetrics.write(scenario.getOutputDirectory() + "/server_metrics.txt");
+        }
+    }
+
+    /**
+     * Collector of the ensemble member statistics. Members of a local ensemble are read from the server
+     * instances, because "mntr" can't tell them apart in one JVM; other ensembles are asked with "mntr",
+     * through the real addresses and not the proxies.
+     */
+    private ServerMetricsCollector serverMetrics() {
+        if (injector instanceof LocalEnsemble) {
+            LocalEnsemble ensemble = (LocalEnsemble) injector;
+            Map<String, Integer> ids = new HashMap<>();
+            List<String> members = new ArrayList<>();
+            for (int id : ensemble.getServerIds()) {
+                ids.put(ensemble.getClientAddress(id), id);
+                members.add(ensemble.getClientAddress(id));
+            }
+            return new ServerMetricsCollector(members, member -> ensemble.monitor(ids.get(member)), BUCKET_MILLIS);
+        }
+        String ensemble = scenario.getEnsemble();
+        if (ensemble.startsWith(PROXY_PREFIX)) {
+            ensemble = ensemble.substring(PROXY_PREFIX.length());
+        }
+        return new ServerMetricsCollector(new ServerPlacement(ensemble, ServerPlacement.RANDOM).getServers(),
+                ServerMonitor::mntr, BUCKET_MILLIS);
+    }
+
+    /**
+     * Start the servers if the scenario uses a local ensemble or proxies.
+     *
+     * @return address the sessions connect to
+     */
+    private String startEnsemble() throws IOException, InterruptedException {
+        String ensemble = scenario.getEnsemble();
+        if (ensemble.startsWith(LOCAL_PREFIX)) {
+            injector = new LocalEnsemble(Integer.parseInt(ensemble.substring(LOCAL_PREFIX.length())));
+        } else if (ensemble.startsWith(PROXY_PREFIX)) {
+            injector = new FaultProxy(ensemble.substring(PROXY_PREFIX.length()));
+        } else {
+            return ensemble;
+        }
+        injector.start();
+        if (!injector.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+            throw new IllegalStateException("Ensemble didn't elect a leader in " + ELECTION_TIMEOUT_MILLIS + " ms");
+        }
+        return injector.getConnectString();
+    }
+
+    /**
+     * Populate the data nodes with pipelined creates of one extra session, the benchmark sessions stay idle.
+     */
+    private PhaseResult runLoad(Scenario.Phase phase, String address) throws Exception {
+        if (loader == null) {
+            loader = new ZKNamespaceManagerImpl(address);
+        }
+        PhaseResult result = new PhaseResult(phase, 0);
+        String root = scenario.getPath() + "_data";
+        byte[] value = new byte[phase.getValueSize()];
+        loader.createParents(root, new byte[0]);
+        long createdBefore = loader.getNodesCreated();
+        loader.startLoad(phase.getBatchSize());
+        for (int i = 0; i < phase.getNodes(); i++) {
+            loader.loadNode(root + "/n" + i, value);
+        }
+        loader.finishLoad();
+        result.endTime = System.currentTimeMillis();
+        result.requests = loader.getNodesCreated() - createdBefore;
+        return result;
+    }
+
+    /**
+     * Run the workload of a warm, measure, fault or recover phase.
+     */
+    private PhaseResult runWorkload(Scenario.Phase phase) throws Exception {
+        int clients = phase.getClients(scenario.getSessions());
+        PhaseResult result = new PhaseResult(phase, clients);
+        if (Scenario.RECOVER.equals(phase.type)) {
+            restartKilled(result);
+        }
+        load.setWriteRequestRate(phase.getWriteRate());
+        load.setActiveClients(clients);
+
+        // Snapshots include sessions replaced during the phase. The previous phase has drained, so its
+        // responses aren't counted in this one.
+        BackgroundLoad.Totals before = load.totals();
+        long start = System.currentTimeMillis();
+        result.startTime = start;
+        if (Scenario.FAULT.equals(phase.type)) {
+            runSchedule(phase, start, result);
+        }
+        long sleep = start + phase.getDurationMillis() - System.currentTimeMillis();
+        if (sleep > 0) {
+            Thread.sleep(sleep);
+        }
+        result.endTime = System.currentTimeMillis();
+        load.setActiveClients(0);
+        // Requests made in this phase are answered before the snapshot, and before the next phase starts
+        if (!load.awaitIdle(DRAIN_TIMEOUT_MILLIS)) {
+            System.out.println("Phase " + phase.name + ": requests still waiting for a response after " +
+                    DRAIN_TIMEOUT_MILLIS + " ms");
+        }
+        BackgroundLoad.Totals after = load.totals();
+
+        result.requests = after.requests - before.requests;
+        after.readLatency.subtract(before.readLatency);
+        after.writeLatency.subtract(before.writeLatency);
+        result.readLatency.add(after.readLatency);
+        result.writeLatency.add(after.writeLatency);
+        result.readErrors = after.readErrors - before.readErrors;
+        result.writeErrors = after.writeErrors - before.writeErrors;
+        for (ZKConnection.Reconnect reconnect : load.allReconnects()) {
+            if (reconnect.disconnectedAt >= result.startTime && reconnect.disconnectedAt < result.endTime) {
+                result.reconnects++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Execute the fault steps of the phase at their scheduled time.
+     */
+    private void runSchedule(Scenario.Phase phase, long start, PhaseResult result) throws Exception {
+        FaultScenario schedule = phase.getSchedule();
+        for (FaultScenario.Step step : schedule.getSteps()) {
+            if (step.atMillis >= phase.getDurationMillis()) {
+                break;
+            }
+            long sleep = start + step.atMillis - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+            long faultTime = System.currentTimeMillis();
+            List<Integer> servers = schedule.execute(step, injector);
+            if (FaultScenario.RESTART.equals(step.action)) {
+                killed.removeAll(servers);
+            } else {
+                killed.addAll(servers);
+            }
+            System.out.println("Fault " + step + ": servers " + servers);
+            if (step.affectsLeader()) {
+                awaitLeader(faultTime, result);
+            }
+        }
+    }
+
+    /**
+     * Restart the servers killed by the earlier fault phases.
+     */
+    private void restartKilled(PhaseResult result) throws Exception {
+        if (killed.isEmpty()) {
+            return;
+        }
+        long restartTime = System.currentTimeMillis();
+        for (int serverId : killed) {
+            injector.restart(serverId);
+        }
+        System.out.println("Restarted servers " + killed);
+        killed.clear();
+        awaitLeader(restartTime, result);
+    }
+
+    private void awaitLeader(long since, PhaseResult result) throws InterruptedException {
+        if (injector.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+            result.electionMillis = Math.max(result.electionMillis, System.currentTimeMillis() - since);
+        } else {
+            System.out.println("No leader elected in " + ELECTION_TIMEOUT_MILLIS + " ms");
+        }
+    }
+
+    /**
+     * Write one line for each phase into scenario_results.txt:
+     * phase type durationMs clients writeRate requestsPerSecond readP50Us readP99Us writeP50Us writeP99Us readErrors writeErrors reconnects electionMs
+     */
+    private void writeResults(List<PhaseResult> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(scenario.getOutputDirectory() + "/scenario_results.txt"), StandardCharsets.UTF_8)) {
+            for (PhaseResult r : results) {
+                writer.write(r.phase.name + " " + r.phase.type + " " + r.durationMillis() + " " + r.clients + " " +
+                        r.phase.getWriteRate() + " " + r.requestsPerSecond() + " " +
+                        r.readLatency.getPercentile(50) + " " + r.readLatency.getPercentile(99) + " " +
+                        r.writeLatency.getPercentile(50) + " " + r.writeLatency.getPercentile(99) + " " +
+                        r.readErrors + " " + r.writeErrors + " " + r.reconnects + " " + r.electionMillis + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing scenario results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report, operations of the recorded phases are named "phase.read" and "phase.write",
+     * and one result for each line of scenario_results.txt.
+     */
+    private void writeReport(List<PhaseResult> results, ThroughputTimeSeries timeSeries,
+                             ServerMetricsCollector serverMetrics) {
+        RunReport report = new RunReport(MODE);
+        report.config("scenario", scenarioFile)
+                .config("ensemble", scenario.getEnsemble())
+                .config("sessions", scenario.getSessions())
+                .config("path", scenario.getPath())
+                .config("placement", scenario.getPlacement() == null ? ServerPlacement.RANDOM : scenario.getPlacement());
+        for (PhaseResult r : results) {
+            report.config("phase." + r.phase.name, r.phase.type + " durationMillis=" + r.durationMillis() +
+                    " clients=" + r.clients + " writeRate=" + r.phase.getWriteRate());
+            if (r.phase.isRecorded()) {
+                RunReport.Operation reads = report.operation(r.phase.name + ".read");
+                reads.latency.add(r.readLatency);
+                reads.errors.addAndGet(r.readErrors);
+                RunReport.Operation writes = report.operation(r.phase.name + ".write");
+                writes.latency.add(r.writeLatency);
+                writes.errors.addAndGet(r.writeErrors);
+            }
+            Map<String, Object> row = report.result();
+            row.put("phase", r.phase.name);
+            row.put("type", r.phase.type);
+            row.put("durationMillis", r.durationMillis());
+            row.put("clients", r.clients);
+            row.put("writeRate", r.phase.getWriteRate());
+            row.put("requestsPerSecond", r.requestsPerSecond());
+            row.put("readP50Us", r.readLatency.getPercentile(50));
+            row.put("readP99Us", r.readLatency.getPercentile(99));
+            row.put("writeP50Us", r.writeLatency.getPercentile(50));
+            row.put("writeP99Us", r.writeLatency.getPercentile(99));
+            row.put("readErrors", r.readErrors);
+            row.put("writeErrors", r.writeErrors);
+            row.put("reconnects", r.reconnects);
+            row.put("electionMillis", r.electionMillis);
+        }
+        if (!results.isEmpty()) {
+            report.setStartTime(results.get(0).startTime);
+            report.setEndTime(results.get(results.size() - 1).endTime);
+        }
+        report.setEnsembleAddress(injector != null ? injector.getConnectString() : scenario.getEnsemble());
+        report.setPayloadBytes(data.length);
+        report.setTimeSeries(timeSeries);
+        report.setServerMetrics(serverMetrics);
+        report.write(scenario.getOutputDirectory() + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one phase.
+     */
+    private static class PhaseResult {
+        private final Scenario.Phase phase;
+        private final int clients;
+        private long startTime = System.currentTimeMillis();
+        private long endTime;
+        private long requests;
+        private final LatencyHistogram readLatency = new LatencyHistogram();
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+        private long readErrors;
+        private long writeErrors;
+        private int reconnects;
+        private long electionMillis = -1;
+
+        PhaseResult(Scenario.Phase phase, int clients) {
+            this.phase = phase;
+            this.clients = clients;
+        }
+
+        long durationMillis() {
+            return endTime - startTime;
+        }
+
+        double requestsPerSecond() {
+            return requests * 1000.0 / Math.max(1, durationMillis());
+        }
+
+        String describe() {
+            if (Scenario.LOAD.equals(phase.type)) {
+                return "Phase " + phase.name + ": created " + requests + " nodes in " + durationMillis() + " ms, " +
+                        String.format("%.0f", requestsPerSecond()) + " nodes/s";
+            }
+            return "Phase " + phase.name + ": " + String.format("%.0f", requestsPerSecond()) + " requests/s with " +
+                    clients + " clients, read p50 " + readLatency.getPercentile(50) + " us, p99 " +
+                    readLatency.getPercentile(99) + " us, write p50 " + writeLatency.getPercentile(50) + " us, p99 " +
+                    writeLatency.getPercentile(99) + " us, " + readErrors + " read and " + writeErrors + " write errors, " + reconnects + " reconnects" +
+                    (electionMillis >= 0 ? ", leader elected in " + electionMillis + " ms" : "");
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.ZKConnection;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ThroughputTimeSeries;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens many sessions at once or at a controlled arrival rate, like clients reconnecting after a network
+ * partition or a deploy. Measures the connect latency distribution, the session creation rate the ensemble
+ * sustains and the throughput of steady traffic from other clients during the storm.
+ */
+public class SessionStormClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the session storm test.
+     */
+    public static final String MODE = "storm";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 8;
+
+    /**
+     * Number of sessions opened in the storm.
+     */
+    private static final int NUMBER_OF_SESSIONS_IDX = 0;
+
+    /**
+     * Zookeeper cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 1;
+
+    /**
+     * Sessions opened per second, or "burst" to open all of them at once.
+     */
+    private static final int ARRIVAL_RATE_IDX = 2;
+
+    /**
+     * Number of clients generating steady traffic during the storm.
+     */
+    private static final int NUMBER_OF_CLIENTS_IDX = 3;
+
+    /**
+     * Path in Zookeeper for the steady traffic. Each client adds it's ID to the end of path name.
+     */
+    private static final int NODE_PATH_IDX = 4;
+
+    /**
+     * Percentage of writes in the steady traffic.
+     */
+    private static final int WRITE_RATE_IDX = 5;
+
+    /**
+     * Path to data, which is used in the test
+     */
+    private static final int DATA_PATH_IDX = 6;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 7;
+
+    private static final String BURST = "burst";
+
+    /**
+     * Steady traffic is measured this long before and after the storm.
+     */
+    private static final long QUIET_PERIOD_MILLIS = 10000;
+
+    /**
+     * How long to wait for the storm sessions to be established.
+     */
+    private static final long CONNECT_TIMEOUT_MILLIS = 120000;
+
+    /**
+     * Number of threads creating the Zookeeper clients.
+     */
+    private static final int OPENER_THREADS = 16;
+
+    /**
+     * Width of one throughput time series bucket.
+     */
+    private static final long BUCKET_MILLIS = 100;
+
+    private int numberOfSessions;
+    private String clusterAddress;
+    private double arrivalRate;
+    private int numberOfClients;
+    private String pathInZookeeper;
+    private double writeRequestRate;
+    private byte[] data;
+    private String outputDirectory;
+
+    public SessionStormClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Session storm test expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfSessions = ArgumentParser.parsePositiveInt(args[NUMBER_OF_SESSIONS_IDX], NUMBER_OF_SESSIONS_IDX,
+                "the number of sessions opened in the storm");
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        arrivalRate = parseArrivalRate(args[ARRIVAL_RATE_IDX]);
+        // Steady traffic is optional
+        numberOfClients = "0".equals(args[NUMBER_OF_CLIENTS_IDX]) ? 0 :
+                ArgumentParser.parsePositiveInt(args[NUMBER_OF_CLIENTS_IDX], NUMBER_OF_CLIENTS_IDX,
+                        "the number of clients generating steady traffic");
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        writeRequestRate = ArgumentParser.parseRate(args[WRITE_RATE_IDX], WRITE_RATE_IDX,
+                "the write request generation rate");
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    /**
+     * Check if arrival rate is positive double or "burst".
+     *
+     * @param arrivalRateString sessions per second in String
+     * @return sessions per second, 0 for burst
+     */
+    private double parseArrivalRate(String arrivalRateString) {
+        if (BURST.equals(arrivalRateString)) {
+            return 0;
+        }
+        try {
+            double rate = Double.parseDouble(arrivalRateString);
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Argument at index " + ARRIVAL_RATE_IDX +
+                        " is expected to be positive. Given: " + arrivalRateString +
+                        " . It is the number of sessions opened per second.");
+            }
+            return rate;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Argument at index " + ARRIVAL_RATE_IDX +
+                    " is expected to be double or " + BURST + ". Given: " + arrivalRateString +
+                    " . It is the number of sessions opened per second.");
+        }
+    }
+
+    @Override
+    public void start() {
+        BackgroundLoad load = new BackgroundLoad(numberOfClients,
+                new ServerPlacement(clusterAddress, ServerPlacement.RANDOM), pathInZookeeper, writeRequestRate, data);
+        List<ZKConnection> sessions = new ArrayList<>();
+        try {
+            load.connect();
+            ThroughputTimeSeries timeSeries = new ThroughputTimeSeries(BUCKET_MILLIS, load::totalRequests);
+            timeSeries.start();
+            load.start();
+            Thread.sleep(QUIET_PERIOD_MILLIS);
+
+            long stormStart = System.currentTimeMillis();
+            openSessions(sessions);
+            long opened = System.currentTimeMillis();
+            int connected = 0;
+            long deadline = stormStart + CONNECT_TIMEOUT_MILLIS;
+            for (ZKConnection session : sessions) {
+                if (session.awaitConnected(Math.max(1, deadline - System.currentTimeMillis()))) {
+                    connected++;
+                }
+            }
+            long stormEnd = System.currentTimeMillis();
+            Thread.sleep(QUIET_PERIOD_MILLIS);
+            load.stop();
+            timeSeries.stop();
+
+            LatencyHistogram connectLatency = new LatencyHistogram();
+            long firstStart = Long.MAX_VALUE;
+            long lastConnected = 0;
+            for (ZKConnection session : sessions) {
+                if (session.getConnectedAt() != 0) {
+                    connectLatency.record((session.getConnectedAt() - session.getConnectStartedAt()) / 1000);
+                    lastConnected = Math.max(lastConnected, session.getConnectedAt());
+                }
+                firstStart = Math.min(firstStart, session.getConnectStartedAt());
+            }
+            double creationRate = connected * 1e9 / Math.max(1, lastConnected - firstStart);
+            double before = timeSeries.requestsPerSecond(timeSeries.bucketOf(stormStart - QUIET_PERIOD_MILLIS),
+                    timeSeries.bucketOf(stormStart));
+            double during = timeSeries.requestsPerSecond(timeSeries.bucketOf(stormStart), timeSeries.bucketOf(stormEnd) + 1);
+            double after = timeSeries.requestsPerSecond(timeSeries.bucketOf(stormEnd) + 1,
+                    timeSeries.bucketOf(stormEnd + QUIET_PERIOD_MILLIS));
+
+            System.out.println("Opened " + numberOfSessions + " sessions in " + (opened - stormStart) + " ms, " +
+                    connected + " connected in " + (stormEnd - stormStart) + " ms");
+            System.out.println("Connect latency: " + connectLatency.summary("us"));
+            System.out.println("Sustained session creation rate: " + String.format("%.1f", creationRate) + " sessions/s");
+            System.out.println("Steady traffic: " + String.format("%.0f", before) + " requests/s before, " +
+                    String.format("%.0f", during) + " requests/s during, " +
+                    String.format("%.0f", after) + " requests/s after the storm");
+
+            writeResults(connected, connectLatency, creationRate, before, during, after);
+            writeReport(load, timeSeries, connected, connectLatency, creationRate, before, during, after);
+            timeSeries.write(outputDirectory + "/throughput_timeseries.txt");
+        } catch (Exception e) {
+            System.out.println("Session storm test failed: " + e.getMessage());
+            System.out.println(e.toString());
+        } finally {
+            load.close();
+            for (ZKConnection session : sessions) {
+                try {
+                    session.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start connecting every session, either all at once or spaced by the arrival rate.
+     * Sessions are established in the background, so a slow ensemble doesn't slow down the arrivals.
+     * Creating a Zookeeper client starts its threads, so several threads create the clients.
+     */
+    private void openSessions(List<ZKConnection> sessions) throws InterruptedException {
+        ZKConnection[] opened = new ZKConnection[numberOfSessions];
+        ExecutorService openers = Executors.newFixedThreadPool(OPENER_THREADS);
+        long start = System.nanoTime();
+        for (int i = 0; i < numberOfSessions; i++) {
+            if (arrivalRate > 0) {
+                long arrival = start + (long) (i * 1e9 / arrivalRate);
+                long sleep = (arrival - System.nanoTime()) / 1000000;
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            }
+            int sessionId = i;
+            openers.execute(() -> {
+                ZKConnection session = new ZKConnection();
+                try {
+                    session.startConnect(clusterAddress);
+                    opened[sessionId] = session;
+                } catch (IOException e) {
+                    System.out.println("Session_" + sessionId + ": Wasn't able to create client: " + e.getMessage());
+                }
+            });
+        }
+        openers.shutdown();
+        openers.awaitTermination(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        for (ZKConnection session : opened) {
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+    }
+
+    /**
+     * Write results into a file, one "name value" pair on each line.
+     */
+    private void writeResults(int connected, LatencyHistogram connectLatency, double creationRate,
+                              double before, double during, double after) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/storm_results.txt"), StandardCharsets.UTF_8)) {
+            writer.write("sessions " + numberOfSessions + "\n");
+            writer.write("connected " + connected + "\n");
+            writer.write("connect_latency_mean_us " + connectLatency.getMean() + "\n");
+            writer.write("connect_latency_p50_us " + connectLatency.getPercentile(50) + "\n");
+            writer.write("connect_latency_p90_us " + connectLatency.getPercentile(90) + "\n");
+            writer.write("connect_latency_p99_us " + connectLatency.getPercentile(99) + "\n");
+            writer.write("connect_latency_p999_us " + connectLatency.getPercentile(99.9) + "\n");
+            writer.write("connect_latency_max_us " + connectLatency.getMax() + "\n");
+            writer.write("session_creation_rate " + creationRate + "\n");
+            writer.write("steady_rps_before " + before + "\n");
+            writer.write("steady_rps_during " + during + "\n");
+            writer.write("steady_rps_after " + after + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing storm results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the connect latency as operation "connect", the latency of the steady traffic
+     * and the same results as in storm_results.txt.
+     */
+    private void writeReport(BackgroundLoad load, ThroughputTimeSeries timeSeries, int connected,
+                             LatencyHistogram connectLatency, double creationRate,
+                             double before, double during, double after) {
+        RunReport report = new RunReport(MODE);
+        report.config("sessions", numberOfSessions)
+                .config("arrivalRate", arrivalRate > 0 ? arrivalRate : BURST)
+                .config("clients", numberOfClients)
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate);
+        RunReport.Operation connect = report.operation("connect");
+        connect.latency.add(connectLatency);
+        connect.errors.addAndGet(numberOfSessions - connected);
+        load.report(report);
+        Map<String, Object> row = report.result();
+        row.put("sessions", numberOfSessions);
+        row.put("connected", connected);
+        row.put("sessionCreationRate", creationRate);
+        row.put("steadyRequestsPerSecondBefore", before);
+        row.put("steadyRequestsPerSecondDuring", during);
+        row.put("steadyRequestsPerSecondAfter", after);
+        report.setStartTime(timeSeries.getStartTime());
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.setTimeSeries(timeSeries);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+}
@@ -1,7 +1,15 @@
 package com.dps.zookeeper.client;
 
+import com.dps.zookeeper.connection.ServerPlacement;
 import com.dps.zookeeper.connection.ZKManager;
 import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.metrics.LiveMetrics;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.stats.ServerBreakdown;
+import com.dps.zookeeper.stats.ServerMetricsCollector;
+import com.dps.zookeeper.stats.ServerMonitor;
+import com.dps.zookeeper.stats.ThroughputTimeSeries;
 import org.apache.zookeeper.KeeperException;
 
 import java.io.FileOutputStream;
@@ -11,7 +19,10 @@ import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -24,6 +35,11 @@ public class ThroughputClient implements ZookeeperClient {
      */
     public static final int EXPECTED_ARGUMENTS = 8;
 
+    /**
+     * Mode name, which selects throughput test and allows optional arguments.
+     */
+    public static final String MODE = "throughput";
+
     /**
      * Number of clients, which are created.
      */
@@ -65,11 +81,21 @@ public class ThroughputClient implements ZookeeperClient {
      */
     private static final int OUTPUT_DIR_IDX = 7;
 
+    /**
+     * Optional placement of the sessions on the servers, see {@link ServerPlacement}.
+     */
+    private static final int PLACEMENT_IDX = 8;
+
     /**
      * Used to wait for all clients to finish request generation and  then start writing results into file.
      */
     private static CountDownLatch threadCountDown;
 
+    /**
+     * Width of the throughput time series buckets in the run report.
+     */
+    private static final long BUCKET_MILLIS = 1000;
+
 
     private int numberOfClients;
     private String clusterAddress;
@@ -79,25 +105,97 @@ public class ThroughputClient implements ZookeeperClient {
     private long benchmarkStartTime;
     private long benchmarkEndTime;
     private String outputDirectory;
+    private String placement;
+    private ServerPlacement serverPlacement;
+    private final ServerBreakdown serverBreakdown = new ServerBreakdown();
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final RunReport report = new RunReport(MODE);
+
+    /**
+     * Connected clients, sampled by the time series.
+     */
+    private final List<ZKThroughputManagerImpl> managers = new CopyOnWriteArrayList<>();
 
     public ThroughputClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS && args.length != EXPECTED_ARGUMENTS + 1) {
+            throw new IllegalArgumentException("Throughput test expects " + EXPECTED_ARGUMENTS + " or " +
+                    (EXPECTED_ARGUMENTS + 1) + " arguments. Given: " + args.length);
+        }
         validateAndGetInputs(args);
         this.clusterAddress = args[CLUSTER_ADDRESS_IDX];
         this.outputDirectory = args[OUTPUT_DIR_IDX];
+        this.placement = args.length > PLACEMENT_IDX ? args[PLACEMENT_IDX] : ServerPlacement.RANDOM;
+        this.serverPlacement = new ServerPlacement(clusterAddress, placement);
     }
 
 
     @Override
     public void start() {
         threadCountDown = new CountDownLatch(numberOfClients);
+        List<Thread> threads = new ArrayList<>();
         for (int i = 0; i < numberOfClients; i++) {
-            ThroughputTask tasl = new ThroughputTask(i, clusterAddress, pathInZookeeper,
+            ThroughputTask tasl = new ThroughputTask(i, serverPlacement.connectStringFor(i), pathInZookeeper,
                     writeRequestRate, data,
                     benchmarkStartTime, benchmarkEndTime, outputDirectory);
             Thread t = new Thread(tasl);
             t.setName("Client_" + i);
             t.start();
+            threads.add(t);
         }
+        ThroughputTimeSeries timeSeries = new ThroughputTimeSeries(BUCKET_MILLIS, this::totalRequests);
+        ServerMetricsCollector serverMetrics = new ServerMetricsCollector(serverPlacement.getServers(),
+                ServerMonitor::mntr, BUCKET_MILLIS);
+        try {
+            Thread.sleep(Math.max(0, benchmarkStartTime - System.currentTimeMillis()));
+            timeSeries.start();
+            serverMetrics.start(timeSeries.getStartTime());
+            for (Thread t : threads) {
+                t.join();
+            }
+            timeSeries.stop();
+            serverMetrics.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Show how the load was spread over the ensemble members
+        serverBreakdown.print(benchmarkEndTime - benchmarkStartTime);
+        serverBreakdown.write(outputDirectory + "/server_breakdown.txt");
+        System.out.println("Request latency of all clients: " + requestLatency.summary("us"));
+        serverMetrics.write(outputDirectory + "/server_metrics.txt");
+        writeReport(timeSeries, serverMetrics);
+    }
+
+    /**
+     * @return requests finished by the connected clients so far
+     */
+    private long totalRequests() {
+        long total = 0;
+        for (ZKThroughputManagerImpl zkManager : managers) {
+            total += zkManager.requestsDone.get();
+        }
+        return total;
+    }
+
+    /**
+     * Write the run report with the configuration, the latency of reads and writes, the time series
+     * and the server metrics.
+     */
+    private void writeReport(ThroughputTimeSeries timeSeries, ServerMetricsCollector serverMetrics) {
+        report.config("numberOfClients", numberOfClients)
+                .config("clusterAddress", clusterAddress)
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate)
+                .config("placement", placement)
+                .config("durationMillis", benchmarkEndTime - benchmarkStartTime);
+        report.setStartTime(benchmarkStartTime);
+        report.setEndTime(benchmarkEndTime);
+        report.setEnsembleAddress(clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.setTimeSeries(timeSeries);
+        report.setServers(serverBreakdown);
+        report.setServerMetrics(serverMetrics);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
     }
 
 
@@ -254,9 +352,14 @@ public class ThroughputClient implements ZookeeperClient {
             ZKThroughputManagerImpl zkManager = null;
             try {
                 zkManager = new ZKThroughputManagerImpl(clusterAddress);
+                String server = serverPlacement.isPinned() ? clusterAddress : zkManager.getConnectedServer();
+                ServerBreakdown.ServerCounters serverCounters = serverBreakdown.forServer(server);
+                serverCounters.sessions.incrementAndGet();
                 Random random = new Random();
                 // Create path in Zookeeper if it doesn't exist
                 checkPrerequisites(zkManager, path, data);
+                managers.add(zkManager);
+                LiveMetrics.get().register("Client_" + clientId, zkManager);
                 double writeRequests;
                 double readRequests;
                 long numberOfRequests;
@@ -285,6 +388,18 @@ public class ThroughputClient implements ZookeeperClient {
                         numberOfRequests = zkManager.requestsDone.get();
                         writeRequests = zkManager.writeRequestsDone.doubleValue();
                         readRequests = zkManager.readRequestsDone.doubleValue();
+                        serverCounters.requests.addAndGet(numberOfRequests);
+                        serverCounters.reads.addAndGet(zkManager.readRequestsDone.get());
+                        serverCounters.writes.addAndGet(zkManager.writeRequestsDone.get());
+                        requestLatency.add(zkManager.requestLatency);
+                        RunReport.Operation reads = report.operation("read");
+                        reads.latency.add(zkManager.readLatency);
+                        reads.errors.addAndGet(zkManager.readErrors.get());
+                        RunReport.Operation writes = report.operation("write");
+                        writes.latency.add(zkManager.writeLatency);
+                        writes.errors.addAndGet(zkManager.writeErrors.get());
+                        serverCounters.latencyMillis.addAndGet(Math.round(
+                                zkManager.requestLatency.getMean() * zkManager.requestLatency.getCount() / 1000));
 
                         // reduce the countdown
                         threadCountDown.countDown();
@@ -295,6 +410,7 @@ public class ThroughputClient implements ZookeeperClient {
                 // Wait for all threads to finish, before doing any I/O
                 threadCountDown.await();
 
+                System.out.println("Client_" + clientId + ": Connected to " + server);
                 System.out.println("Client_" + clientId + ": Did " + numberOfRequests + " requests");
                 System.out.println("Client_" + clientId + ": Did " + writeRequests + " write requests, it is " + writeRequests / numberOfRequests * 100 + "%");
                 System.out.println("Client_" + clientId + ": Did " + readRequests + " read requests, it is " + readRequests / numberOfRequests * 100 + "%");
@@ -309,6 +425,7 @@ public class ThroughputClient implements ZookeeperClient {
             } finally {
                 // Close zookeeper connection
                 if (zkManager != null) {
+                    LiveMetrics.get().unregister("Client_" + clientId, zkManager);
                     try {
                         zkManager.closeConnection();
                     } catch (InterruptedException e) {
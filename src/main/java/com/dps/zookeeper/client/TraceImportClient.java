@@ -0,0 +1,84 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.trace.TraceImporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Converts a text export of Zookeeper operations into the binary trace format used by the replay.
+ */
+public class TraceImportClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the trace import.
+     */
+    public static final String MODE = "import-trace";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 3;
+
+    /**
+     * Text export, one "timestamp,sessionId,operation,path,valueSize" line for each operation.
+     */
+    private static final int TEXT_PATH_IDX = 0;
+
+    /**
+     * Binary trace file to write.
+     */
+    private static final int TRACE_PATH_IDX = 1;
+
+    /**
+     * Directory where to write the run report.
+     */
+    private static final int OUTPUT_DIR_IDX = 2;
+
+    private String textPath;
+    private String tracePath;
+    private String outputDirectory;
+
+    public TraceImportClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Trace import expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        textPath = args[TEXT_PATH_IDX];
+        tracePath = args[TRACE_PATH_IDX];
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        try {
+            long start = System.currentTimeMillis();
+            long records = TraceImporter.importText(textPath, tracePath);
+            long end = System.currentTimeMillis();
+            System.out.println("Imported " + records + " operations into " + tracePath + " in " +
+                    (end - start) + " ms");
+            writeReport(records, start, end);
+        } catch (IOException e) {
+            System.out.println("Trace import failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the run report with the number of imported operations and the file sizes.
+     */
+    private void writeReport(long records, long start, long end) {
+        RunReport report = new RunReport(MODE);
+        report.config("textPath", textPath)
+                .config("tracePath", tracePath);
+        Map<String, Object> row = report.result();
+        row.put("operations", records);
+        row.put("durationMillis", end - start);
+        row.put("textBytes", new File(textPath).length());
+        row.put("traceBytes", new File(tracePath).length());
+        report.setStartTime(start);
+        report.setEndTime(end);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+}
@@ -0,0 +1,348 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ZKManager;
+import com.dps.zookeeper.connection.ZKNamespaceManagerImpl;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+import com.dps.zookeeper.trace.TraceReader;
+import com.dps.zookeeper.trace.TraceRecord;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a binary operation trace. Trace sessions are mapped onto the benchmark sessions in the order
+ * they first appear, every benchmark session issues its operations in trace order through {@link ZKManager}.
+ * Operations are issued at their original time, faster by a speed-up factor, or as fast as possible.
+ * Failed operations, for example reads of nodes missing from the replayed tree, are counted and skipped.
+ */
+public class TraceReplayClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the trace replay.
+     */
+    public static final String MODE = "replay";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 6;
+
+    /**
+     * Zookeeper cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private static final int CLUSTER_ADDRESS_IDX = 0;
+
+    /**
+     * Binary trace file.
+     */
+    private static final int TRACE_PATH_IDX = 1;
+
+    /**
+     * Number of benchmark sessions.
+     */
+    private static final int NUMBER_OF_SESSIONS_IDX = 2;
+
+    /**
+     * Timing of the replay, "original", speed-up factor or "max".
+     */
+    private static final int SPEED_IDX = 3;
+
+    /**
+     * Path in Zookeeper, trace paths are replayed under it.
+     */
+    private static final int NODE_PATH_IDX = 4;
+
+    /**
+     * Directory where to write the replay results.
+     */
+    private static final int OUTPUT_DIR_IDX = 5;
+
+    private static final String ORIGINAL = "original";
+    private static final String MAX = "max";
+
+    /**
+     * Operations waiting for each benchmark session, reading stops when a session falls this much behind.
+     */
+    private static final int QUEUE_SIZE = 10000;
+
+    private String clusterAddress;
+    private String tracePath;
+    private int numberOfSessions;
+
+    /**
+     * Speed-up factor, 0 for as fast as possible.
+     */
+    private double speed;
+    private String pathPrefix;
+    private String outputDirectory;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[TraceRecord.opTypeCount()];
+    private final AtomicLongArray errors = new AtomicLongArray(TraceRecord.opTypeCount());
+
+    /**
+     * How late the operations were issued compared to the schedule.
+     */
+    private final LatencyHistogram lag = new LatencyHistogram();
+
+    public TraceReplayClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Trace replay expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        clusterAddress = args[CLUSTER_ADDRESS_IDX];
+        tracePath = args[TRACE_PATH_IDX];
+        numberOfSessions = ArgumentParser.parsePositiveInt(args[NUMBER_OF_SESSIONS_IDX], NUMBER_OF_SESSIONS_IDX,
+                "the number of benchmark sessions");
+        speed = parseSpeed(args[SPEED_IDX]);
+        pathPrefix = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        if (pathPrefix.endsWith("/")) {
+            pathPrefix = pathPrefix.substring(0, pathPrefix.length() - 1);
+        }
+        outputDirectory = args[OUTPUT_DIR_IDX];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private double parseSpeed(String speedString) {
+        if (ORIGINAL.equals(speedString)) {
+            return 1;
+        }
+        if (MAX.equals(speedString)) {
+            return 0;
+        }
+        try {
+            double factor = Double.parseDouble(speedString);
+            if (factor <= 0) {
+                throw new NumberFormatException();
+            }
+            return factor;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Argument at index " + SPEED_IDX + " is expected to be " +
+                    ORIGINAL + ", " + MAX + " or positive double. Given: " + speedString + " . It is the replay speed.");
+        }
+    }
+
+    @Override
+    public void start() {
+        List<ZKManager> managers = new ArrayList<>();
+        List<BlockingQueue<Operation>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long replayed = 0;
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long traceDuration = 0;
+        try (TraceReader reader = new TraceReader(tracePath)) {
+            for (int i = 0; i < numberOfSessions; i++) {
+                ZKNamespaceManagerImpl zkManager = new ZKNamespaceManagerImpl(clusterAddress);
+                if (i == 0 && !pathPrefix.isEmpty()) {
+                    // Traced paths are replayed under the prefix, which has to exist for their creates
+                    zkManager.createParents(pathPrefix, new byte[0]);
+                }
+                BlockingQueue<Operation> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                Thread t = new Thread(() -> replay(zkManager, queue));
+                t.setName("Replay_" + i);
+                managers.add(zkManager);
+                queues.add(queue);
+                threads.add(t);
+            }
+            threads.forEach(Thread::start);
+
+            Map<Long, Integer> sessionMapping = new HashMap<>();
+            TraceRecord record = new TraceRecord();
+            long firstTimestamp = 0;
+            start = System.nanoTime();
+            while (reader.next(record)) {
+                if (replayed == 0) {
+                    firstTimestamp = record.timestampMicros;
+                }
+                traceDuration = record.timestampMicros - firstTimestamp;
+                long scheduled = start;
+                if (speed > 0) {
+                    scheduled = start + (long) (traceDuration * 1000 / speed);
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                Integer session = sessionMapping.get(record.sessionId);
+                if (session == null) {
+                    session = sessionMapping.size() % numberOfSessions;
+                    sessionMapping.put(record.sessionId, session);
+                }
+                queues.get(session).put(new Operation(record.opType, pathPrefix + record.path, record.valueSize, scheduled));
+                replayed++;
+            }
+            for (BlockingQueue<Operation> queue : queues) {
+                queue.put(Operation.END);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long duration = (System.nanoTime() - start) / 1000000;
+            printResults(replayed, sessionMapping.size(), duration, traceDuration / 1000);
+            writeResults(duration, traceDuration / 1000);
+            writeReport(replayed, sessionMapping.size(), startTime, duration, traceDuration / 1000);
+        } catch (Exception e) {
+            System.out.println("Trace replay failed: " + e.getMessage());
+            System.out.println(e.toString());
+            threads.forEach(Thread::interrupt);
+        } finally {
+            for (ZKManager zkManager : managers) {
+                try {
+                    zkManager.closeConnection();
+                } catch (InterruptedException e) {
+                    System.out.println("Exception when trying to close Zookeeper: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Issue the operations of one benchmark session in order.
+     */
+    private void replay(ZKManager zkManager, BlockingQueue<Operation> queue) {
+        Map<Integer, byte[]> values = new HashMap<>();
+        try {
+            while (true) {
+                Operation op = queue.take();
+                if (op == Operation.END) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                if (speed > 0) {
+                    lag.record((begin - op.scheduledNanos) / 1000);
+                }
+                try {
+                    switch (op.opType) {
+                        case TraceRecord.CREATE:
+                            zkManager.create(op.path, values.computeIfAbsent(op.valueSize, byte[]::new));
+                            break;
+                        case TraceRecord.GET_DATA:
+                            zkManager.getZNodeData(op.path, false);
+                            break;
+                        case TraceRecord.SET_DATA:
+                            zkManager.update(op.path, values.computeIfAbsent(op.valueSize, byte[]::new));
+                            break;
+                        case TraceRecord.EXISTS:
+                            zkManager.exists(op.path);
+                            break;
+                        case TraceRecord.DELETE:
+                            zkManager.delete(op.path);
+                            break;
+                        default:
+                            errors.incrementAndGet(op.opType);
+                            continue;
+                    }
+                    latencies[op.opType].record((System.nanoTime() - begin) / 1000);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    errors.incrementAndGet(op.opType);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printResults(long replayed, int traceSessions, long duration, long traceDuration) {
+        System.out.println("Replayed " + replayed + " operations of " + traceSessions + " trace sessions on " +
+                numberOfSessions + " sessions in " + duration + " ms, trace covers " + traceDuration + " ms, " +
+                String.format("%.0f", replayed * 1000.0 / Math.max(1, duration)) + " operations/s");
+        for (byte i = 0; i < latencies.length; i++) {
+            if (latencies[i].getCount() > 0 || errors.get(i) > 0) {
+                System.out.println(TraceRecord.opName(i) + ": " + errors.get(i) + " errors, latency " +
+                        latencies[i].summary("us"));
+            }
+        }
+        if (speed > 0) {
+            System.out.println("Lag behind the schedule: " + lag.summary("us"));
+        }
+    }
+
+    /**
+     * Write one line for each operation type: operation count errors meanUs p50Us p99Us maxUs,
+     * the lag behind the schedule as operation "lag" and the durations in milliseconds.
+     */
+    private void writeResults(long duration, long traceDuration) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/replay_results.txt"), StandardCharsets.UTF_8)) {
+            for (byte i = 0; i < latencies.length; i++) {
+                writer.write(TraceRecord.opName(i) + " " + latencies[i].getCount() + " " + errors.get(i) + " " +
+                        latencies[i].getMean() + " " + latencies[i].getPercentile(50) + " " +
+                        latencies[i].getPercentile(99) + " " + latencies[i].getMax() + "\n");
+            }
+            writer.write("lag " + lag.getCount() + " 0 " + lag.getMean() + " " + lag.getPercentile(50) + " " +
+                    lag.getPercentile(99) + " " + lag.getMax() + "\n");
+            writer.write("duration_ms " + duration + "\n");
+            writer.write("trace_duration_ms " + traceDuration + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing replay results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with an operation for each operation type of the trace and the lag behind
+     * the schedule as operation "lag", like in replay_results.txt.
+     */
+    private void writeReport(long replayed, int traceSessions, long startTime, long duration, long traceDuration) {
+        RunReport report = new RunReport(MODE);
+        report.config("tracePath", tracePath)
+                .config("sessions", numberOfSessions)
+                .config("speed", speed > 0 ? speed : MAX)
+                .config("path", pathPrefix);
+        for (byte i = 0; i < latencies.length; i++) {
+            if (latencies[i].getCount() > 0 || errors.get(i) > 0) {
+                RunReport.Operation op = report.operation(TraceRecord.opName(i));
+                op.latency.add(latencies[i]);
+                op.errors.addAndGet(errors.get(i));
+            }
+        }
+        if (speed > 0) {
+            report.operation("lag").latency.add(lag);
+        }
+        Map<String, Object> row = report.result();
+        row.put("operations", replayed);
+        row.put("traceSessions", traceSessions);
+        row.put("durationMillis", duration);
+        row.put("traceDurationMillis", traceDuration);
+        row.put("operationsPerSecond", replayed * 1000.0 / Math.max(1, duration));
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(clusterAddress);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Operation handed to a benchmark session.
+     */
+    private static class Operation {
+        private static final Operation END = new Operation((byte) -1, null, 0, 0);
+
+        private final byte opType;
+        private final String path;
+        private final int valueSize;
+        private final long scheduledNanos;
+
+        Operation(byte opType, String path, int valueSize, long scheduledNanos) {
+            this.opType = opType;
+            this.path = path;
+            this.valueSize = valueSize;
+            this.scheduledNanos = scheduledNanos;
+        }
+    }
+}
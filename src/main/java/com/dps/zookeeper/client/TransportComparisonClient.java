@@ -0,0 +1,315 @@
+package com.dps.zookeeper.client;
+
+import com.dps.zookeeper.connection.ServerPlacement;
+import com.dps.zookeeper.connection.TransportProfile;
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.ensemble.LocalEnsemble;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.dps.zookeeper.stats.RunReport;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the same throughput workload with each transport profile, one after another, and compares
+ * throughput, latency, session establishment time and CPU time per request.
+ * With a local ensemble every profile gets a fresh ensemble, which uses the same transport on the server side.
+ */
+public class TransportComparisonClient implements ZookeeperClient {
+
+    /**
+     * Mode name of the transport comparison.
+     */
+    public static final String MODE = "transport";
+
+    /**
+     * Number of expected arguments after the mode name.
+     */
+    public static final int EXPECTED_ARGUMENTS = 9;
+
+    /**
+     * Number of clients generating requests.
+     */
+    private static final int NUMBER_OF_CLIENTS_IDX = 0;
+
+    /**
+     * "local:N" for an in-process ensemble of N peers, or the plaintext cluster address "host:port,...".
+     */
+    private static final int CLUSTER_IDX = 1;
+
+    /**
+     * TLS cluster address of an external cluster, "-" for a local ensemble or if TLS isn't compared.
+     */
+    private static final int TLS_CLUSTER_IDX = 2;
+
+    /**
+     * Comma separated transport profiles, see {@link TransportProfile}.
+     */
+    private static final int PROFILES_IDX = 3;
+
+    /**
+     * Path in Zookeeper. Each client adds it's ID to the end of path name.
+     */
+    private static final int NODE_PATH_IDX = 4;
+
+    /**
+     * Percentage of writes in generated requests.
+     */
+    private static final int WRITE_RATE_IDX = 5;
+
+    /**
+     * Path to data, which is used in the test
+     */
+    private static final int DATA_PATH_IDX = 6;
+
+    /**
+     * Measured duration of each profile in seconds.
+     */
+    private static final int DURATION_IDX = 7;
+
+    /**
+     * Directory where to write the benchmark results.
+     */
+    private static final int OUTPUT_DIR_IDX = 8;
+
+    private static final String LOCAL_PREFIX = "local:";
+    private static final String NONE = "-";
+
+    /**
+     * Requests made before the measurement starts, so that the JIT has compiled the request path.
+     */
+    private static final long WARM_UP_MILLIS = 5000;
+
+    /**
+     * How long to wait for the local ensemble to elect a leader.
+     */
+    private static final long ELECTION_TIMEOUT_MILLIS = 60000;
+
+    private int numberOfClients;
+    private int localPeers;
+    private String clusterAddress;
+    private String tlsClusterAddress;
+    private List<TransportProfile> profiles = new ArrayList<>();
+    private String pathInZookeeper;
+    private double writeRequestRate;
+    private byte[] data;
+    private long durationMillis;
+    private String outputDirectory;
+
+    public TransportComparisonClient(String[] args) {
+        if (args.length != EXPECTED_ARGUMENTS) {
+            throw new IllegalArgumentException("Transport comparison expects " + EXPECTED_ARGUMENTS +
+                    " arguments. Given: " + args.length);
+        }
+        numberOfClients = ArgumentParser.parsePositiveInt(args[NUMBER_OF_CLIENTS_IDX], NUMBER_OF_CLIENTS_IDX,
+                "the number of clients created");
+        if (args[CLUSTER_IDX].startsWith(LOCAL_PREFIX)) {
+            localPeers = ArgumentParser.parsePositiveInt(args[CLUSTER_IDX].substring(LOCAL_PREFIX.length()),
+                    CLUSTER_IDX, "the number of peers in local ensemble");
+        } else {
+            clusterAddress = args[CLUSTER_IDX];
+        }
+        tlsClusterAddress = args[TLS_CLUSTER_IDX];
+        for (String name : args[PROFILES_IDX].split(",")) {
+            try {
+                profiles.add(new TransportProfile(name.trim()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Argument at index " + PROFILES_IDX + " is invalid. " + e.getMessage());
+            }
+        }
+        pathInZookeeper = ArgumentParser.checkPathInZookeeper(args[NODE_PATH_IDX], NODE_PATH_IDX);
+        writeRequestRate = ArgumentParser.parseRate(args[WRITE_RATE_IDX], WRITE_RATE_IDX,
+                "the write request generation rate");
+        data = ArgumentParser.readData(args[DATA_PATH_IDX]);
+        durationMillis = ArgumentParser.parsePositiveInt(args[DURATION_IDX], DURATION_IDX,
+                "the measured duration of each profile in seconds") * 1000L;
+        outputDirectory = args[OUTPUT_DIR_IDX];
+    }
+
+    @Override
+    public void start() {
+        System.out.println("Native epoll transport " + (TransportProfile.isEpollAvailable() ? "is" : "isn't") +
+                " available, Netty profiles use " + (TransportProfile.isEpollAvailable() ? "epoll" : "Java NIO"));
+        long startTime = System.currentTimeMillis();
+        List<Result> results = new ArrayList<>();
+        for (TransportProfile profile : profiles) {
+            try {
+                Result result = run(profile);
+                System.out.println(result.describe());
+                results.add(result);
+            } catch (Exception e) {
+                System.out.println("Profile " + profile.getName() + " failed: " + e.getMessage());
+                System.out.println(e.toString());
+            }
+        }
+        writeResults(results);
+        writeReport(results, startTime);
+    }
+
+    /**
+     * Run the workload with one profile.
+     */
+    private Result run(TransportProfile profile) throws Exception {
+        LocalEnsemble ensemble = null;
+        BackgroundLoad load = null;
+        try {
+            String address;
+            if (localPeers > 0) {
+                ensemble = new LocalEnsemble(localPeers, profile);
+                ensemble.start();
+                if (!ensemble.awaitLeader(ELECTION_TIMEOUT_MILLIS)) {
+                    throw new IllegalStateException("Ensemble didn't elect a leader in " + ELECTION_TIMEOUT_MILLIS + " ms");
+                }
+                address = ensemble.getConnectString();
+            } else if (profile.isSecure()) {
+                if (NONE.equals(tlsClusterAddress)) {
+                    throw new IllegalArgumentException("TLS cluster address isn't given");
+                }
+                address = tlsClusterAddress;
+            } else {
+                address = clusterAddress;
+            }
+            load = new BackgroundLoad(numberOfClients, new ServerPlacement(address, ServerPlacement.RANDOM),
+                    pathInZookeeper, writeRequestRate, data, profile);
+            load.connect();
+            LatencyHistogram connectLatency = new LatencyHistogram();
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                connectLatency.record((zkManager.getConnection().getConnectedAt() -
+                        zkManager.getConnection().getConnectStartedAt()) / 1000);
+            }
+
+            load.start();
+            Thread.sleep(WARM_UP_MILLIS);
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                zkManager.requestLatency.reset();
+            }
+            long requestsBefore = load.totalRequests();
+            long cpuBefore = processCpuNanos();
+            long start = System.nanoTime();
+            Thread.sleep(durationMillis);
+            long requests = load.totalRequests() - requestsBefore;
+            long cpu = processCpuNanos() - cpuBefore;
+            long elapsed = System.nanoTime() - start;
+            load.stop();
+
+            Result result = new Result(profile.getName());
+            result.address = address;
+            result.requestsPerSecond = requests * 1e9 / elapsed;
+            for (ZKThroughputManagerImpl zkManager : load.getManagers()) {
+                result.latency.add(zkManager.requestLatency);
+            }
+            result.connectLatency = connectLatency;
+            result.cpuMillisPer1000 = cpuBefore < 0 ? -1 : cpu / 1e6 / Math.max(1, requests) * 1000;
+            result.cpuCores = cpuBefore < 0 ? -1 : (double) cpu / elapsed;
+            return result;
+        } finally {
+            if (load != null) {
+                load.close();
+            }
+            if (ensemble != null) {
+                ensemble.close();
+            }
+        }
+    }
+
+    /**
+     * @return CPU time used by this JVM in nanoseconds, -1 if the JVM doesn't report it
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Write one line for each profile:
+     * profile requestsPerSecond meanUs p50Us p99Us maxUs connectMeanUs cpuMsPer1000Requests cpuCores
+     */
+    private void writeResults(List<Result> results) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputDirectory + "/transport_results.txt"), StandardCharsets.UTF_8)) {
+            for (Result r : results) {
+                writer.write(r.profile + " " + r.requestsPerSecond + " " + r.latency.getMean() + " " +
+                        r.latency.getPercentile(50) + " " + r.latency.getPercentile(99) + " " + r.latency.getMax() + " " +
+                        r.connectLatency.getMean() + " " + r.cpuMillisPer1000 + " " + r.cpuCores + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing transport results into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the run report with the operations "profile.request" and "profile.connect" of each profile
+     * and the same results as in transport_results.txt.
+     */
+    private void writeReport(List<Result> results, long startTime) {
+        RunReport report = new RunReport(MODE);
+        report.config("clients", numberOfClients)
+                .config("cluster", localPeers > 0 ? LOCAL_PREFIX + localPeers : clusterAddress)
+                .config("tlsCluster", tlsClusterAddress)
+                .config("profiles", profiles.stream().map(TransportProfile::getName).collect(Collectors.joining(",")))
+                .config("path", pathInZookeeper)
+                .config("writeRate", writeRequestRate)
+                .config("durationMillis", durationMillis)
+                .config("epoll", TransportProfile.isEpollAvailable());
+        for (Result r : results) {
+            report.operation(r.profile + ".request").latency.add(r.latency);
+            report.operation(r.profile + ".connect").latency.add(r.connectLatency);
+            Map<String, Object> row = report.result();
+            row.put("profile", r.profile);
+            row.put("address", r.address);
+            row.put("requestsPerSecond", r.requestsPerSecond);
+            row.put("meanUs", r.latency.getMean());
+            row.put("p50Us", r.latency.getPercentile(50));
+            row.put("p99Us", r.latency.getPercentile(99));
+            row.put("maxUs", r.latency.getMax());
+            row.put("connectMeanUs", r.connectLatency.getMean());
+            row.put("cpuMillisPer1000Requests", r.cpuMillisPer1000);
+            row.put("cpuCores", r.cpuCores);
+        }
+        report.setStartTime(startTime);
+        report.setEndTime(System.currentTimeMillis());
+        report.setEnsembleAddress(localPeers > 0 ? LOCAL_PREFIX + localPeers : clusterAddress);
+        report.setPayloadBytes(data.length);
+        report.write(outputDirectory + "/" + RunReport.FILE_NAME);
+    }
+
+    /**
+     * Measurements of one profile.
+     */
+    private class Result {
+        private final String profile;
+        private String address;
+        private double requestsPerSecond;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private LatencyHistogram connectLatency;
+        private double cpuMillisPer1000;
+        private double cpuCores;
+
+        Result(String profile) {
+            this.profile = profile;
+        }
+
+        String describe() {
+            return profile + ": " + String.format("%.0f", requestsPerSecond) + " requests/s, latency p50 " +
+                    latency.getPercentile(50) + " us, p99 " + latency.getPercentile(99) + " us, session established in " +
+                    String.format("%.0f", connectLatency.getMean() / 1000) + " ms on average, " +
+                    (cpuCores < 0 ? "CPU time not available" :
+                            String.format("%.1f", cpuMillisPer1000) + " ms CPU per 1000 requests, " +
+                                    String.format("%.2f", cpuCores) + " cores busy" +
+                                    (localPeers > 0 ? " (clients and servers)" : ""));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.dps.zookeeper.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which ensemble member each client session connects to.
+ * <p>
+ * Supported placements:
+ * <ul>
+ * <li>random - the whole cluster address is given to the client and Zookeeper picks the server</li>
+ * <li>round-robin - client i is pinned to server i modulo number of servers</li>
+ * <li>weighted:w1,w2,... - clients are pinned to servers in proportion to the weights,
+ * weights are given in the same order as servers in the cluster address</li>
+ * </ul>
+ */
+public class ServerPlacement {
+
+    /**
+     * Placement used when nothing is given.
+     */
+    public static final String RANDOM = "random";
+
+    /**
+     * Pin sessions to servers one after another.
+     */
+    public static final String ROUND_ROBIN = "round-robin";
+
+    /**
+     * Prefix of the weighted placement, followed by comma separated weights.
+     */
+    public static final String WEIGHTED_PREFIX = "weighted:";
+
+    /**
+     * Full cluster address, "serverIp1:port,serverIp2:port,...."
+     */
+    private final String clusterAddress;
+
+    /**
+     * Servers in the cluster address.
+     */
+    private final List<String> servers;
+
+    /**
+     * Server index for each slot, clients are mapped to slots by their identifier.
+     * Null if sessions are not pinned.
+     */
+    private final int[] schedule;
+
+    /**
+     * Create the placement.
+     *
+     * @param clusterAddress Zookeeper cluster address
+     * @param placement      placement specification
+     */
+    public ServerPlacement(String clusterAddress, String placement) {
+        this.clusterAddress = clusterAddress;
+        this.servers = parseServers(clusterAddress);
+        if (placement == null || RANDOM.equals(placement)) {
+            schedule = null;
+        } else if (ROUND_ROBIN.equals(placement)) {
+            schedule = new int[servers.size()];
+            for (int i = 0; i < schedule.length; i++) {
+                schedule[i] = i;
+            }
+        } else if (placement.startsWith(WEIGHTED_PREFIX)) {
+            schedule = buildWeightedSchedule(parseWeights(placement.substring(WEIGHTED_PREFIX.length())));
+        } else {
+            throw new IllegalArgumentException("Unknown server placement: " + placement +
+                    ". Expected " + RANDOM + ", " + ROUND_ROBIN + " or " + WEIGHTED_PREFIX + "w1,w2,...");
+        }
+    }
+
+    /**
+     * Connection string the client should use.
+     *
+     * @param clientId client identifier
+     * @return single server if sessions are pinned, otherwise whole cluster address
+     */
+    public String connectStringFor(int clientId) {
+        if (schedule == null) {
+            return clusterAddress;
+        }
+        return servers.get(schedule[clientId % schedule.length]);
+    }
+
+    /**
+     * @return true, if every session is pinned to one server
+     */
+    public boolean isPinned() {
+        return schedule != null;
+    }
+
+    /**
+     * @return servers in the cluster address
+     */
+    public List<String> getServers() {
+        return servers;
+    }
+
+    /**
+     * Split cluster address into servers.
+     *
+     * @param clusterAddress Zookeeper cluster address, chroot is not supported when pinning
+     * @return list of "host:port"
+     */
+    private static List<String> parseServers(String clusterAddress) {
+        List<String> result = new ArrayList<>();
+        for (String server : clusterAddress.split(",")) {
+            if (!server.trim().isEmpty()) {
+                result.add(server.trim());
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Cluster address doesn't contain any servers: " + clusterAddress);
+        }
+        return result;
+    }
+
+    /**
+     * Parse comma separated weights, one for each server.
+     *
+     * @param weightString weights in String
+     * @return weights
+     */
+    private int[] parseWeights(String weightString) {
+        String[] parts = weightString.split(",");
+        if (parts.length != servers.size()) {
+            throw new IllegalArgumentException("Expected " + servers.size() + " weights, one for each server. Given: " +
+                    weightString);
+        }
+        int[] weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                weights[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Server weight is expected to be int. Given: " + parts[i]);
+            }
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Server weight can't be negative. Given: " + parts[i]);
+            }
+        }
+        if (Arrays.stream(weights).sum() == 0) {
+            throw new IllegalArgumentException("At least one server weight should be positive. Given: " + weightString);
+        }
+        return weights;
+    }
+
+    /**
+     * Smooth weighted round-robin, so that consecutive clients don't all land on the heaviest server.
+     *
+     * @param weights server weights
+     * @return server index for each slot
+     */
+    private static int[] buildWeightedSchedule(int[] weights) {
+        int total = Arrays.stream(weights).sum();
+        int[] current = new int[weights.length];
+        int[] result = new int[total];
+        for (int slot = 0; slot < total; slot++) {
+            int best = 0;
+            for (int i = 0; i < weights.length; i++) {
+                current[i] += weights[i];
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            result[slot] = best;
+        }
+        return result;
+    }
+}
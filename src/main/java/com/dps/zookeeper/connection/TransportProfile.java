@@ -0,0 +1,74 @@
+package com.dps.zookeeper.connection;
+
+import io.netty.channel.epoll.Epoll;
+import org.apache.zookeeper.ClientCnxnSocketNIO;
+import org.apache.zookeeper.ClientCnxnSocketNetty;
+import org.apache.zookeeper.client.ZKClientConfig;
+
+/**
+ * Client socket implementation and encryption used by a session. Supported profiles:
+ * <ul>
+ * <li>nio - default Java NIO socket in plaintext</li>
+ * <li>netty - Netty socket in plaintext, Netty uses epoll when the native library is available</li>
+ * <li>epoll - Netty socket in plaintext, fails if the native epoll library isn't available</li>
+ * <li>tls - Netty socket with TLS, key and trust stores are taken from the zookeeper.ssl.* system properties</li>
+ * </ul>
+ */
+public class TransportProfile {
+
+    public static final String NIO = "nio";
+    public static final String NETTY = "netty";
+    public static final String EPOLL = "epoll";
+    public static final String TLS = "tls";
+
+    private final String name;
+
+    /**
+     * @param name profile name
+     */
+    public TransportProfile(String name) {
+        if (!NIO.equals(name) && !NETTY.equals(name) && !EPOLL.equals(name) && !TLS.equals(name)) {
+            throw new IllegalArgumentException("Transport profile is expected to be " + NIO + ", " + NETTY + ", " +
+                    EPOLL + " or " + TLS + ". Given: " + name);
+        }
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true, if the profile uses Netty on the client and on the server
+     */
+    public boolean usesNetty() {
+        return !NIO.equals(name);
+    }
+
+    public boolean isSecure() {
+        return TLS.equals(name);
+    }
+
+    /**
+     * @return true, if Netty uses the native epoll transport in this JVM
+     */
+    public static boolean isEpollAvailable() {
+        return Epoll.isAvailable();
+    }
+
+    /**
+     * Client configuration of the profile. Settings not related to the transport are read from the system properties.
+     *
+     * @return new configuration for one client
+     */
+    public ZKClientConfig createClientConfig() {
+        if (EPOLL.equals(name) && !isEpollAvailable()) {
+            throw new IllegalStateException("Native epoll transport isn't available: " + Epoll.unavailabilityCause());
+        }
+        ZKClientConfig config = new ZKClientConfig();
+        config.setProperty(ZKClientConfig.ZOOKEEPER_CLIENT_CNXN_SOCKET,
+                usesNetty() ? ClientCnxnSocketNetty.class.getName() : ClientCnxnSocketNIO.class.getName());
+        config.setProperty(ZKClientConfig.SECURE_CLIENT, Boolean.toString(isSecure()));
+        return config;
+    }
+}
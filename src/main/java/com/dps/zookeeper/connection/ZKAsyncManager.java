@@ -0,0 +1,101 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous Zookeeper operations. Every operation returns immediately, the future completes with
+ * the result when the response arrives. Futures complete on the Zookeeper event thread, so dependent
+ * stages shouldn't block; use the async variants of CompletableFuture to continue on another executor.
+ */
+public interface ZKAsyncManager {
+
+    /**
+     * Create a node.
+     *
+     * @param path path in Zookeeper
+     * @param data data to store under node
+     * @param mode persistent, ephemeral or sequential node
+     * @return path of the created node, which differs from the requested path for sequential nodes,
+     * and the Stat of the created node
+     */
+    CompletableFuture<ZKResult<String>> create(String path, byte[] data, CreateMode mode);
+
+    /**
+     * Get the data stored in the node.
+     *
+     * @param path  node path in Zookeeper
+     * @param watch set the default watcher on the node
+     * @return data and Stat of the node
+     */
+    CompletableFuture<ZKResult<byte[]>> getData(String path, boolean watch);
+
+    /**
+     * Update the data stored in the node.
+     *
+     * @param path    node path in Zookeeper
+     * @param data    new data
+     * @param version expected version of the node, -1 for any version
+     * @return Stat of the node after the update
+     */
+    CompletableFuture<ZKResult<Void>> setData(String path, byte[] data, int version);
+
+    /**
+     * Check if the node exists. Return code is NONODE if it doesn't.
+     *
+     * @param path  node path in Zookeeper
+     * @param watch set the default watcher on the node
+     * @return Stat of the node
+     */
+    CompletableFuture<ZKResult<Void>> exists(String path, boolean watch);
+
+    /**
+     * Delete the node.
+     *
+     * @param path    node path in Zookeeper
+     * @param version expected version of the node, -1 for any version
+     */
+    CompletableFuture<ZKResult<Void>> delete(String path, int version);
+
+    /**
+     * Get the children of the node.
+     *
+     * @param path  node path in Zookeeper
+     * @param watch set the default watcher on the node
+     * @return names of the children and Stat of the node
+     */
+    CompletableFuture<ZKResult<List<String>>> getChildren(String path, boolean watch);
+
+    /**
+     * Execute the operations atomically.
+     *
+     * @param ops operations
+     * @return results of the operations, on failure the result of every operation shows which one failed
+     */
+    CompletableFuture<ZKResult<List<OpResult>>> multi(Iterable<Op> ops);
+
+    /**
+     * Wait until the connected server has caught up with the leader.
+     *
+     * @param path node path in Zookeeper
+     */
+    CompletableFuture<ZKResult<Void>> sync(String path);
+
+    /**
+     * Server the client session is connected to.
+     *
+     * @return "host:port" of the server
+     */
+    String getConnectedServer();
+
+    /**
+     * Close the Zookeeper connection
+     *
+     * @throws InterruptedException
+     */
+    void closeConnection() throws InterruptedException;
+}
@@ -0,0 +1,127 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous Zookeeper operations over the callback API of the Zookeeper client.
+ */
+public class ZKAsyncManagerImpl implements ZKAsyncManager {
+
+    private ZooKeeper zkeeper;
+    private ZKConnection zkConnection;
+
+    public ZKAsyncManagerImpl(String clusterAddress) throws IOException, InterruptedException {
+        this(new ZKConnection(), clusterAddress);
+    }
+
+    /**
+     * @param zkConnection   connection, which isn't connected yet
+     * @param clusterAddress Zookeeper cluster address
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ZKAsyncManagerImpl(ZKConnection zkConnection, String clusterAddress) throws IOException, InterruptedException {
+        this.zkConnection = zkConnection;
+        zkeeper = zkConnection.connect(clusterAddress);
+    }
+
+    /**
+     * Asynchronous operations on a session, which is already connected and also used for synchronous calls.
+     *
+     * @param zkConnection connection of the session
+     * @param zkeeper      client of the session
+     */
+    public ZKAsyncManagerImpl(ZKConnection zkConnection, ZooKeeper zkeeper) {
+        this.zkConnection = zkConnection;
+        this.zkeeper = zkeeper;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<String>> create(String path, byte[] data, CreateMode mode) {
+        CompletableFuture<ZKResult<String>> future = new CompletableFuture<>();
+        zkeeper.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode,
+                (rc, p, ctx, name, stat) -> future.complete(new ZKResult<>(rc, p, name, stat)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<byte[]>> getData(String path, boolean watch) {
+        CompletableFuture<ZKResult<byte[]>> future = new CompletableFuture<>();
+        zkeeper.getData(path, watch,
+                (rc, p, ctx, data, stat) -> future.complete(new ZKResult<>(rc, p, data, stat)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<Void>> setData(String path, byte[] data, int version) {
+        CompletableFuture<ZKResult<Void>> future = new CompletableFuture<>();
+        zkeeper.setData(path, data, version,
+                (rc, p, ctx, stat) -> future.complete(new ZKResult<>(rc, p, null, stat)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<Void>> exists(String path, boolean watch) {
+        CompletableFuture<ZKResult<Void>> future = new CompletableFuture<>();
+        zkeeper.exists(path, watch,
+                (rc, p, ctx, stat) -> future.complete(new ZKResult<>(rc, p, null, stat)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<Void>> delete(String path, int version) {
+        CompletableFuture<ZKResult<Void>> future = new CompletableFuture<>();
+        zkeeper.delete(path, version,
+                (rc, p, ctx) -> future.complete(new ZKResult<>(rc, p, null, null)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<List<String>>> getChildren(String path, boolean watch) {
+        CompletableFuture<ZKResult<List<String>>> future = new CompletableFuture<>();
+        zkeeper.getChildren(path, watch,
+                (rc, p, ctx, children, stat) -> future.complete(new ZKResult<>(rc, p, children, stat)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<List<OpResult>>> multi(Iterable<Op> ops) {
+        CompletableFuture<ZKResult<List<OpResult>>> future = new CompletableFuture<>();
+        zkeeper.multi(ops,
+                (rc, p, ctx, results) -> future.complete(new ZKResult<>(rc, p, results, null)), null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ZKResult<Void>> sync(String path) {
+        CompletableFuture<ZKResult<Void>> future = new CompletableFuture<>();
+        zkeeper.sync(path,
+                (rc, p, ctx) -> future.complete(new ZKResult<>(rc, p, null, null)), null);
+        return future;
+    }
+
+    /**
+     * @return Zookeeper connection of the client, used to inspect reconnects
+     */
+    public ZKConnection getConnection() {
+        return zkConnection;
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return zkConnection.getConnectedServer();
+    }
+
+    @Override
+    public void closeConnection() throws InterruptedException {
+        zkConnection.close();
+    }
+}
@@ -0,0 +1,260 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side read cache in front of another manager. Reads of node data and existence are served from
+ * a bounded least recently used cache; a miss reads from Zookeeper and leaves a watch on the node, and the
+ * watch event removes the entry when the node is changed, created or deleted. Every other call goes to
+ * the decorated manager, which has to use the same session as the client given here.
+ * The whole cache is dropped when the connection is lost, because changes can be missed until the
+ * watches are set again.
+ */
+public class ZKCachingManagerImpl implements ZKManager {
+
+    private final ZKManager delegate;
+    private final ZooKeeper client;
+    private final int capacity;
+
+    /**
+     * Cached nodes in access order, the eldest is evicted when the cache is full.
+     */
+    private final LinkedHashMap<String, CachedNode> cache;
+
+    /**
+     * Reads in flight by path. A read is cached only if no watch event came for the node in between,
+     * otherwise the read could put back data the event already invalidated.
+     */
+    private final Map<String, Object> pending = new HashMap<>();
+
+    /**
+     * One watcher for all nodes, so Zookeeper keeps a single watch per node however often it is read.
+     */
+    private final Watcher invalidator = this::invalidate;
+
+    /**
+     * Reads served from the cache.
+     */
+    public final AtomicLong hits = new AtomicLong(0);
+
+    /**
+     * Reads sent to Zookeeper.
+     */
+    public final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Entries removed by watch events.
+     */
+    public final AtomicLong invalidations = new AtomicLong(0);
+
+    /**
+     * Entries removed to make room for new ones.
+     */
+    public final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Times the whole cache was dropped because the connection was lost.
+     */
+    public final AtomicLong resets = new AtomicLong(0);
+
+    /**
+     * @param delegate manager doing everything else than the cached reads
+     * @param client   Zookeeper client of the same session, used for the watched reads
+     * @param capacity maximum number of cached nodes
+     */
+    public ZKCachingManagerImpl(ZKManager delegate, ZooKeeper client, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity is expected to be positive. Given: " + capacity);
+        }
+        this.delegate = delegate;
+        this.client = client;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<String, CachedNode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedNode> eldest) {
+                if (size() > ZKCachingManagerImpl.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void create(String path, byte[] data) throws KeeperException, InterruptedException {
+        delegate.create(path, data);
+    }
+
+    /**
+     * Read the node through the cache. The cache always watches the node, so the watch flag is ignored.
+     */
+    @Override
+    public void getZNodeData(String path, boolean watchFlag) throws KeeperException, InterruptedException, UnsupportedEncodingException {
+        getData(path);
+    }
+
+    /**
+     * Get the data of the node from the cache, or from Zookeeper and cache it.
+     *
+     * @param path node path in Zookeeper
+     * @return data of the node
+     * @throws KeeperException if the node doesn't exist or the read failed
+     * @throws InterruptedException
+     */
+    public byte[] getData(String path) throws KeeperException, InterruptedException {
+        synchronized (cache) {
+            CachedNode entry = cache.get(path);
+            if (entry != null && entry.stat == null) {
+                hits.incrementAndGet();
+                throw KeeperException.create(KeeperException.Code.NONODE, path);
+            }
+            if (entry != null && entry.data != null) {
+                hits.incrementAndGet();
+                return entry.data;
+            }
+        }
+        misses.incrementAndGet();
+        Object token = startRead(path);
+        Stat stat = new Stat();
+        byte[] data;
+        try {
+            data = client.getData(path, invalidator, stat);
+        } catch (KeeperException.NoNodeException e) {
+            // getData doesn't leave a watch on a missing node, exists does
+            if (client.exists(path, invalidator) == null) {
+                finishRead(path, token, new CachedNode(null, null));
+                throw e;
+            }
+            abortRead(path, token);
+            throw e;
+        } catch (KeeperException | InterruptedException e) {
+            abortRead(path, token);
+            throw e;
+        }
+        finishRead(path, token, new CachedNode(data, stat));
+        return data;
+    }
+
+    /**
+     * Check if the node exists, from the cache or from Zookeeper. A missing node is cached as well,
+     * the watch tells when it is created.
+     */
+    @Override
+    public Stat exists(String path) throws KeeperException, InterruptedException {
+        synchronized (cache) {
+            CachedNode entry = cache.get(path);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.stat;
+            }
+        }
+        misses.incrementAndGet();
+        Object token = startRead(path);
+        Stat stat;
+        try {
+            stat = client.exists(path, invalidator);
+        } catch (KeeperException | InterruptedException e) {
+            abortRead(path, token);
+            throw e;
+        }
+        finishRead(path, token, new CachedNode(null, stat));
+        return stat;
+    }
+
+    private Object startRead(String path) {
+        Object token = new Object();
+        synchronized (cache) {
+            pending.put(path, token);
+        }
+        return token;
+    }
+
+    private void finishRead(String path, Object token, CachedNode entry) {
+        synchronized (cache) {
+            if (pending.remove(path, token)) {
+                cache.put(path, entry);
+            }
+        }
+    }
+
+    private void abortRead(String path, Object token) {
+        synchronized (cache) {
+            pending.remove(path, token);
+        }
+    }
+
+    /**
+     * Remove the node of the watch event, or everything if the connection was lost.
+     */
+    private void invalidate(WatchedEvent event) {
+        if (event.getType() == Watcher.Event.EventType.None) {
+            if (event.getState() != Watcher.Event.KeeperState.SyncConnected) {
+                synchronized (cache) {
+                    cache.clear();
+                    pending.clear();
+                }
+                resets.incrementAndGet();
+            }
+            return;
+        }
+        synchronized (cache) {
+            pending.remove(event.getPath());
+            if (cache.remove(event.getPath()) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void update(String path, byte[] data) throws KeeperException, InterruptedException {
+        delegate.update(path, data);
+    }
+
+    @Override
+    public void delete(String path) throws KeeperException, InterruptedException {
+        delegate.delete(path);
+    }
+
+    /**
+     * @return number of cached nodes
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return delegate.getConnectedServer();
+    }
+
+    @Override
+    public void closeConnection() throws InterruptedException {
+        delegate.closeConnection();
+    }
+
+    /**
+     * Cached node, data is null if only the existence was read and stat is null if the node doesn't exist.
+     */
+    private static class CachedNode {
+        private final byte[] data;
+        private final Stat stat;
+
+        CachedNode(byte[] data, Stat stat) {
+            this.data = data;
+            this.stat = stat;
+        }
+    }
+}
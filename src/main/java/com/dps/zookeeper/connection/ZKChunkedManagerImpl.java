@@ -0,0 +1,395 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores values larger than one node can hold as chunks in child nodes. The node itself holds a small
+ * header with the generation, size and chunk size of the value. A generation is named after the header
+ * version V when its write started and the session S of the writer, its chunks are the children "V_S-0",
+ * "V_S-1", ... so concurrent writes never use the same names. A write creates the chunks of the next
+ * generation with multi requests and switches the header to it in the last one, so readers see either
+ * the old or the new value, never a mix.
+ * The chunks of the old generation are deleted afterwards. A read gets the header and then all chunks
+ * with pipelined asynchronous requests.
+ */
+public class ZKChunkedManagerImpl implements ZKManager {
+
+    /**
+     * Limit for the chunk bytes in one multi request, the server rejects packets above jute.maxbuffer (1 MB by default).
+     */
+    public static final int MULTI_BYTES = 768 * 1024;
+
+    /**
+     * Number of deletes in one multi request when the chunks of a generation are deleted.
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * Times a read starts again from the header, because a write replaced the chunks while they were read.
+     */
+    private static final int READ_ATTEMPTS = 3;
+
+    /**
+     * Shortest time to read the header again after the connection was lost while it was switched,
+     * the session timeout if it is longer.
+     */
+    private static final long SWITCH_CHECK_MIN_MILLIS = 10000;
+
+    /**
+     * How long to wait before reading the header again while the connection is lost.
+     */
+    private static final long SWITCH_CHECK_WAIT_MILLIS = 100;
+
+    private ZooKeeper zkeeper;
+    private ZKConnection zkConnection;
+    private ZKAsyncManager async;
+    private final int chunkSize;
+
+    /**
+     * @param clusterAddress Zookeeper cluster address
+     * @param chunkSize      maximum bytes in one chunk
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ZKChunkedManagerImpl(String clusterAddress, int chunkSize) throws IOException, InterruptedException {
+        if (chunkSize <= 0 || chunkSize > MULTI_BYTES) {
+            throw new IllegalArgumentException("Chunk size is expected to be between 1 and " + MULTI_BYTES +
+                    " bytes. Given: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        zkConnection = new ZKConnection();
+        zkeeper = zkConnection.connect(clusterAddress);
+        async = new ZKAsyncManagerImpl(zkConnection, zkeeper);
+    }
+
+    /**
+     * Create the value, same as {@link #update(String, byte[])}.
+     */
+    @Override
+    public void create(String path, byte[] data) throws KeeperException, InterruptedException {
+        write(path, data);
+    }
+
+    @Override
+    public void update(String path, byte[] data) throws KeeperException, InterruptedException {
+        write(path, data);
+    }
+
+    /**
+     * Write the value as the next generation of chunks, the node is created if it doesn't exist.
+     * Fails with BADVERSION if another client wrote the value meanwhile, the chunks created by this write
+     * are deleted then. If the connection is lost while the header is switched, the header is read again
+     * and the chunks are kept if the switch happened, or if that can't be told before the session is lost.
+     * Not to be called concurrently for the same path on one manager.
+     *
+     * @param path node path in Zookeeper, the parent has to exist
+     * @param data value
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public void write(String path, byte[] data) throws KeeperException, InterruptedException {
+        Header old = null;
+        for (int attempt = 1; ; attempt++) {
+            Stat stat = new Stat();
+            old = null;
+            try {
+                old = Header.decode(zkeeper.getData(path, false, stat));
+            } catch (KeeperException.NoNodeException e) {
+                // First write of the value
+            }
+            // Unique for every write: the header version changes with every switch, and writers at the
+            // same version are told apart by their session
+            Header header = new Header(old == null ? 0 : stat.getVersion(), zkeeper.getSessionId(),
+                    data.length, chunkSize);
+            List<Op> batch = new ArrayList<>();
+            if (old == null) {
+                batch.add(Op.create(path, new Header(-1, 0, 0, chunkSize).encode(),
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            }
+            boolean switching = false;
+            int batchBytes = 0;
+            try {
+                for (int i = 0; i < header.chunks(); i++) {
+                    int offset = i * chunkSize;
+                    byte[] chunk = new byte[Math.min(chunkSize, data.length - offset)];
+                    System.arraycopy(data, offset, chunk, 0, chunk.length);
+                    if (batchBytes + chunk.length > MULTI_BYTES) {
+                        zkeeper.multi(batch);
+                        batch = new ArrayList<>();
+                        batchBytes = 0;
+                    }
+                    batch.add(Op.create(chunkPath(path, header, i), chunk,
+                            ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                    batchBytes += chunk.length;
+                }
+                // A header created in this write has version 0 as well
+                batch.add(Op.setData(path, header.encode(), old == null ? 0 : stat.getVersion()));
+                switching = true;
+                zkeeper.multi(batch);
+                break;
+            } catch (KeeperException e) {
+                if (switching && e.code() == KeeperException.Code.CONNECTIONLOSS) {
+                    Boolean switched = isSwitched(path, header);
+                    if (switched == null) {
+                        // The new chunks may be the value now, leave them
+                        throw e;
+                    }
+                    if (switched) {
+                        break;
+                    }
+                }
+                deleteGeneration(path, header);
+                // A chunk left by an earlier write of this session at the same version, deleted above
+                if (e.code() == KeeperException.Code.NODEEXISTS && attempt == 1 && !path.equals(failedPath(batch, e))) {
+                    continue;
+                }
+                throw e;
+            }
+        }
+        if (old != null) {
+            deleteChunks(path, old, old.chunks());
+        }
+    }
+
+    /**
+     * Read the header again after the connection was lost while it was switched, until the session
+     * is connected again or lost.
+     *
+     * @return whether the header holds the generation, null if it can't be told
+     */
+    private Boolean isSwitched(String path, Header header) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.max(zkConnection.getNegotiatedSessionTimeout(),
+                SWITCH_CHECK_MIN_MILLIS);
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                return header.isSameGeneration(Header.decode(zkeeper.getData(path, false, null)));
+            } catch (KeeperException.ConnectionLossException e) {
+                Thread.sleep(SWITCH_CHECK_WAIT_MILLIS);
+            } catch (KeeperException.NoNodeException e) {
+                return false;
+            } catch (KeeperException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return path of the operation which failed the multi request, null if the results don't tell
+     */
+    private static String failedPath(List<Op> batch, KeeperException e) {
+        List<OpResult> results = e.getResults();
+        if (results == null) {
+            return null;
+        }
+        for (int i = 0; i < results.size() && i < batch.size(); i++) {
+            OpResult result = results.get(i);
+            if (result instanceof OpResult.ErrorResult && ((OpResult.ErrorResult) result).getErr() == e.code().intValue()) {
+                return batch.get(i).getPath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete every chunk of a generation, also ones left by an earlier failed write. Chunks which can't
+     * be deleted are left, they are removed with the value.
+     */
+    private void deleteGeneration(String path, Header header) throws InterruptedException {
+        List<String> children;
+        try {
+            children = zkeeper.getChildren(path, false);
+        } catch (KeeperException e) {
+            return;
+        }
+        String prefix = header.name() + "-";
+        List<Op> batch = new ArrayList<>();
+        for (String child : children) {
+            if (child.startsWith(prefix)) {
+                batch.add(Op.delete(path + "/" + child, -1));
+            }
+        }
+        deleteAll(batch);
+    }
+
+    /**
+     * Delete the first chunks of a generation, missing chunks are ignored.
+     */
+    private void deleteChunks(String path, Header header, int chunks) throws InterruptedException {
+        List<Op> batch = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            batch.add(Op.delete(chunkPath(path, header, i), -1));
+        }
+        deleteAll(batch);
+    }
+
+    /**
+     * Run the deletes in multi requests, missing nodes are ignored.
+     */
+    private void deleteAll(List<Op> deletes) throws InterruptedException {
+        for (int from = 0; from < deletes.size(); from += DELETE_BATCH_SIZE) {
+            List<Op> batch = deletes.subList(from, Math.min(deletes.size(), from + DELETE_BATCH_SIZE));
+            try {
+                zkeeper.multi(batch);
+            } catch (KeeperException e) {
+                // Some of them are missing, delete the rest one by one
+                for (Op op : batch) {
+                    try {
+                        zkeeper.delete(op.getPath(), -1);
+                    } catch (KeeperException ignored) {
+                        // Already deleted
+                    }
+                }
+            }
+        }
+    }
+
+    private static String chunkPath(String path, Header header, int chunk) {
+        return path + "/" + header.name() + "-" + chunk;
+    }
+
+    /**
+     * Read the node, same as {@link #read(String)}.
+     */
+    @Override
+    public void getZNodeData(String path, boolean watchFlag) throws KeeperException, InterruptedException {
+        read(path);
+    }
+
+    /**
+     * Read the header and then all chunks of its generation with pipelined requests.
+     *
+     * @param path node path in Zookeeper
+     * @return value
+     * @throws KeeperException NONODE if the value doesn't exist or its first write didn't finish
+     * @throws InterruptedException
+     */
+    public byte[] read(String path) throws KeeperException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            Header header = Header.decode(zkeeper.getData(path, false, null));
+            if (header.generation < 0) {
+                throw KeeperException.create(KeeperException.Code.NONODE, path);
+            }
+            byte[] result = new byte[header.size];
+            List<CompletableFuture<ZKResult<byte[]>>> chunks = new ArrayList<>();
+            for (int i = 0; i < header.chunks(); i++) {
+                chunks.add(async.getData(chunkPath(path, header, i), false));
+            }
+            int rc = KeeperException.Code.OK.intValue();
+            for (int i = 0; i < chunks.size() && rc == KeeperException.Code.OK.intValue(); i++) {
+                ZKResult<byte[]> chunk = chunks.get(i).join();
+                int offset = i * header.chunkSize;
+                if (!chunk.isOk()) {
+                    rc = chunk.getRc();
+                } else if (offset + chunk.getValue().length > result.length) {
+                    rc = KeeperException.Code.BADARGUMENTS.intValue();
+                } else {
+                    System.arraycopy(chunk.getValue(), 0, result, offset, chunk.getValue().length);
+                }
+            }
+            if (rc == KeeperException.Code.OK.intValue()) {
+                return result;
+            }
+            // The chunks were replaced by a newer generation while they were read
+            if (rc != KeeperException.Code.NONODE.intValue() || attempt == READ_ATTEMPTS) {
+                throw KeeperException.create(KeeperException.Code.get(rc), path);
+            }
+        }
+    }
+
+    @Override
+    public Stat exists(String path) throws KeeperException, InterruptedException {
+        return zkeeper.exists(path, false);
+    }
+
+    /**
+     * Delete the value with all of its chunks.
+     *
+     * @param path node to be deleted path
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    @Override
+    public void delete(String path) throws KeeperException, InterruptedException {
+        List<String> children = zkeeper.getChildren(path, false);
+        List<Op> batch = new ArrayList<>();
+        for (String child : children) {
+            batch.add(Op.delete(path + "/" + child, -1));
+            if (batch.size() == DELETE_BATCH_SIZE) {
+                zkeeper.multi(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        batch.add(Op.delete(path, -1));
+        zkeeper.multi(batch);
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return zkConnection.getConnectedServer();
+    }
+
+    @Override
+    public void closeConnection() throws InterruptedException {
+        zkConnection.close();
+    }
+
+    /**
+     * Content of the node: generation of the chunks as header version and writer session, value size
+     * and chunk size. Generation -1 marks a value whose first write didn't finish.
+     */
+    private static class Header {
+        private static final int BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+        private final long generation;
+        private final long sessionId;
+        private final int size;
+        private final int chunkSize;
+
+        Header(long generation, long sessionId, int size, int chunkSize) {
+            this.generation = generation;
+            this.sessionId = sessionId;
+            this.size = size;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @return name of the generation, the chunk names start with it
+         */
+        String name() {
+            return generation + "_" + Long.toHexString(sessionId);
+        }
+
+        boolean isSameGeneration(Header other) {
+            return generation == other.generation && sessionId == other.sessionId;
+        }
+
+        int chunks() {
+            return (size + chunkSize - 1) / chunkSize;
+        }
+
+        byte[] encode() {
+            return ByteBuffer.allocate(BYTES).putLong(generation).putLong(sessionId).putInt(size).putInt(chunkSize).array();
+        }
+
+        static Header decode(byte[] data) throws KeeperException {
+            if (data == null || data.length != BYTES) {
+                throw KeeperException.create(KeeperException.Code.BADARGUMENTS);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new Header(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+        }
+    }
+}
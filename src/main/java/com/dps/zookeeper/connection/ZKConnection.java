@@ -3,24 +3,90 @@ package com.dps.zookeeper.connection;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Zookeeper connection initializer.
  */
 public class ZKConnection {
+    /**
+     * Session timeout asked from the server, unless the connection is created with another one.
+     */
+    public static final int DEFAULT_SESSION_TIMEOUT_MILLIS = 20000;
+
     /**
      * Zookeeper client.
      */
-    private ZooKeeper zoo;
+    private ServerAwareZooKeeper zoo;
 
     /**
      * CountDown for waiting the connection to be made
      */
     CountDownLatch connectionLatch = new CountDownLatch(1);
 
+    /**
+     * Time when the connection to the server was lost, -1 if connected.
+     */
+    private volatile long disconnectedAt = -1;
+
+    /**
+     * True, if the session has expired and the client can't be used anymore.
+     */
+    private volatile boolean expired = false;
+
+    /**
+     * Reconnects seen by the session.
+     */
+    private final List<Reconnect> reconnects = new ArrayList<>();
+
+    /**
+     * Time when the connection was started in nanoseconds.
+     */
+    private long connectStartedAt;
+
+    /**
+     * Time when the session was established for the first time in nanoseconds, 0 if not yet.
+     */
+    private volatile long connectedAt;
+
+    /**
+     * Transport of the session, null for the client defaults from the system properties.
+     */
+    private final TransportProfile profile;
+
+    /**
+     * Session timeout asked from the server in milliseconds.
+     */
+    private final int sessionTimeoutMillis;
+
+    public ZKConnection() {
+        this(null);
+    }
+
+    /**
+     * @param profile transport of the session, null for the client defaults from the system properties
+     */
+    public ZKConnection(TransportProfile profile) {
+        this(profile, DEFAULT_SESSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param profile              transport of the session, null for the client defaults from the system properties
+     * @param sessionTimeoutMillis session timeout asked from the server, which keeps it between 2 and 20 ticks
+     */
+    public ZKConnection(TransportProfile profile, int sessionTimeoutMillis) {
+        this.profile = profile;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+    }
+
     /**
      * Create the connection to Zookeeper
      *
@@ -30,18 +96,115 @@ public class ZKConnection {
      * @throws InterruptedException
      */
     public ZooKeeper connect(String host) throws IOException, InterruptedException {
-        zoo = new ZooKeeper(host, 20000, new Watcher() {
+        startConnect(host);
+        // Wait for the connection to be made.
+        connectionLatch.await();
+        return zoo;
+    }
+
+    /**
+     * Start connecting to Zookeeper without waiting for the session to be established.
+     *
+     * @param host cluster address
+     * @return client, which can't be used before the session is established
+     * @throws IOException
+     */
+    public ZooKeeper startConnect(String host) throws IOException {
+        connectStartedAt = System.nanoTime();
+        ZKClientConfig clientConfig = profile != null ? profile.createClientConfig() : new ZKClientConfig();
+        zoo = new ServerAwareZooKeeper(host, sessionTimeoutMillis, clientConfig, new Watcher() {
             public void process(WatchedEvent we) {
                 if (we.getState() == Event.KeeperState.SyncConnected) {
+                    if (connectedAt == 0) {
+                        connectedAt = System.nanoTime();
+                    }
+                    recordReconnect();
                     connectionLatch.countDown();
+                } else if (we.getState() == Event.KeeperState.Disconnected) {
+                    disconnectedAt = System.currentTimeMillis();
+                } else if (we.getState() == Event.KeeperState.Expired) {
+                    expired = true;
                 }
             }
         });
-        // Wait for the connection to be made.
-        connectionLatch.await();
         return zoo;
     }
 
+    /**
+     * Wait for the session started with {@link #startConnect(String)} to be established.
+     *
+     * @param timeoutMillis how long to wait at most
+     * @return true, if the session was established
+     * @throws InterruptedException
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        return connectionLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return time when the connection was started in nanoseconds
+     */
+    public long getConnectStartedAt() {
+        return connectStartedAt;
+    }
+
+    /**
+     * @return time when the session was established in nanoseconds, 0 if not yet
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Record the time it took to reconnect, if the connection was lost before.
+     */
+    private void recordReconnect() {
+        long disconnected = disconnectedAt;
+        if (disconnected > 0) {
+            synchronized (reconnects) {
+                reconnects.add(new Reconnect(disconnected, System.currentTimeMillis() - disconnected));
+            }
+            disconnectedAt = -1;
+        }
+    }
+
+    /**
+     * @return reconnects seen by the session so far
+     */
+    public List<Reconnect> getReconnects() {
+        synchronized (reconnects) {
+            return new ArrayList<>(reconnects);
+        }
+    }
+
+    /**
+     * @return true, if the session has expired
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Server the session is currently connected to.
+     *
+     * @return "host:port" of the server, or "disconnected"
+     */
+    public String getConnectedServer() {
+        SocketAddress address = zoo.remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            return inetAddress.getHostString() + ":" + inetAddress.getPort();
+        }
+        return "disconnected";
+    }
+
+    /**
+     * @return session timeout given by the server in milliseconds, 0 before the session is established
+     */
+    public int getNegotiatedSessionTimeout() {
+        return zoo.getSessionTimeout();
+    }
+
     /**
      * Close the client connection
      *
@@ -50,4 +213,50 @@ public class ZKConnection {
     public void close() throws InterruptedException {
         zoo.close();
     }
-}
\ No newline at end of file
+
+    /**
+     * Stop the client without closing the session, like a crashed client process. The server expires
+     * the session when it hasn't heard from it for the session timeout and deletes its ephemeral nodes.
+     */
+    public void abandon() {
+        // Closes the socket and stops the threads without waiting for them, no close session request is sent
+        zoo.getTestable().injectSessionExpiration();
+    }
+
+    /**
+     * Connection loss and the time it took to connect to a server again.
+     */
+    public static class Reconnect {
+        /**
+         * Time when the connection was lost in milliseconds since epoch.
+         */
+        public final long disconnectedAt;
+
+        /**
+         * Time until the session was connected again in milliseconds.
+         */
+        public final long latencyMillis;
+
+        Reconnect(long disconnectedAt, long latencyMillis) {
+            this.disconnectedAt = disconnectedAt;
+            this.latencyMillis = latencyMillis;
+        }
+    }
+
+    /**
+     * Zookeeper client, which exposes the address of the server it is connected to.
+     */
+    // close() throws InterruptedException as inherited from ZooKeeper, the class is never used in try-with-resources
+    @SuppressWarnings("try")
+    private static class ServerAwareZooKeeper extends ZooKeeper {
+
+        ServerAwareZooKeeper(String host, int sessionTimeout, ZKClientConfig clientConfig, Watcher watcher)
+                throws IOException {
+            super(host, sessionTimeout, watcher, clientConfig);
+        }
+
+        SocketAddress remoteAddress() {
+            return testableRemoteSocketAddress();
+        }
+    }
+}
@@ -18,6 +18,17 @@ public class ZKLatencyManagerImpl implements ZKManager {
         initialize(clusterAddress);
     }
 
+    /**
+     * Use an established session, for example one shared with {@link ZKCachingManagerImpl}.
+     *
+     * @param zkConnection connection of the session
+     * @param client       client returned by the connection
+     */
+    public ZKLatencyManagerImpl(ZKConnection zkConnection, ZooKeeper client) {
+        this.zkConnection = zkConnection;
+        this.client = client;
+    }
+
     private void initialize(String clusterAddress) throws IOException, InterruptedException {
         zkConnection = new ZKConnection();
         client = zkConnection.connect(clusterAddress);
@@ -68,6 +79,11 @@ public class ZKLatencyManagerImpl implements ZKManager {
     }),null);
     }
 
+    @Override
+    public String getConnectedServer() {
+        return zkConnection.getConnectedServer();
+    }
+
     @Override
     public void closeConnection() throws InterruptedException {
         zkConnection.close();
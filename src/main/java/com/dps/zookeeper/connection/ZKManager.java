@@ -58,6 +58,13 @@ public interface ZKManager {
      */
     public void delete(String path) throws KeeperException, InterruptedException;
 
+    /**
+     * Server the client session is connected to.
+     *
+     * @return "host:port" of the server
+     */
+    String getConnectedServer();
+
     /**
      * Close the Zookeeper connection
      *
@@ -0,0 +1,377 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZKUtil;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proxy for Zookeeper client methods for large namespace benchmark test.
+ */
+public class ZKNamespaceManagerImpl implements ZKManager {
+
+    /**
+     * Requests waiting for response when the tree is created, same limit as in throughput test.
+     */
+    private static final int MAX_OUTSTANDING_REQUESTS = 1000;
+
+    /**
+     * Number of deletes in one multi request when subtree is deleted.
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * Limit for the path bytes in one multi request, deep paths would exceed the 1 MB packet limit of the server.
+     */
+    private static final int DELETE_BATCH_BYTES = 512 * 1024;
+
+    /**
+     * Limit for the path and data bytes in one multi request of the bulk load, for the same packet limit.
+     */
+    private static final int LOAD_BATCH_BYTES = 512 * 1024;
+
+    private ZooKeeper zkeeper;
+    private ZKConnection zkConnection;
+    private ZKAsyncManager async;
+
+    /**
+     * State of the bulk load, nodes are queued with loadNode and sent asynchronously.
+     */
+    private final AtomicLong nodesCreated = new AtomicLong();
+    private final AtomicLong nodesExisting = new AtomicLong();
+    private final AtomicInteger loadFailure = new AtomicInteger(KeeperException.Code.OK.intValue());
+    private final Semaphore loadOutstanding = new Semaphore(MAX_OUTSTANDING_REQUESTS);
+    private int loadBatchSize = 1;
+    private List<Op> loadBatch = new ArrayList<>();
+    private List<byte[]> loadBatchData = new ArrayList<>();
+    private int loadBatchBytes = 0;
+
+    public ZKNamespaceManagerImpl(String clusterAddress) throws IOException, InterruptedException {
+        zkConnection = new ZKConnection();
+        zkeeper = zkConnection.connect(clusterAddress);
+        async = new ZKAsyncManagerImpl(zkConnection, zkeeper);
+    }
+
+    /**
+     * Synchronous create of persistent node.
+     *
+     * @param path path in Zookeeper
+     * @param data data to store under node
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    @Override
+    public void create(String path, byte[] data) throws KeeperException, InterruptedException {
+        zkeeper.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Create a tree under the root in breadth first order. Creates are asynchronous and pipelined,
+     * parent is always created before its children, because Zookeeper handles requests of a session in order.
+     *
+     * @param root          existing node, under which the tree is created
+     * @param fanOut        number of children each node has
+     * @param numberOfNodes number of nodes to create, not including the root
+     * @param data          data to store under each node
+     * @return path of the last created node
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public String createTree(String root, int fanOut, long numberOfNodes, byte[] data)
+            throws KeeperException, InterruptedException {
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REQUESTS);
+        AtomicInteger failure = new AtomicInteger(KeeperException.Code.OK.intValue());
+        List<String> level = new ArrayList<>();
+        level.add(root);
+        long created = 0;
+        String last = root;
+        while (created < numberOfNodes && failure.get() == KeeperException.Code.OK.intValue()) {
+            List<String> nextLevel = new ArrayList<>();
+            for (String parent : level) {
+                for (int i = 0; i < fanOut && created < numberOfNodes; i++) {
+                    String path = (parent.equals("/") ? "" : parent) + "/n" + i;
+                    outstanding.acquire();
+                    zkeeper.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                            (rc, p, ctx, name) -> {
+                                if (rc != KeeperException.Code.OK.intValue() &&
+                                        rc != KeeperException.Code.NODEEXISTS.intValue()) {
+                                    failure.compareAndSet(KeeperException.Code.OK.intValue(), rc);
+                                }
+                                outstanding.release();
+                            }, null);
+                    nextLevel.add(path);
+                    last = path;
+                    created++;
+                }
+            }
+            level = nextLevel;
+        }
+        // Wait for the last responses
+        outstanding.acquire(MAX_OUTSTANDING_REQUESTS);
+        outstanding.release(MAX_OUTSTANDING_REQUESTS);
+        if (failure.get() != KeeperException.Code.OK.intValue()) {
+            throw KeeperException.create(KeeperException.Code.get(failure.get()), root);
+        }
+        return last;
+    }
+
+    /**
+     * Create the node and every missing node above it synchronously, existing nodes are left as they are.
+     *
+     * @param path node path in Zookeeper
+     * @param data data to store under the created nodes
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public void createParents(String path, byte[] data) throws KeeperException, InterruptedException {
+        int next = path.indexOf('/', 1);
+        while (true) {
+            String prefix = next < 0 ? path : path.substring(0, next);
+            if (zkeeper.exists(prefix, false) == null) {
+                try {
+                    create(prefix, data);
+                } catch (KeeperException.NodeExistsException e) {
+                    // Created by another client meanwhile
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            next = path.indexOf('/', next + 1);
+        }
+    }
+
+    /**
+     * Prepare for bulk load. With batch size above 1 the nodes are created in multi requests.
+     * A request holds fewer creates if their paths and data would take more than 512 KB.
+     *
+     * @param batchSize number of creates in one request
+     */
+    public void startLoad(int batchSize) {
+        loadBatchSize = batchSize;
+        loadBatch = new ArrayList<>();
+        loadBatchData = new ArrayList<>();
+        loadBatchBytes = 0;
+        nodesCreated.set(0);
+        nodesExisting.set(0);
+        loadFailure.set(KeeperException.Code.OK.intValue());
+    }
+
+    /**
+     * Queue a persistent node for creation, the parent has to be queued before or exist already.
+     * Zookeeper handles requests of a session in order, so the parent is created first.
+     * Existing nodes are skipped, so an interrupted load can be run again to finish it.
+     *
+     * @param path node path in Zookeeper
+     * @param data data to store under node
+     * @throws KeeperException if one of the earlier creates failed
+     * @throws InterruptedException
+     */
+    public void loadNode(String path, byte[] data) throws KeeperException, InterruptedException {
+        checkLoadFailure();
+        if (loadBatchSize <= 1) {
+            loadOutstanding.acquire();
+            sendCreate(path, data, loadOutstanding::release);
+            return;
+        }
+        int bytes = path.length() + data.length;
+        if (!loadBatch.isEmpty() && loadBatchBytes + bytes > LOAD_BATCH_BYTES) {
+            sendBatch();
+        }
+        loadBatch.add(Op.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        loadBatchData.add(data);
+        loadBatchBytes += bytes;
+        if (loadBatch.size() >= loadBatchSize) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Send the queued nodes and wait for every response.
+     *
+     * @throws KeeperException if one of the creates failed
+     * @throws InterruptedException
+     */
+    public void finishLoad() throws KeeperException, InterruptedException {
+        if (!loadBatch.isEmpty()) {
+            sendBatch();
+        }
+        // Wait for the last responses
+        loadOutstanding.acquire(MAX_OUTSTANDING_REQUESTS);
+        loadOutstanding.release(MAX_OUTSTANDING_REQUESTS);
+        checkLoadFailure();
+    }
+
+    /**
+     * @return nodes created by the bulk load so far
+     */
+    public long getNodesCreated() {
+        return nodesCreated.get();
+    }
+
+    /**
+     * @return nodes skipped by the bulk load, because they existed already
+     */
+    public long getNodesExisting() {
+        return nodesExisting.get();
+    }
+
+    private void sendCreate(String path, byte[] data, Runnable done) {
+        async.create(path, data, CreateMode.PERSISTENT).thenAccept(result -> {
+            if (result.isOk()) {
+                nodesCreated.incrementAndGet();
+            } else if (result.getCode() == KeeperException.Code.NODEEXISTS) {
+                nodesExisting.incrementAndGet();
+            } else {
+                loadFailure.compareAndSet(KeeperException.Code.OK.intValue(), result.getRc());
+            }
+            done.run();
+        });
+    }
+
+    /**
+     * Send the queued creates in one multi request. Multi fails as a whole if one of the nodes exists,
+     * or its parent was in a failed batch, then the creates are sent again one by one from the callback.
+     * Later batches are already pipelined by then, so one referencing a parent of this batch fails with
+     * NONODE and is retried from its own callback; that is why the NONODE fallback is needed.
+     */
+    private void sendBatch() throws InterruptedException {
+        List<Op> batch = loadBatch;
+        List<byte[]> batchData = loadBatchData;
+        loadBatch = new ArrayList<>();
+        loadBatchData = new ArrayList<>();
+        loadBatchBytes = 0;
+        // Outstanding limit counts nodes, not requests, so batching doesn't queue more work on the server
+        int permits = Math.min(batch.size(), MAX_OUTSTANDING_REQUESTS);
+        loadOutstanding.acquire(permits);
+        async.multi(batch).thenAccept(result -> {
+            int rc = result.getRc();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                nodesCreated.addAndGet(batch.size());
+                loadOutstanding.release(permits);
+            } else if (rc == KeeperException.Code.NODEEXISTS.intValue() || rc == KeeperException.Code.NONODE.intValue()) {
+                AtomicInteger remaining = new AtomicInteger(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    sendCreate(batch.get(i).getPath(), batchData.get(i), () -> {
+                        if (remaining.decrementAndGet() == 0) {
+                            loadOutstanding.release(permits);
+                        }
+                    });
+                }
+            } else {
+                loadFailure.compareAndSet(KeeperException.Code.OK.intValue(), rc);
+                loadOutstanding.release(permits);
+            }
+        });
+    }
+
+    private void checkLoadFailure() throws KeeperException {
+        if (loadFailure.get() != KeeperException.Code.OK.intValue()) {
+            throw KeeperException.create(KeeperException.Code.get(loadFailure.get()));
+        }
+    }
+
+    /**
+     * Get the children of the node synchronously.
+     *
+     * @param path node path in Zookeeper
+     * @return names of the children
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public List<String> getChildren(String path) throws KeeperException, InterruptedException {
+        return zkeeper.getChildren(path, false);
+    }
+
+    /**
+     * Delete the node and every node under it. Deletes are sent in pipelined multi batches,
+     * the deepest nodes first, so children are always deleted before their parent.
+     *
+     * @param path root of the subtree
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    public void deleteRecursive(String path) throws KeeperException, InterruptedException {
+        List<String> tree = ZKUtil.listSubTreeBFS(zkeeper, path);
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REQUESTS);
+        AtomicInteger failure = new AtomicInteger(KeeperException.Code.OK.intValue());
+        List<Op> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (int i = tree.size() - 1; i >= 0 && failure.get() == KeeperException.Code.OK.intValue(); i--) {
+            batch.add(Op.delete(tree.get(i), -1));
+            batchBytes += tree.get(i).length();
+            if (batch.size() == DELETE_BATCH_SIZE || batchBytes >= DELETE_BATCH_BYTES || i == 0) {
+                outstanding.acquire();
+                zkeeper.multi(batch, (rc, p, ctx, results) -> {
+                    if (rc != KeeperException.Code.OK.intValue()) {
+                        failure.compareAndSet(KeeperException.Code.OK.intValue(), rc);
+                    }
+                    outstanding.release();
+                }, null);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        // Wait for the last responses
+        outstanding.acquire(MAX_OUTSTANDING_REQUESTS);
+        outstanding.release(MAX_OUTSTANDING_REQUESTS);
+        if (failure.get() != KeeperException.Code.OK.intValue()) {
+            throw KeeperException.create(KeeperException.Code.get(failure.get()), path);
+        }
+    }
+
+    /**
+     * Get the data stored in the node synchronously.
+     *
+     * @param path      node path in Zookeeper
+     * @param watchFlag
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    @Override
+    public void getZNodeData(String path, boolean watchFlag) throws KeeperException, InterruptedException {
+        zkeeper.getData(path, watchFlag, null);
+    }
+
+    @Override
+    public void update(String path, byte[] data) throws KeeperException, InterruptedException {
+        zkeeper.setData(path, data, -1);
+    }
+
+    @Override
+    public Stat exists(String path) throws KeeperException, InterruptedException {
+        return zkeeper.exists(path, false);
+    }
+
+    /**
+     * Synchronous delete of the node.
+     *
+     * @param path node to be deleted path
+     * @throws KeeperException
+     * @throws InterruptedException
+     */
+    @Override
+    public void delete(String path) throws KeeperException, InterruptedException {
+        zkeeper.delete(path, -1);
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return zkConnection.getConnectedServer();
+    }
+
+    @Override
+    public void closeConnection() throws InterruptedException {
+        zkConnection.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.dps.zookeeper.connection;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Outcome of an asynchronous Zookeeper operation: the return code, the node path, the result value and the Stat.
+ * Failed operations complete the future normally with a non-OK return code, so workloads can count
+ * errors without exception handling.
+ *
+ * @param <T> type of the result value
+ */
+public class ZKResult<T> {
+
+    private final int rc;
+    private final String path;
+    private final T value;
+    private final Stat stat;
+
+    public ZKResult(int rc, String path, T value, Stat stat) {
+        this.rc = rc;
+        this.path = path;
+        this.value = value;
+        this.stat = stat;
+    }
+
+    /**
+     * @return Zookeeper return code, see {@link KeeperException.Code}
+     */
+    public int getRc() {
+        return rc;
+    }
+
+    public KeeperException.Code getCode() {
+        return KeeperException.Code.get(rc);
+    }
+
+    public boolean isOk() {
+        return rc == KeeperException.Code.OK.intValue();
+    }
+
+    /**
+     * @return path given to the operation, the path of a created node is the value of create
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return result value, null if the operation failed or has no result
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return Stat of the node, null if the operation failed or doesn't return it
+     */
+    public Stat getStat() {
+        return stat;
+    }
+
+    /**
+     * @return result value
+     * @throws KeeperException if the operation failed
+     */
+    public T getValueOrThrow() throws KeeperException {
+        if (!isOk()) {
+            throw KeeperException.create(getCode(), path);
+        }
+        return value;
+    }
+}
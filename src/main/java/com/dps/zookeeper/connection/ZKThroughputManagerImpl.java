@@ -1,5 +1,7 @@
 package com.dps.zookeeper.connection;
 
+import com.dps.zookeeper.stats.LatencyHistogram;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooDefs;
@@ -15,6 +17,12 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class ZKThroughputManagerImpl implements ZKManager {
 
+    /**
+     * System property, "false" turns the per-request latency off for every client. Latency costs two
+     * System.nanoTime calls and two histogram updates per request, a few tens of nanoseconds.
+     */
+    public static final String LATENCY_PROPERTY = "benchmark.latency";
+
     /**
      * Zookeeper client
      */
@@ -30,6 +38,11 @@ public class ZKThroughputManagerImpl implements ZKManager {
      */
     private int version = 0;
 
+    /**
+     * Set when a write fails. The node version isn't known after that, so the following writes don't check it.
+     */
+    private volatile boolean versionLost = false;
+
     /**
      * Total amount of requests successfully finished during the benchmark.
      */
@@ -45,6 +58,12 @@ public class ZKThroughputManagerImpl implements ZKManager {
      */
     public AtomicLong readRequestsDone = new AtomicLong(0);
 
+    /**
+     * Requests allowed to wait for a response before and during the benchmark.
+     */
+    private static final int STARTUP_WINDOW = 100;
+    private static final int BENCHMARK_WINDOW = 1000;
+
     /**
      * Flag for deciding if the benchmark has started and request should be counted.
      */
@@ -53,17 +72,84 @@ public class ZKThroughputManagerImpl implements ZKManager {
     /**
      * Allow client to have 100 requests waiting in case benchmark hasn't started yet.
      */
-    private AtomicInteger startUpRequests = new AtomicInteger(100);
+    private AtomicInteger startUpRequests = new AtomicInteger(STARTUP_WINDOW);
 
     /**
      * Allow client to have 1K requests waiting if benchmark has started.
      * Otherwise server will be overwhelmed and might close the client connection since it is busy with older requests.
      */
-    private AtomicInteger allowedRequests = new AtomicInteger(1000);
+    private AtomicInteger allowedRequests = new AtomicInteger(BENCHMARK_WINDOW);
+
+    /**
+     * Set if the latency of the requests is recorded.
+     */
+    private volatile boolean recordLatency = !"false".equalsIgnoreCase(System.getProperty(LATENCY_PROPERTY));
+
+    /**
+     * Latency of the counted requests in microseconds.
+     */
+    public final LatencyHistogram requestLatency = new LatencyHistogram();
+
+    /**
+     * Latency of the counted write requests in microseconds.
+     */
+    public final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * Latency of the counted read requests in microseconds.
+     */
+    public final LatencyHistogram readLatency = new LatencyHistogram();
+
+    /**
+     * Counted write requests, which finished with an error.
+     */
+    public final AtomicLong writeErrors = new AtomicLong(0);
+
+    /**
+     * Counted read requests, which finished with an error.
+     */
+    public final AtomicLong readErrors = new AtomicLong(0);
+
+    /**
+     * Size of the context pool, larger than the 100 + 1K requests which can be waiting at the same time.
+     */
+    private static final int CONTEXT_POOL_SIZE = 2048;
+
+    /**
+     * Contexts of the requests, reused in submission order. Zookeeper completes the requests of a session
+     * in the order they were made, so a context is free again before its turn comes around.
+     */
+    private final RequestContext[] contexts = new RequestContext[CONTEXT_POOL_SIZE];
+
+    /**
+     * Index of the next free context, only used by the thread making the requests.
+     */
+    private int nextContextIdx = 0;
+
+    /**
+     * Callbacks are created once and shared by every request, the request is identified by its context.
+     */
+    private final AsyncCallback.DataCallback readCallback =
+            (rc, path, ctx, data, stat) -> complete(rc, (RequestContext) ctx, false);
+    private final AsyncCallback.StatCallback writeCallback =
+            (rc, path, ctx, stat) -> complete(rc, (RequestContext) ctx, true);
 
 
     public ZKThroughputManagerImpl(String serverAddress) throws IOException, InterruptedException {
-        initialize(serverAddress);
+        this(serverAddress, null);
+    }
+
+    /**
+     * @param serverAddress Zookeeper cluster address
+     * @param profile       transport of the session, null for the client defaults
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ZKThroughputManagerImpl(String serverAddress, TransportProfile profile) throws IOException, InterruptedException {
+        for (int i = 0; i < CONTEXT_POOL_SIZE; i++) {
+            contexts[i] = new RequestContext();
+        }
+        initialize(serverAddress, profile);
     }
 
     /**
@@ -93,21 +179,7 @@ public class ZKThroughputManagerImpl implements ZKManager {
      */
     @Override
     public void getZNodeData(String path, boolean watchFlag) {
-        // Check if benchmark has started.
-        if (!shouldCountRequests) {
-            zkeeper.getData(path, false, (((rc, path1, ctx, data, stat) -> {
-                startUpRequests.incrementAndGet();
-            })), null);
-        } else {
-            zkeeper.getData(path, false, (((rc, path1, ctx, data, stat) -> {
-                allowedRequests.incrementAndGet();
-                if (rc == KeeperException.Code.OK.intValue()) {
-                    readRequestsDone.incrementAndGet();
-                    requestsDone.incrementAndGet();
-                }
-            })), null);
-
-        }
+        zkeeper.getData(path, false, readCallback, nextContext());
     }
 
     /**
@@ -118,25 +190,62 @@ public class ZKThroughputManagerImpl implements ZKManager {
      */
     @Override
     public void update(String path, byte[] data) {
-        // Check if benchmark has started.
-        if (!shouldCountRequests) {
-            zkeeper.setData(path, data, version, ((rc, path1, ctx, stat) -> {
-                startUpRequests.incrementAndGet();
-            }), null);
-
-        } else {
+        if (versionLost) {
+            version = -1;
+        }
+        zkeeper.setData(path, data, version, writeCallback, nextContext());
+        // Increase the data version.
+        if (version >= 0) {
+            version++;
+        }
+    }
 
-            zkeeper.setData(path, data, version, ((rc, path1, ctx, stat) -> {
-                allowedRequests.incrementAndGet();
+    /**
+     * Take the next context from the pool and fill it for a new request.
+     *
+     * @return context passed to the callback
+     */
+    private RequestContext nextContext() {
+        RequestContext context = contexts[nextContextIdx];
+        nextContextIdx = (nextContextIdx + 1) & (CONTEXT_POOL_SIZE - 1);
+        context.counted = shouldCountRequests;
+        context.timed = recordLatency;
+        if (context.timed) {
+            context.submittedAt = System.nanoTime();
+        }
+        return context;
+    }
 
-                if (rc == KeeperException.Code.OK.intValue()) {
-                    writeRequestsDone.incrementAndGet();
-                    requestsDone.incrementAndGet();
-                }
-            }), null);
+    /**
+     * Count the finished request, called by both callbacks.
+     */
+    private void complete(int rc, RequestContext context, boolean write) {
+        if (write && rc != KeeperException.Code.OK.intValue()) {
+            versionLost = true;
+        }
+        // Check if benchmark had started when the request was made.
+        if (!context.counted) {
+            startUpRequests.incrementAndGet();
+            return;
+        }
+        allowedRequests.incrementAndGet();
+        if (rc == KeeperException.Code.OK.intValue()) {
+            if (context.timed) {
+                long latency = (System.nanoTime() - context.submittedAt) / 1000;
+                requestLatency.record(latency);
+                (write ? writeLatency : readLatency).record(latency);
+            }
+            if (write) {
+                writeRequestsDone.incrementAndGet();
+            } else {
+                readRequestsDone.incrementAndGet();
+            }
+            requestsDone.incrementAndGet();
+        } else if (write) {
+            writeErrors.incrementAndGet();
+        } else {
+            readErrors.incrementAndGet();
         }
-        // Increase the data version.
-        version++;
     }
 
     @Override
@@ -149,6 +258,15 @@ public class ZKThroughputManagerImpl implements ZKManager {
         zkeeper.delete(path, 0, null, null);
     }
 
+    /**
+     * Turn the latency of the requests on or off, the default comes from {@link #LATENCY_PROPERTY}.
+     *
+     * @param recordLatency true to record the latency of the following requests
+     */
+    public void setRecordLatency(boolean recordLatency) {
+        this.recordLatency = recordLatency;
+    }
+
     /**
      * Start the benchmark and request counting.
      */
@@ -185,18 +303,45 @@ public class ZKThroughputManagerImpl implements ZKManager {
         }
     }
 
+    /**
+     * @return requests waiting for a response, made before and during the benchmark
+     */
+    public int getOutstandingRequests() {
+        return STARTUP_WINDOW - startUpRequests.get() + BENCHMARK_WINDOW - allowedRequests.get();
+    }
+
+    /**
+     * @return requests which can be waiting for a response at the same time in the current phase
+     */
+    public int getRequestWindow() {
+        return shouldCountRequests ? BENCHMARK_WINDOW : STARTUP_WINDOW;
+    }
+
     /**
      * Create the Zookeeper connection
      *
      * @param serverAddress Zookeeper cluster address
+     * @param profile       transport of the session
      * @throws IOException
      * @throws InterruptedException
      */
-    private void initialize(String serverAddress) throws IOException, InterruptedException {
-        zkConnection = new ZKConnection();
+    private void initialize(String serverAddress, TransportProfile profile) throws IOException, InterruptedException {
+        zkConnection = new ZKConnection(profile);
         zkeeper = zkConnection.connect(serverAddress);
     }
 
+    /**
+     * @return Zookeeper connection of the client, used to inspect reconnects
+     */
+    public ZKConnection getConnection() {
+        return zkConnection;
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return zkConnection.getConnectedServer();
+    }
+
     /**
      * Close the Zookeeper connection.
      *
@@ -205,4 +350,25 @@ public class ZKThroughputManagerImpl implements ZKManager {
     public void closeConnection() throws InterruptedException {
         zkConnection.close();
     }
-}
\ No newline at end of file
+
+    /**
+     * State of one request, passed to the callback through ctx.
+     */
+    private static final class RequestContext {
+
+        /**
+         * True if the benchmark had started when the request was made.
+         */
+        private boolean counted;
+
+        /**
+         * True if the latency of the request is recorded.
+         */
+        private boolean timed;
+
+        /**
+         * Time when the request was made in nanoseconds.
+         */
+        private long submittedAt;
+    }
+}
@@ -0,0 +1,67 @@
+package com.dps.zookeeper.ensemble;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Something that can take Zookeeper servers down and bring them back during a benchmark.
+ * Servers are identified by their server id.
+ */
+public interface FaultInjector {
+
+    /**
+     * Start the servers or whatever is needed for the clients to connect.
+     *
+     * @throws IOException
+     */
+    void start() throws IOException;
+
+    /**
+     * @return address clients should connect to, "host:port,host:port,..."
+     */
+    String getConnectString();
+
+    /**
+     * @return ids of all servers
+     */
+    List<Integer> getServerIds();
+
+    /**
+     * @return id of the current leader, or -1 if there isn't one
+     */
+    int getLeaderId();
+
+    /**
+     * @return ids of the servers, which are running and aren't the leader
+     */
+    List<Integer> getFollowerIds();
+
+    /**
+     * Take the server down.
+     *
+     * @param serverId server to kill
+     */
+    void kill(int serverId);
+
+    /**
+     * Bring the killed server back.
+     *
+     * @param serverId server to restart
+     * @throws IOException
+     */
+    void restart(int serverId) throws IOException;
+
+    /**
+     * Wait until the servers agree on a leader.
+     *
+     * @param timeoutMillis how long to wait at most
+     * @return true, if the leader was elected before the timeout
+     * @throws InterruptedException
+     */
+    boolean awaitLeader(long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Stop everything and clean up.
+     */
+    void close();
+}
@@ -0,0 +1,248 @@
+package com.dps.zookeeper.ensemble;
+
+import org.apache.zookeeper.client.FourLetterWordMain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Local stand-in for killing servers of an ensemble, which isn't running inside the benchmark JVM.
+ * Every server gets a local TCP proxy and clients connect through the proxies. Killing a server closes
+ * its proxy and drops every client connection going through it, restarting opens the proxy again.
+ * The real servers keep running, so there is no re-election, but clients see the same disconnect and
+ * reconnect as with a crashed server.
+ */
+public class FaultProxy implements FaultInjector {
+
+    /**
+     * Size of the buffer used when copying data between client and server.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Proxies by server id, ids are given in cluster address order starting from 1.
+     */
+    private final Map<Integer, Proxy> proxies = new TreeMap<>();
+
+    /**
+     * @param clusterAddress real Zookeeper cluster address, "host:port,host:port,..."
+     */
+    public FaultProxy(String clusterAddress) {
+        int id = 1;
+        for (String server : clusterAddress.split(",")) {
+            String[] hostAndPort = server.trim().split(":");
+            if (hostAndPort.length != 2) {
+                throw new IllegalArgumentException("Expected host:port, given: " + server);
+            }
+            proxies.put(id, new Proxy(id, hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+            id++;
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        for (Proxy proxy : proxies.values()) {
+            proxy.open(0);
+        }
+    }
+
+    @Override
+    public String getConnectString() {
+        return proxies.values().stream()
+                .map(p -> "127.0.0.1:" + p.localPort)
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    public List<Integer> getServerIds() {
+        return new ArrayList<>(proxies.keySet());
+    }
+
+    /**
+     * Ask the real servers for their mode with "srvr" four letter word.
+     */
+    @Override
+    public int getLeaderId() {
+        for (Proxy proxy : proxies.values()) {
+            if (proxy.isOpen() && "leader".equals(proxy.serverMode())) {
+                return proxy.id;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Integer> getFollowerIds() {
+        int leader = getLeaderId();
+        List<Integer> result = new ArrayList<>();
+        for (Proxy proxy : proxies.values()) {
+            if (proxy.isOpen() && proxy.id != leader) {
+                result.add(proxy.id);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void kill(int serverId) {
+        proxies.get(serverId).close();
+    }
+
+    @Override
+    public void restart(int serverId) throws IOException {
+        Proxy proxy = proxies.get(serverId);
+        proxy.open(proxy.localPort);
+    }
+
+    /**
+     * Real servers are never killed, so the leader doesn't change.
+     */
+    @Override
+    public boolean awaitLeader(long timeoutMillis) {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (Proxy proxy : proxies.values()) {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Proxy of one server.
+     */
+    private static class Proxy {
+        private final int id;
+        private final String host;
+        private final int port;
+        private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+        private volatile ServerSocket serverSocket;
+        private int localPort;
+
+        Proxy(int id, String host, int port) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Start accepting client connections.
+         *
+         * @param listenPort local port, 0 to pick a free one
+         * @throws IOException
+         */
+        void open(int listenPort) throws IOException {
+            ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+            localPort = socket.getLocalPort();
+            serverSocket = socket;
+            Thread acceptor = new Thread(() -> acceptConnections(socket));
+            acceptor.setName("Proxy_" + id);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        boolean isOpen() {
+            return serverSocket != null;
+        }
+
+        private void acceptConnections(ServerSocket socket) {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    Socket server = new Socket(host, port);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    connections.add(client);
+                    connections.add(server);
+                    pipe(client, server);
+                    pipe(server, client);
+                } catch (IOException e) {
+                    // Socket closed by kill or server not reachable, client will retry
+                }
+            }
+        }
+
+        /**
+         * Copy bytes from one socket to other until either of them is closed.
+         */
+        private void pipe(Socket from, Socket to) {
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    // Connection dropped
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            });
+            thread.setName("Proxy_" + id + "_pipe");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Stop accepting connections and drop the existing ones.
+         */
+        void close() {
+            ServerSocket socket = serverSocket;
+            serverSocket = null;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+            for (Socket connection : connections) {
+                closeQuietly(connection);
+            }
+            connections.clear();
+        }
+
+        /**
+         * @return mode of the real server, for example "leader", or null if it isn't known
+         */
+        String serverMode() {
+            try {
+                String response = FourLetterWordMain.send4LetterWord(host, port, "srvr");
+                for (String line : response.split("\n")) {
+                    if (line.startsWith("Mode: ")) {
+                        return line.substring("Mode: ".length()).trim();
+                    }
+                }
+            } catch (Exception e) {
+                // Four letter words not allowed or server down
+            }
+            return null;
+        }
+
+        private void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            connections.remove(socket);
+        }
+    }
+}
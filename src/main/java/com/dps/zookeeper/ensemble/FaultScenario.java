@@ -0,0 +1,145 @@
+package com.dps.zookeeper.ensemble;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Schedule of faults during a benchmark. The schedule is given as comma separated steps
+ * "seconds:action", for example "30:kill-leader,60:restart". Supported actions:
+ * <ul>
+ * <li>kill-leader - kill the current leader</li>
+ * <li>kill-follower[:N] - kill N followers, 1 by default</li>
+ * <li>kill-peers:N - kill the leader and N-1 followers at once</li>
+ * <li>restart - restart every killed server</li>
+ * </ul>
+ */
+public class FaultScenario {
+
+    public static final String KILL_LEADER = "kill-leader";
+    public static final String KILL_FOLLOWER = "kill-follower";
+    public static final String KILL_PEERS = "kill-peers";
+    public static final String RESTART = "restart";
+
+    /**
+     * Steps in execution order.
+     */
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Servers killed and not yet restarted.
+     */
+    private final List<Integer> killed = new ArrayList<>();
+
+    /**
+     * @param schedule fault schedule, see class description
+     */
+    public FaultScenario(String schedule) {
+        for (String stepString : schedule.split(",")) {
+            String[] parts = stepString.trim().split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Fault step is expected to be seconds:action[:count]. Given: " + stepString);
+            }
+            long atMillis;
+            int count = 1;
+            try {
+                atMillis = (long) (Double.parseDouble(parts[0]) * 1000);
+                if (parts.length == 3) {
+                    count = Integer.parseInt(parts[2]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Fault step time and count are expected to be numbers. Given: " + stepString);
+            }
+            String action = parts[1];
+            if (!KILL_LEADER.equals(action) && !KILL_FOLLOWER.equals(action) &&
+                    !KILL_PEERS.equals(action) && !RESTART.equals(action)) {
+                throw new IllegalArgumentException("Unknown fault action: " + action);
+            }
+            if (count <= 0) {
+                throw new IllegalArgumentException("Fault count is expected to be positive. Given: " + stepString);
+            }
+            steps.add(new Step(atMillis, action, count));
+        }
+        steps.sort((a, b) -> Long.compare(a.atMillis, b.atMillis));
+    }
+
+    /**
+     * @return steps in execution order
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Execute the step.
+     *
+     * @param step     step to execute
+     * @param injector servers
+     * @return ids of the killed or restarted servers
+     * @throws IOException
+     */
+    public List<Integer> execute(Step step, FaultInjector injector) throws IOException {
+        List<Integer> targets = new ArrayList<>();
+        int leader = injector.getLeaderId();
+        List<Integer> followers = injector.getFollowerIds();
+        switch (step.action) {
+            case KILL_LEADER:
+                if (leader != -1) {
+                    targets.add(leader);
+                }
+                break;
+            case KILL_FOLLOWER:
+                targets.addAll(followers.subList(0, Math.min(step.count, followers.size())));
+                break;
+            case KILL_PEERS:
+                if (leader != -1) {
+                    targets.add(leader);
+                }
+                targets.addAll(followers.subList(0, Math.min(step.count - targets.size(), followers.size())));
+                break;
+            default:
+                targets.addAll(killed);
+                killed.clear();
+                for (int id : targets) {
+                    injector.restart(id);
+                }
+                return targets;
+        }
+        for (int id : targets) {
+            injector.kill(id);
+        }
+        killed.addAll(targets);
+        return targets;
+    }
+
+    /**
+     * One fault in the schedule.
+     */
+    public static class Step {
+        /**
+         * Time from the benchmark start in milliseconds.
+         */
+        public final long atMillis;
+        public final String action;
+        public final int count;
+
+        Step(long atMillis, String action, int count) {
+            this.atMillis = atMillis;
+            this.action = action;
+            this.count = count;
+        }
+
+        /**
+         * @return true, if the step can cause a leader election
+         */
+        public boolean affectsLeader() {
+            return KILL_LEADER.equals(action) || KILL_PEERS.equals(action) || RESTART.equals(action);
+        }
+
+        @Override
+        public String toString() {
+            return atMillis / 1000.0 + "s " + action + (count > 1 ? ":" + count : "");
+        }
+    }
+}
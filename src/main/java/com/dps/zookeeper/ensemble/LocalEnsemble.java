@@ -0,0 +1,418 @@
+package com.dps.zookeeper.ensemble;
+
+import com.dps.zookeeper.connection.TransportProfile;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.NettyServerCnxnFactory;
+import org.apache.zookeeper.server.ServerMetrics;
+import org.apache.zookeeper.server.ServerStats;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.QuorumPeerConfig;
+import org.apache.zookeeper.server.quorum.QuorumPeerMain;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Zookeeper ensemble running inside the benchmark JVM. Every peer listens on local ports
+ * and stores its data in a temporary directory, which is removed when the ensemble is closed.
+ */
+public class LocalEnsemble implements FaultInjector {
+
+    /**
+     * Same timing as in startZookeeperCluster.sh, so elections take as long as in the real cluster.
+     */
+    private static final int TICK_TIME = 2000;
+    private static final int INIT_LIMIT = 10;
+    private static final int SYNC_LIMIT = 5;
+
+    /**
+     * Peers by server id.
+     */
+    private final Map<Integer, Peer> peers = new TreeMap<>();
+
+    private final int numberOfPeers;
+
+    /**
+     * Number of non-voting observers, they get the server ids after the voting peers.
+     */
+    private final int numberOfObservers;
+
+    /**
+     * Server side of the transport profile, null for the Zookeeper defaults.
+     */
+    private final TransportProfile profile;
+
+    private File baseDir;
+
+    /**
+     * @param numberOfPeers number of voting peers in the ensemble
+     */
+    public LocalEnsemble(int numberOfPeers) {
+        this(numberOfPeers, null);
+    }
+
+    /**
+     * @param numberOfPeers number of voting peers in the ensemble
+     * @param profile       transport profile, the servers use Netty for Netty profiles and TLS on the client port
+     *                      for the TLS profile. Null for the Zookeeper defaults.
+     */
+    public LocalEnsemble(int numberOfPeers, TransportProfile profile) {
+        this(numberOfPeers, 0, profile);
+    }
+
+    /**
+     * @param numberOfPeers     number of voting peers in the ensemble
+     * @param numberOfObservers number of observers, which serve clients but don't vote
+     * @param profile           transport profile, see {@link #LocalEnsemble(int, TransportProfile)}
+     */
+    public LocalEnsemble(int numberOfPeers, int numberOfObservers, TransportProfile profile) {
+        if (numberOfPeers <= 0) {
+            throw new IllegalArgumentException("Ensemble needs at least one peer. Given: " + numberOfPeers);
+        }
+        if (numberOfObservers < 0) {
+            throw new IllegalArgumentException("Number of observers can't be negative. Given: " + numberOfObservers);
+        }
+        this.numberOfPeers = numberOfPeers;
+        this.numberOfObservers = numberOfObservers;
+        this.profile = profile;
+    }
+
+    @Override
+    public void start() throws IOException {
+        // Admin server needs Jetty, which isn't on the client class path
+        System.setProperty("zookeeper.admin.enableServer", "false");
+        // Every peer would try to register the same log4j beans
+        System.setProperty("zookeeper.jmx.log4j.disable", "true");
+        baseDir = Files.createTempDirectory("zk-ensemble").toFile();
+        if (profile != null) {
+            System.setProperty("zookeeper.serverCnxnFactory", profile.usesNetty() ?
+                    NettyServerCnxnFactory.class.getName() : NIOServerCnxnFactory.class.getName());
+            if (profile.isSecure()) {
+                LocalKeyStore.generate(baseDir);
+                LocalKeyStore.install(baseDir);
+            }
+        }
+        for (int id = 1; id <= numberOfPeers + numberOfObservers; id++) {
+            peers.put(id, new Peer(id, id > numberOfPeers, freePort(), freePort(), freePort(), freePort()));
+        }
+        for (Peer peer : peers.values()) {
+            peer.start();
+        }
+    }
+
+    @Override
+    public String getConnectString() {
+        return peers.values().stream()
+                .map(p -> "127.0.0.1:" + p.connectPort())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * @param serverId server id
+     * @return client address of the server, "host:port", TLS port for the TLS profile
+     */
+    public String getClientAddress(int serverId) {
+        return "127.0.0.1:" + peers.get(serverId).connectPort();
+    }
+
+    @Override
+    public List<Integer> getServerIds() {
+        return new ArrayList<>(peers.keySet());
+    }
+
+    /**
+     * @return server ids of the observers
+     */
+    public List<Integer> getObserverIds() {
+        List<Integer> result = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            if (peer.observer) {
+                result.add(peer.id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param serverId server id
+     * @return current role of the server, "leading", "following", "observing", "looking" or "stopped"
+     */
+    public String getRole(int serverId) {
+        QuorumPeer.ServerState state = peers.get(serverId).getState();
+        return state == null ? "stopped" : state.name().toLowerCase();
+    }
+
+    /**
+     * Statistics of the server instance. The four letter words can't tell the members apart in one JVM,
+     * because the metrics they add are shared by all servers of the process.
+     *
+     * @param serverId server id
+     * @return statistics of the running server, null if the server isn't serving clients
+     */
+    public ServerStats getServerStats(int serverId) {
+        Peer peer = peers.get(serverId);
+        if (peer.getState() == null) {
+            return null;
+        }
+        ZooKeeperServer server = peer.main.getPeer().getActiveServer();
+        return server == null ? null : server.serverStats();
+    }
+
+    /**
+     * Statistics of the server with the names of the "mntr" four letter word. The per-server values are read
+     * from the server instance; the metrics of the metrics provider, for example fsync time, are shared
+     * by all servers of the JVM and are the same for every member.
+     *
+     * @param serverId server id
+     * @return statistic name to value, empty if the server isn't serving clients
+     */
+    public Map<String, String> monitor(int serverId) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Peer peer = peers.get(serverId);
+        ZooKeeperServer server = peer.getState() == null ? null : peer.main.getPeer().getActiveServer();
+        if (server == null) {
+            return result;
+        }
+        ServerStats stats = server.serverStats();
+        result.put("zk_server_state", stats.getServerState());
+        result.put("zk_avg_latency", Double.toString(stats.getAvgLatency()));
+        result.put("zk_max_latency", Long.toString(stats.getMaxLatency()));
+        result.put("zk_min_latency", Long.toString(stats.getMinLatency()));
+        result.put("zk_packets_received", Long.toString(stats.getPacketsReceived()));
+        result.put("zk_packets_sent", Long.toString(stats.getPacketsSent()));
+        result.put("zk_num_alive_connections", Integer.toString(stats.getNumAliveClientConnections()));
+        result.put("zk_outstanding_requests", Long.toString(stats.getOutstandingRequests()));
+        result.put("zk_znode_count", Integer.toString(server.getZKDatabase().getNodeCount()));
+        result.put("zk_watch_count", Integer.toString(server.getZKDatabase().getDataTree().getWatchCount()));
+        ServerMetrics.getMetrics().getMetricsProvider()
+                .dump((name, value) -> result.putIfAbsent("zk_" + name, String.valueOf(value)));
+        return result;
+    }
+
+    @Override
+    public int getLeaderId() {
+        for (Peer peer : peers.values()) {
+            if (peer.getState() == QuorumPeer.ServerState.LEADING) {
+                return peer.id;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Integer> getFollowerIds() {
+        List<Integer> result = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            if (peer.getState() == QuorumPeer.ServerState.FOLLOWING) {
+                result.add(peer.id);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void kill(int serverId) {
+        peers.get(serverId).kill();
+    }
+
+    @Override
+    public void restart(int serverId) throws IOException {
+        peers.get(serverId).start();
+    }
+
+    /**
+     * Leader is elected when one running peer is leading and no running peer is looking.
+     */
+    @Override
+    public boolean awaitLeader(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (hasLeader()) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private boolean hasLeader() {
+        boolean leading = false;
+        for (Peer peer : peers.values()) {
+            QuorumPeer.ServerState state = peer.getState();
+            if (state == QuorumPeer.ServerState.LOOKING) {
+                return false;
+            }
+            if (state == QuorumPeer.ServerState.LEADING) {
+                QuorumPeer quorumPeer = peer.main.getPeer();
+                // Leader accepts requests only after the followers have synced
+                leading = quorumPeer.getActiveServer() != null && quorumPeer.getActiveServer().isRunning();
+            }
+        }
+        return leading;
+    }
+
+    @Override
+    public void close() {
+        for (Peer peer : peers.values()) {
+            peer.kill();
+        }
+        if (baseDir != null) {
+            try (Stream<Path> files = Files.walk(baseDir.toPath())) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException e) {
+                System.out.println("Wasn't able to remove ensemble data from " + baseDir);
+            }
+        }
+    }
+
+    /**
+     * Find a free local port.
+     *
+     * @return port number
+     * @throws IOException
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Configuration of the peer, same for every start.
+     *
+     * @param peer peer to configure
+     * @return parsed configuration
+     * @throws IOException
+     */
+    private QuorumPeerConfig createConfig(Peer peer) throws IOException {
+        File dataDir = new File(baseDir, "peer" + peer.id);
+        if (!dataDir.exists() && !dataDir.mkdirs()) {
+            throw new IOException("Wasn't able to create data directory " + dataDir);
+        }
+        Files.write(new File(dataDir, "myid").toPath(), Integer.toString(peer.id).getBytes(StandardCharsets.UTF_8));
+        Properties properties = new Properties();
+        properties.setProperty("tickTime", Integer.toString(TICK_TIME));
+        properties.setProperty("initLimit", Integer.toString(INIT_LIMIT));
+        properties.setProperty("syncLimit", Integer.toString(SYNC_LIMIT));
+        properties.setProperty("dataDir", dataDir.getAbsolutePath());
+        properties.setProperty("clientPort", Integer.toString(peer.clientPort));
+        properties.setProperty("clientPortAddress", "127.0.0.1");
+        if (profile != null && profile.isSecure()) {
+            properties.setProperty("secureClientPort", Integer.toString(peer.secureClientPort));
+            properties.setProperty("secureClientPortAddress", "127.0.0.1");
+        }
+        properties.setProperty("globalOutstandingLimit", "2000");
+        // Every client connects from the same address
+        properties.setProperty("maxClientCnxns", "0");
+        properties.setProperty("standaloneEnabled", "false");
+        properties.setProperty("4lw.commands.whitelist", "*");
+        if (peer.observer) {
+            properties.setProperty("peerType", "observer");
+        }
+        for (Peer other : peers.values()) {
+            properties.setProperty("server." + other.id,
+                    "127.0.0.1:" + other.quorumPort + ":" + other.electionPort + (other.observer ? ":observer" : ""));
+        }
+        QuorumPeerConfig config = new QuorumPeerConfig();
+        try {
+            config.parseProperties(properties);
+        } catch (QuorumPeerConfig.ConfigException e) {
+            throw new IOException("Invalid configuration for peer " + peer.id, e);
+        }
+        return config;
+    }
+
+    /**
+     * One server of the ensemble.
+     */
+    private class Peer {
+        private final int id;
+        private final boolean observer;
+        private final int clientPort;
+        private final int secureClientPort;
+        private final int quorumPort;
+        private final int electionPort;
+        private PeerMain main;
+        private Thread thread;
+
+        Peer(int id, boolean observer, int clientPort, int secureClientPort, int quorumPort, int electionPort) {
+            this.id = id;
+            this.observer = observer;
+            this.clientPort = clientPort;
+            this.secureClientPort = secureClientPort;
+            this.quorumPort = quorumPort;
+            this.electionPort = electionPort;
+        }
+
+        /**
+         * @return port the benchmark clients connect to
+         */
+        int connectPort() {
+            return profile != null && profile.isSecure() ? secureClientPort : clientPort;
+        }
+
+        void start() throws IOException {
+            QuorumPeerConfig config = createConfig(this);
+            PeerMain peerMain = new PeerMain();
+            thread = new Thread(() -> {
+                try {
+                    peerMain.runFromConfig(config);
+                } catch (Exception e) {
+                    System.out.println("Peer " + id + " stopped with exception: " + e.getMessage());
+                }
+            });
+            thread.setName("Peer_" + id);
+            thread.setDaemon(true);
+            main = peerMain;
+            thread.start();
+        }
+
+        void kill() {
+            if (main != null && main.getPeer() != null) {
+                main.getPeer().shutdown();
+            }
+            if (thread != null) {
+                try {
+                    thread.join(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            main = null;
+            thread = null;
+        }
+
+        /**
+         * @return state of the peer, null if it isn't running
+         */
+        QuorumPeer.ServerState getState() {
+            if (main == null || main.getPeer() == null || !main.getPeer().isRunning()) {
+                return null;
+            }
+            return main.getPeer().getPeerState();
+        }
+    }
+
+    /**
+     * Exposes the quorum peer, so that it can be shut down and inspected.
+     */
+    private static class PeerMain extends QuorumPeerMain {
+        QuorumPeer getPeer() {
+            return quorumPeer;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.dps.zookeeper.ensemble;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Self-signed key store and a trust store with its certificate, for TLS between the benchmark clients
+ * and a local ensemble. The servers and the clients use the same stores, so both sides trust each other.
+ */
+public class LocalKeyStore {
+
+    private static final String PASSWORD = "benchmark";
+    private static final String KEY_STORE = "keystore.p12";
+    private static final String TRUST_STORE = "truststore.p12";
+    private static final String CERTIFICATE = "benchmark.crt";
+
+    private LocalKeyStore() {
+    }
+
+    /**
+     * Generate a key pair for 127.0.0.1 and localhost and a trust store for its certificate,
+     * with keytool of the running JVM.
+     *
+     * @param directory existing directory, where the stores are created
+     * @throws IOException if keytool fails
+     */
+    public static void generate(File directory) throws IOException {
+        String keyStore = new File(directory, KEY_STORE).getAbsolutePath();
+        String certificate = new File(directory, CERTIFICATE).getAbsolutePath();
+        keytool("-genkeypair", "-alias", "benchmark", "-keyalg", "RSA", "-keysize", "2048", "-validity", "365",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keyStore, "-storepass", PASSWORD, "-keypass", PASSWORD);
+        keytool("-exportcert", "-alias", "benchmark", "-keystore", keyStore, "-storepass", PASSWORD,
+                "-file", certificate);
+        keytool("-importcert", "-noprompt", "-alias", "benchmark", "-file", certificate, "-storetype", "PKCS12",
+                "-keystore", new File(directory, TRUST_STORE).getAbsolutePath(), "-storepass", PASSWORD);
+    }
+
+    /**
+     * Use the stores for Zookeeper TLS in this JVM, both for the servers and the clients.
+     *
+     * @param directory directory given to {@link #generate(File)}
+     */
+    public static void install(File directory) {
+        System.setProperty("zookeeper.ssl.keyStore.location", new File(directory, KEY_STORE).getAbsolutePath());
+        System.setProperty("zookeeper.ssl.keyStore.password", PASSWORD);
+        System.setProperty("zookeeper.ssl.keyStore.type", "PKCS12");
+        System.setProperty("zookeeper.ssl.trustStore.location", new File(directory, TRUST_STORE).getAbsolutePath());
+        System.setProperty("zookeeper.ssl.trustStore.password", PASSWORD);
+        System.setProperty("zookeeper.ssl.trustStore.type", "PKCS12");
+    }
+
+    private static void keytool(String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool");
+        command.addAll(Arrays.asList(arguments));
+        File log = File.createTempFile("keytool", ".log");
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+            if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                process.destroy();
+                throw new IOException("keytool failed: " + new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating key store", e);
+        } finally {
+            log.delete();
+        }
+    }
+}
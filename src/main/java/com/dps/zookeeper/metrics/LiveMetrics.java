@@ -0,0 +1,210 @@
+package com.dps.zookeeper.metrics;
+
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+import com.dps.zookeeper.stats.LatencyHistogram;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Live statistics of the throughput clients while a test runs. Every registered client is an MXBean,
+ * and if the system property {@value #PORT_PROPERTY} is set, the aggregated statistics are served in
+ * Prometheus text format at http://host:port/metrics.
+ * The statistics are read from the counters the clients keep anyway, only when JMX or the endpoint asks,
+ * so the request path doesn't do any extra work.
+ */
+public class LiveMetrics {
+
+    /**
+     * System property with the port of the metrics endpoint.
+     */
+    public static final String PORT_PROPERTY = "benchmark.metrics.port";
+
+    private static final String DOMAIN = "com.dps.zookeeper";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final LiveMetrics INSTANCE = new LiveMetrics();
+
+    /**
+     * Registered clients by name.
+     */
+    private final Map<String, ZKThroughputManagerImpl> managers = new ConcurrentSkipListMap<>();
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private HttpServer httpServer;
+
+    private LiveMetrics() {
+    }
+
+    public static LiveMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the metrics endpoint, if the port is given with the system property {@value #PORT_PROPERTY}.
+     */
+    public static void startIfConfigured() {
+        String port = System.getProperty(PORT_PROPERTY);
+        if (port == null) {
+            return;
+        }
+        try {
+            INSTANCE.startHttp(Integer.parseInt(port));
+        } catch (NumberFormatException | IOException e) {
+            System.out.println("Wasn't able to start the metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serve the statistics in Prometheus text format.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return port the endpoint listens on
+     * @throws IOException if the port can't be bound
+     */
+    public synchronized int startHttp(int port) throws IOException {
+        if (httpServer != null) {
+            return httpServer.getAddress().getPort();
+        }
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MetricsEndpoint");
+            t.setDaemon(true);
+            return t;
+        }));
+        httpServer.start();
+        System.out.println("Metrics endpoint listening on http://localhost:" + httpServer.getAddress().getPort() + "/metrics");
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Register a client, a client registered earlier with the same name is replaced.
+     *
+     * @param name      client name, for example "Client_0"
+     * @param zkManager client
+     */
+    public void register(String name, ZKThroughputManagerImpl zkManager) {
+        managers.put(name, zkManager);
+        try {
+            ObjectName objectName = objectName(name);
+            synchronized (mBeanServer) {
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+                mBeanServer.registerMBean(new ThroughputManagerView(zkManager), objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Wasn't able to register MBean of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the client, if it is still the registered one.
+     *
+     * @param name      client name
+     * @param zkManager client
+     */
+    public void unregister(String name, ZKThroughputManagerImpl zkManager) {
+        if (!managers.remove(name, zkManager)) {
+            return;
+        }
+        try {
+            ObjectName objectName = objectName(name);
+            synchronized (mBeanServer) {
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            }
+        } catch (JMException e) {
+            System.out.println("Wasn't able to unregister MBean of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return statistics of the registered clients in Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        LatencyHistogram readLatency = new LatencyHistogram();
+        LatencyHistogram writeLatency = new LatencyHistogram();
+
+        header(out, "zk_benchmark_clients", "gauge", "Registered benchmark clients.");
+        out.append("zk_benchmark_clients ").append(managers.size()).append('\n');
+
+        header(out, "zk_benchmark_requests_total", "counter", "Requests finished successfully since the benchmark started.");
+        for (Map.Entry<String, ZKThroughputManagerImpl> entry : managers.entrySet()) {
+            sample(out, "zk_benchmark_requests_total", entry.getKey(), "read", entry.getValue().readRequestsDone.get());
+            sample(out, "zk_benchmark_requests_total", entry.getKey(), "write", entry.getValue().writeRequestsDone.get());
+        }
+        header(out, "zk_benchmark_errors_total", "counter", "Requests finished with an error since the benchmark started.");
+        for (Map.Entry<String, ZKThroughputManagerImpl> entry : managers.entrySet()) {
+            sample(out, "zk_benchmark_errors_total", entry.getKey(), "read", entry.getValue().readErrors.get());
+            sample(out, "zk_benchmark_errors_total", entry.getKey(), "write", entry.getValue().writeErrors.get());
+        }
+        header(out, "zk_benchmark_outstanding_requests", "gauge", "Requests waiting for a response.");
+        for (Map.Entry<String, ZKThroughputManagerImpl> entry : managers.entrySet()) {
+            sample(out, "zk_benchmark_outstanding_requests", entry.getKey(), null, entry.getValue().getOutstandingRequests());
+        }
+        header(out, "zk_benchmark_request_window", "gauge", "Requests allowed to wait for a response at the same time.");
+        for (Map.Entry<String, ZKThroughputManagerImpl> entry : managers.entrySet()) {
+            sample(out, "zk_benchmark_request_window", entry.getKey(), null, entry.getValue().getRequestWindow());
+            readLatency.add(entry.getValue().readLatency);
+            writeLatency.add(entry.getValue().writeLatency);
+        }
+        header(out, "zk_benchmark_request_latency_microseconds", "summary",
+                "Latency of the successful requests of all clients since the benchmark started or the last reset.");
+        summary(out, "zk_benchmark_request_latency_microseconds", "read", readLatency);
+        summary(out, "zk_benchmark_request_latency_microseconds", "write", writeLatency);
+        return out.toString();
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=ThroughputClient,name=" + ObjectName.quote(name));
+    }
+
+    private static void header(StringBuilder out, String metric, String type, String help) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String metric, String client, String op, long value) {
+        out.append(metric).append("{client=\"").append(escape(client)).append('"');
+        if (op != null) {
+            out.append(",op=\"").append(op).append('"');
+        }
+        out.append("} ").append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String metric, String op, LatencyHistogram latency) {
+        for (double quantile : QUANTILES) {
+            out.append(metric).append("{op=\"").append(op).append("\",quantile=\"").append(quantile).append("\"} ")
+                    .append(latency.getPercentile(quantile * 100)).append('\n');
+        }
+        out.append(metric).append("_sum{op=\"").append(op).append("\"} ")
+                .append(Math.round(latency.getMean() * latency.getCount())).append('\n');
+        out.append(metric).append("_count{op=\"").append(op).append("\"} ").append(latency.getCount()).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
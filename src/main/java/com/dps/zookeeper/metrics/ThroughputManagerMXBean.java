@@ -0,0 +1,46 @@
+package com.dps.zookeeper.metrics;
+
+/**
+ * Live statistics of one throughput client, registered as "com.dps.zookeeper:type=ThroughputClient,name=...".
+ * Latencies are in microseconds and cover the requests since the benchmark started or the test last reset them.
+ */
+public interface ThroughputManagerMXBean {
+
+    String getConnectedServer();
+
+    long getRequestsDone();
+
+    long getReadRequestsDone();
+
+    long getWriteRequestsDone();
+
+    long getReadErrors();
+
+    long getWriteErrors();
+
+    /**
+     * @return requests waiting for a response
+     */
+    int getOutstandingRequests();
+
+    /**
+     * @return requests allowed to wait for a response at the same time
+     */
+    int getRequestWindow();
+
+    double getReadLatencyMean();
+
+    long getReadLatencyP50();
+
+    long getReadLatencyP99();
+
+    long getReadLatencyMax();
+
+    double getWriteLatencyMean();
+
+    long getWriteLatencyP50();
+
+    long getWriteLatencyP99();
+
+    long getWriteLatencyMax();
+}
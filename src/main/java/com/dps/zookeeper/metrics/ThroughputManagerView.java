@@ -0,0 +1,96 @@
+package com.dps.zookeeper.metrics;
+
+import com.dps.zookeeper.connection.ZKThroughputManagerImpl;
+
+/**
+ * Read-only MXBean view of a throughput client. Every getter reads the counters of the client when called,
+ * nothing is recorded on the request path for it.
+ */
+class ThroughputManagerView implements ThroughputManagerMXBean {
+
+    private final ZKThroughputManagerImpl zkManager;
+
+    ThroughputManagerView(ZKThroughputManagerImpl zkManager) {
+        this.zkManager = zkManager;
+    }
+
+    @Override
+    public String getConnectedServer() {
+        return zkManager.getConnectedServer();
+    }
+
+    @Override
+    public long getRequestsDone() {
+        return zkManager.requestsDone.get();
+    }
+
+    @Override
+    public long getReadRequestsDone() {
+        return zkManager.readRequestsDone.get();
+    }
+
+    @Override
+    public long getWriteRequestsDone() {
+        return zkManager.writeRequestsDone.get();
+    }
+
+    @Override
+    public long getReadErrors() {
+        return zkManager.readErrors.get();
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return zkManager.writeErrors.get();
+    }
+
+    @Override
+    public int getOutstandingRequests() {
+        return zkManager.getOutstandingRequests();
+    }
+
+    @Override
+    public int getRequestWindow() {
+        return zkManager.getRequestWindow();
+    }
+
+    @Override
+    public double getReadLatencyMean() {
+        return zkManager.readLatency.getMean();
+    }
+
+    @Override
+    public long getReadLatencyP50() {
+        return zkManager.readLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getReadLatencyP99() {
+        return zkManager.readLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getReadLatencyMax() {
+        return zkManager.readLatency.getMax();
+    }
+
+    @Override
+    public double getWriteLatencyMean() {
+        return zkManager.writeLatency.getMean();
+    }
+
+    @Override
+    public long getWriteLatencyP50() {
+        return zkManager.writeLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getWriteLatencyP99() {
+        return zkManager.writeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getWriteLatencyMax() {
+        return zkManager.writeLatency.getMax();
+    }
+}
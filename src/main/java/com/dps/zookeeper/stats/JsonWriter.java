@@ -0,0 +1,200 @@
+package com.dps.zookeeper.stats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming JSON writer. Values are written straight to the underlying writer,
+ * so large arrays like time series and histogram buckets aren't built in memory first.
+ */
+public class JsonWriter implements Closeable {
+
+    private static final char OBJECT = '{';
+    private static final char ARRAY = '[';
+
+    private final Writer writer;
+
+    /**
+     * Open objects and arrays, innermost first.
+     */
+    private final Deque<Character> scopes = new ArrayDeque<>();
+
+    /**
+     * True if the current object or array has no values yet.
+     */
+    private boolean first = true;
+
+    /**
+     * True if a name was written and its value is expected next.
+     */
+    private boolean afterName = false;
+
+    public JsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open(OBJECT);
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close(OBJECT, '}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open(ARRAY);
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(ARRAY, ']');
+    }
+
+    /**
+     * Write the name of the next object member.
+     *
+     * @param name member name
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter name(String name) throws IOException {
+        if (scopes.isEmpty() || scopes.peek() != OBJECT || afterName) {
+            throw new IllegalStateException("Name " + name + " isn't expected here");
+        }
+        separate();
+        writeString(name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writer.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a number. NaN and infinity aren't valid JSON and are written as null.
+     *
+     * @param value number
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        writer.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writer.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writer.write("null");
+        return this;
+    }
+
+    /**
+     * Flush and close the underlying writer.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        writer.close();
+        if (!scopes.isEmpty()) {
+            throw new IllegalStateException("JSON document isn't complete, " + scopes.size() + " scopes open");
+        }
+    }
+
+    private JsonWriter open(char scope) throws IOException {
+        beforeValue();
+        writer.write(scope);
+        scopes.push(scope);
+        first = true;
+        return this;
+    }
+
+    private JsonWriter close(char scope, char end) throws IOException {
+        if (scopes.isEmpty() || scopes.peek() != scope || afterName) {
+            throw new IllegalStateException("Can't close " + scope + " here");
+        }
+        scopes.pop();
+        writer.write(end);
+        first = false;
+        return this;
+    }
+
+    private void beforeValue() {
+        if (!scopes.isEmpty() && scopes.peek() == OBJECT && !afterName) {
+            throw new IllegalStateException("Object member needs a name before the value");
+        }
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+
+    private void separate() {
+        if (!first) {
+            try {
+                writer.write(',');
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        first = false;
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
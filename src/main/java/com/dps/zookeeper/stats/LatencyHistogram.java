@@ -0,0 +1,230 @@
+package com.dps.zookeeper.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency histogram with log-linear buckets. Values below 64 have their own bucket,
+ * larger values share a bucket with values within about 3% of them. Recording doesn't allocate.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Every power of two is split into 2^SUB_BITS buckets.
+     */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    /**
+     * Largest tracked power of two, larger values go to the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * Record one value, negative values are recorded as 0.
+     *
+     * @param value latency, usually in microseconds
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long currentMax;
+        while (v > (currentMax = max.get()) && !max.compareAndSet(currentMax, v)) {
+            // Retry
+        }
+        long currentMin;
+        while (v < (currentMin = min.get()) && !min.compareAndSet(currentMin, v)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Add every value of the other histogram into this one.
+     *
+     * @param other histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get()) && !max.compareAndSet(currentMax, otherMax)) {
+            // Retry
+        }
+        long otherMin = other.min.get();
+        long currentMin;
+        while (otherMin < (currentMin = min.get()) && !min.compareAndSet(currentMin, otherMin)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Remove the values of an earlier copy of this histogram, what remains are the values recorded since.
+     * The smallest and largest value are narrowed to the buckets still holding values. Not to be called
+     * while values are recorded into this histogram.
+     *
+     * @param earlier copy of this histogram taken earlier with {@link #add(LatencyHistogram)}
+     */
+    public void subtract(LatencyHistogram earlier) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.addAndGet(i, -earlier.counts.get(i));
+            if (c > 0) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        count.addAndGet(-earlier.count.get());
+        sum.addAndGet(-earlier.sum.get());
+        if (first < 0) {
+            max.set(0);
+            min.set(Long.MAX_VALUE);
+        } else {
+            max.set(Math.min(max.get(), upperBound(last)));
+            min.set(Math.max(min.get(), lowerBound(first)));
+        }
+    }
+
+    /**
+     * Clear every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        min.set(Long.MAX_VALUE);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return smallest recorded value, 0 if nothing is recorded
+     */
+    public long getMin() {
+        long result = min.get();
+        return result == Long.MAX_VALUE ? 0 : result;
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Value at the percentile. The upper bound of the bucket is returned, so the value is never underestimated.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return value at the percentile, 0 if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        target = Math.max(1, target);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return number of buckets
+     */
+    public int getBucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return number of values in the bucket
+     */
+    public long getBucketValueCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return smallest value in the bucket
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BITS + 1;
+        long mantissa = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return mantissa << (exponent - SUB_BITS);
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return largest value in the bucket
+     */
+    public static long upperBound(int bucket) {
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBound(bucket + 1) - 1;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int mantissa = (int) (value >>> (exponent - SUB_BITS));
+        return LINEAR_LIMIT + (exponent - SUB_BITS - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    /**
+     * Short summary, for example "count 100, mean 1.2, p50 1, p99 5, p99.9 7, max 8".
+     *
+     * @param unit unit of the values
+     * @return summary
+     */
+    public String summary(String unit) {
+        return "count " + getCount() +
+                ", mean " + String.format("%.1f", getMean()) + " " + unit +
+                ", p50 " + getPercentile(50) + " " + unit +
+                ", p90 " + getPercentile(90) + " " + unit +
+                ", p99 " + getPercentile(99) + " " + unit +
+                ", p99.9 " + getPercentile(99.9) + " " + unit +
+                ", max " + getMax() + " " + unit;
+    }
+}
@@ -0,0 +1,113 @@
+package com.dps.zookeeper.stats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number, mean and maximum latency of finished requests in fixed size time buckets, to see short latency
+ * spikes which disappear in the distribution of a whole run. Requests are put into the bucket in which
+ * they finished. A bucket keeps three counters only, so long runs with small buckets stay cheap.
+ */
+public class LatencyTimeSeries {
+
+    /**
+     * Width of one bucket in milliseconds.
+     */
+    private final long bucketMillis;
+
+    /**
+     * Buckets with at least one request by index.
+     */
+    private final Map<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private volatile long startTime;
+
+    /**
+     * @param bucketMillis width of one bucket in milliseconds
+     */
+    public LatencyTimeSeries(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Start the series, first bucket starts now.
+     */
+    public void start() {
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a request, which finished now.
+     *
+     * @param latency latency of the request, usually in microseconds
+     */
+    public void record(long latency) {
+        int bucket = (int) Math.max(0, (System.currentTimeMillis() - startTime) / bucketMillis);
+        buckets.computeIfAbsent(bucket, b -> new Bucket()).record(latency);
+    }
+
+    /**
+     * @return time when the first bucket started in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return width of one bucket in milliseconds
+     */
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Write the series into a file, one line for each bucket:
+     * millisecondsSinceStart requests meanLatency maxLatency
+     * Buckets without requests are written with zeros.
+     *
+     * @param fileName file where to write
+     */
+    public void write(String fileName) {
+        int last = -1;
+        for (int bucket : buckets.keySet()) {
+            last = Math.max(last, bucket);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+            for (int i = 0; i <= last; i++) {
+                Bucket bucket = buckets.get(i);
+                long count = bucket == null ? 0 : bucket.count.get();
+                double mean = count == 0 ? 0 : (double) bucket.sum.get() / count;
+                long max = bucket == null ? 0 : bucket.max.get();
+                writer.write(i * bucketMillis + " " + count + " " + mean + " " + max + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing latency time series into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Requests finished in one bucket.
+     */
+    private static class Bucket {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long latency) {
+            count.incrementAndGet();
+            sum.addAndGet(latency);
+            long currentMax;
+            while (latency > (currentMax = max.get()) && !max.compareAndSet(currentMax, latency)) {
+                // Retry
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.dps.zookeeper.stats;
+
+import org.apache.zookeeper.Version;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Machine readable report of one benchmark run, written as a single JSON document.
+ * The schema is versioned by {@link #SCHEMA_VERSION}; members are only added within a version, never renamed
+ * or removed, so reports of different runs can be compared over time.
+ * <pre>
+ * {
+ *   "schemaVersion": 1,
+ *   "mode": "throughput",
+ *   "startTime": ms since epoch, "endTime": ms since epoch,
+ *   "config": {name: string or number, ...},
+ *   "environment": {"javaVersion", "javaVendor", "vmName", "vmArguments": [...], "garbageCollectors": [...],
+ *                   "maxHeapBytes", "availableProcessors", "osName", "osArch", "osVersion", "hostName",
+ *                   "zookeeperVersion"},
+ *   "ensemble": {"address"},
+ *   "payloadBytes": size of the written data,
+ *   "operations": {name: {"count", "errors", "latencyUs": {"min", "mean", "p50", "p90", "p99", "p999", "max",
+ *                                                         "buckets": [[lowerBound, upperBound, count], ...]}}},
+ *   "errors": total errors of all operations,
+ *   "timeSeries": {"startTime", "bucketMillis", "requests": [finished requests in each bucket, ...]},
+ *   "servers": [{"address", "sessions", "requests", "reads", "writes"}, ...],
+ *   "serverMetrics": {"startTime", "bucketMillis", "members": [{"address", "state": [...],
+ *                     metric: [value in each bucket, ...], ...}, ...]},
+ *   "results": [{name: string or number, ...}, ...]
+ * }
+ * </pre>
+ * Members without data, for example a time series in a test which doesn't sample one, are written as null.
+ * Results are the measurements of the test, which don't fit the common members: one object for each row
+ * of the text results of the test, with the same values.
+ */
+public class RunReport {
+
+    /**
+     * Version of the report schema.
+     */
+    public static final int SCHEMA_VERSION = 1;
+
+    /**
+     * File name of the report in the output directory.
+     */
+    public static final String FILE_NAME = "run_report.json";
+
+    private final String mode;
+    private final Map<String, Object> config = new LinkedHashMap<>();
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private long startTime;
+    private long endTime;
+    private String ensembleAddress;
+    private long payloadBytes = -1;
+    private ThroughputTimeSeries timeSeries;
+    private ServerBreakdown servers;
+    private ServerMetricsCollector serverMetrics;
+
+    /**
+     * @param mode name of the test, see the MODE constants of the clients
+     */
+    public RunReport(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Add a configuration value. Values are written in the order they are added.
+     *
+     * @param name  configuration name
+     * @param value string or number
+     * @return this report
+     */
+    public RunReport config(String name, Object value) {
+        config.put(name, value);
+        return this;
+    }
+
+    /**
+     * Get the statistics of an operation, create them if they don't exist.
+     *
+     * @param name operation name, for example "read" or "create"
+     * @return statistics of the operation
+     */
+    public synchronized Operation operation(String name) {
+        return operations.computeIfAbsent(name, n -> new Operation());
+    }
+
+    /**
+     * Add a result row. Values are written in the order they are put into the row.
+     *
+     * @return empty row, values are strings, numbers or booleans
+     */
+    public synchronized Map<String, Object> result() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        results.add(row);
+        return row;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public void setEnsembleAddress(String ensembleAddress) {
+        this.ensembleAddress = ensembleAddress;
+    }
+
+    public void setPayloadBytes(long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    public void setTimeSeries(ThroughputTimeSeries timeSeries) {
+        this.timeSeries = timeSeries;
+    }
+
+    public void setServers(ServerBreakdown servers) {
+        this.servers = servers;
+    }
+
+    public void setServerMetrics(ServerMetricsCollector serverMetrics) {
+        this.serverMetrics = serverMetrics;
+    }
+
+    /**
+     * Write the report.
+     *
+     * @param fileName file where to write
+     */
+    public void write(String fileName) {
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
+            json.beginObject();
+            json.name("schemaVersion").value(SCHEMA_VERSION);
+            json.name("mode").value(mode);
+            json.name("startTime").value(startTime);
+            json.name("endTime").value(endTime);
+            writeConfig(json);
+            writeEnvironment(json);
+            json.name("ensemble").beginObject().name("address").value(ensembleAddress).endObject();
+            json.name("payloadBytes");
+            if (payloadBytes < 0) {
+                json.nullValue();
+            } else {
+                json.value(payloadBytes);
+            }
+            writeOperations(json);
+            writeTimeSeries(json);
+            writeServers(json);
+            writeServerMetrics(json);
+            writeResults(json);
+            json.endObject();
+        } catch (IOException e) {
+            System.out.println("Exception when writing run report into file.");
+            e.printStackTrace();
+        }
+    }
+
+    private void writeConfig(JsonWriter json) throws IOException {
+        json.name("config");
+        writeValues(json, config);
+    }
+
+    private synchronized void writeResults(JsonWriter json) throws IOException {
+        json.name("results").beginArray();
+        for (Map<String, Object> row : results) {
+            writeValues(json, row);
+        }
+        json.endArray();
+    }
+
+    private static void writeValues(JsonWriter json, Map<String, Object> values) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            json.name(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Double || value instanceof Float) {
+                json.value(((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                json.value(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                json.value((Boolean) value);
+            } else {
+                json.value(value == null ? null : value.toString());
+            }
+        }
+        json.endObject();
+    }
+
+    private static void writeEnvironment(JsonWriter json) throws IOException {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        json.name("environment").beginObject();
+        json.name("javaVersion").value(System.getProperty("java.version"));
+        json.name("javaVendor").value(System.getProperty("java.vendor"));
+        json.name("vmName").value(runtime.getVmName() + " " + runtime.getVmVersion());
+        json.name("vmArguments").beginArray();
+        for (String argument : runtime.getInputArguments()) {
+            json.value(argument);
+        }
+        json.endArray();
+        json.name("garbageCollectors").beginArray();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            json.value(gc.getName());
+        }
+        json.endArray();
+        json.name("maxHeapBytes").value(Runtime.getRuntime().maxMemory());
+        json.name("availableProcessors").value(Runtime.getRuntime().availableProcessors());
+        json.name("osName").value(System.getProperty("os.name"));
+        json.name("osArch").value(System.getProperty("os.arch"));
+        json.name("osVersion").value(System.getProperty("os.version"));
+        json.name("hostName").value(hostName());
+        json.name("zookeeperVersion").value(Version.getFullVersion());
+        json.endObject();
+    }
+
+    private void writeOperations(JsonWriter json) throws IOException {
+        long totalErrors = 0;
+        json.name("operations").beginObject();
+        synchronized (this) {
+            for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+                Operation op = entry.getValue();
+                LatencyHistogram latency = op.latency;
+                totalErrors += op.errors.get();
+                json.name(entry.getKey()).beginObject();
+                json.name("count").value(latency.getCount());
+                json.name("errors").value(op.errors.get());
+                json.name("latencyUs").beginObject();
+                json.name("min").value(latency.getMin());
+                json.name("mean").value(latency.getMean());
+                json.name("p50").value(latency.getPercentile(50));
+                json.name("p90").value(latency.getPercentile(90));
+                json.name("p99").value(latency.getPercentile(99));
+                json.name("p999").value(latency.getPercentile(99.9));
+                json.name("max").value(latency.getMax());
+                json.name("buckets").beginArray();
+                for (int i = 0; i < latency.getBucketCount(); i++) {
+                    long count = latency.getBucketValueCount(i);
+                    if (count > 0) {
+                        json.beginArray().value(LatencyHistogram.lowerBound(i))
+                                .value(LatencyHistogram.upperBound(i)).value(count).endArray();
+                    }
+                }
+                json.endArray();
+                json.endObject();
+                json.endObject();
+            }
+        }
+        json.endObject();
+        json.name("errors").value(totalErrors);
+    }
+
+    private void writeTimeSeries(JsonWriter json) throws IOException {
+        json.name("timeSeries");
+        if (timeSeries == null) {
+            json.nullValue();
+            return;
+        }
+        json.beginObject();
+        json.name("startTime").value(timeSeries.getStartTime());
+        json.name("bucketMillis").value(timeSeries.getBucketMillis());
+        json.name("requests").beginArray();
+        List<Long> buckets = timeSeries.getBuckets();
+        for (long requests : buckets) {
+            json.value(requests);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private void writeServers(JsonWriter json) throws IOException {
+        json.name("servers");
+        if (servers == null) {
+            json.nullValue();
+            return;
+        }
+        json.beginArray();
+        for (Map.Entry<String, ServerBreakdown.ServerCounters> entry : servers.getCounters().entrySet()) {
+            ServerBreakdown.ServerCounters c = entry.getValue();
+            json.beginObject();
+            json.name("address").value(entry.getKey());
+            json.name("sessions").value(c.sessions.get());
+            json.name("requests").value(c.requests.get());
+            json.name("reads").value(c.reads.get());
+            json.name("writes").value(c.writes.get());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writeServerMetrics(JsonWriter json) throws IOException {
+        json.name("serverMetrics");
+        if (serverMetrics == null) {
+            json.nullValue();
+            return;
+        }
+        json.beginObject();
+        json.name("startTime").value(serverMetrics.getStartTime());
+        json.name("bucketMillis").value(serverMetrics.getBucketMillis());
+        json.name("members").beginArray();
+        for (String member : serverMetrics.getMembers()) {
+            List<double[]> samples = serverMetrics.getSamples(member);
+            json.beginObject();
+            json.name("address").value(member);
+            json.name("state").beginArray();
+            for (String state : serverMetrics.getStates(member)) {
+                json.value(state);
+            }
+            json.endArray();
+            for (int i = 0; i < ServerMetricsCollector.METRICS.size(); i++) {
+                json.name(ServerMetricsCollector.METRICS.get(i)).beginArray();
+                for (double[] sample : samples) {
+                    json.value(sample[i]);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Latency and errors of one operation type.
+     */
+    public static class Operation {
+        /**
+         * Latency of the successful requests in microseconds.
+         */
+        public final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Number of failed requests.
+         */
+        public final AtomicLong errors = new AtomicLong();
+    }
+}
@@ -0,0 +1,138 @@
+package com.dps.zookeeper.stats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark statistics broken down by the ensemble member each session is connected to.
+ */
+public class ServerBreakdown {
+
+    /**
+     * Counters for each server, key is "host:port".
+     */
+    private final ConcurrentMap<String, ServerCounters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Get the counters of the server, create them if they don't exist.
+     *
+     * @param server "host:port" of the server
+     * @return counters of the server
+     */
+    public ServerCounters forServer(String server) {
+        return counters.computeIfAbsent(server, s -> new ServerCounters());
+    }
+
+    /**
+     * @return counters of every server, sorted by server
+     */
+    public Map<String, ServerCounters> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * Ratio between the busiest server and the average server. 1.0 means perfectly even load.
+     *
+     * @return imbalance of completed requests
+     */
+    public double requestImbalance() {
+        long max = 0;
+        long total = 0;
+        for (ServerCounters c : counters.values()) {
+            max = Math.max(max, c.requests.get());
+            total += c.requests.get();
+        }
+        if (total == 0) {
+            return 0;
+        }
+        return max / ((double) total / counters.size());
+    }
+
+    /**
+     * Print the breakdown into standard output.
+     *
+     * @param durationMillis duration of the measurement, used to calculate throughput
+     */
+    public void print(long durationMillis) {
+        long total = 0;
+        for (ServerCounters c : counters.values()) {
+            total += c.requests.get();
+        }
+        for (Map.Entry<String, ServerCounters> entry : getCounters().entrySet()) {
+            ServerCounters c = entry.getValue();
+            long requests = c.requests.get();
+            System.out.println("Server " + entry.getKey() + ": " + c.sessions.get() + " sessions, " +
+                    requests + " requests (" + c.reads.get() + " reads, " + c.writes.get() + " writes), " +
+                    String.format("%.2f", requests * 1000.0 / Math.max(1, durationMillis)) + " requests/s, " +
+                    String.format("%.2f", total == 0 ? 0 : requests * 100.0 / total) + "% of all requests, " +
+                    String.format("%.3f", c.averageLatencyMillis()) + " ms average latency");
+        }
+        System.out.println("Server request imbalance (max/mean): " + String.format("%.3f", requestImbalance()));
+    }
+
+    /**
+     * Write the breakdown into a file, one line for each server:
+     * server sessions requests reads writes totalLatencyMillis
+     *
+     * @param fileName file where to write
+     */
+    public void write(String fileName) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, ServerCounters> entry : getCounters().entrySet()) {
+                ServerCounters c = entry.getValue();
+                writer.write(entry.getKey() + " " + c.sessions.get() + " " + c.requests.get() + " " +
+                        c.reads.get() + " " + c.writes.get() + " " + c.latencyMillis.get() + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing server breakdown into file.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counters of one server.
+     */
+    public static class ServerCounters {
+        /**
+         * Number of sessions connected to the server.
+         */
+        public final AtomicLong sessions = new AtomicLong();
+
+        /**
+         * Number of requests finished by the sessions of the server.
+         */
+        public final AtomicLong requests = new AtomicLong();
+
+        /**
+         * Number of read requests finished by the sessions of the server.
+         */
+        public final AtomicLong reads = new AtomicLong();
+
+        /**
+         * Number of write requests finished by the sessions of the server.
+         */
+        public final AtomicLong writes = new AtomicLong();
+
+        /**
+         * Sum of request latencies in milliseconds, used by tests which measure latency.
+         */
+        public final AtomicLong latencyMillis = new AtomicLong();
+
+        /**
+         * @return average request latency in milliseconds, 0 if latency isn't measured
+         */
+        public double averageLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : (double) latencyMillis.get() / count;
+        }
+    }
+}
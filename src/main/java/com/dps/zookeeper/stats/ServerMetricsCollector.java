@@ -0,0 +1,243 @@
+package com.dps.zookeeper.stats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Polls the statistics of every ensemble member in the same time buckets as a {@link ThroughputTimeSeries},
+ * so server side queueing, latency and fsync time can be lined up with the client throughput.
+ * Statistics are read with the "mntr" names from a source, for example {@link ServerMonitor#mntr(String)}
+ * for a remote ensemble or the monitor of an in-process ensemble.
+ */
+public class ServerMetricsCollector {
+
+    /**
+     * Names of the recorded metrics, in the order of the values of a sample.
+     * Average and maximum latency are reported by Zookeeper since the server start;
+     * packets and fsync time are calculated from the change of the counters since the previous sample.
+     */
+    public static final List<String> METRICS = Collections.unmodifiableList(Arrays.asList(
+            "outstandingRequests", "avgLatencyMs", "maxLatencyMs", "znodeCount", "watchCount",
+            "packetsReceivedPerSecond", "fsyncAvgMs"));
+
+    private static final int OUTSTANDING = 0;
+    private static final int AVG_LATENCY = 1;
+    private static final int MAX_LATENCY = 2;
+    private static final int ZNODES = 3;
+    private static final int WATCHES = 4;
+    private static final int PACKETS = 5;
+    private static final int FSYNC = 6;
+
+    private final List<String> members;
+    private final Function<String, Map<String, String>> source;
+    private final long bucketMillis;
+
+    /**
+     * Samples of each member, index is the bucket. Values are NaN if the member didn't answer.
+     */
+    private final Map<String, List<double[]>> samples = new LinkedHashMap<>();
+
+    /**
+     * Server state of each member in each bucket, null if the member didn't answer or the bucket wasn't sampled.
+     */
+    private final Map<String, List<String>> states = new LinkedHashMap<>();
+
+    private volatile long startTime;
+    private volatile boolean running;
+    private Thread sampler;
+
+    /**
+     * @param members      "host:port" of the members
+     * @param source       statistics of a member with the "mntr" names, empty if it didn't answer
+     * @param bucketMillis width of one bucket in milliseconds
+     */
+    public ServerMetricsCollector(List<String> members, Function<String, Map<String, String>> source, long bucketMillis) {
+        this.members = new ArrayList<>(members);
+        this.source = source;
+        this.bucketMillis = bucketMillis;
+        for (String member : members) {
+            samples.put(member, new ArrayList<>());
+            states.put(member, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Start polling. Use the start time of the client time series, so the buckets line up.
+     *
+     * @param startTime time when the first bucket started in milliseconds since epoch
+     */
+    public void start(long startTime) {
+        this.startTime = startTime;
+        running = true;
+        sampler = new Thread(this::poll);
+        sampler.setName("ServerMetricsSampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stop polling.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler.join();
+        }
+    }
+
+    private void poll() {
+        Map<String, Map<String, String>> previous = new LinkedHashMap<>();
+        long previousTime = startTime;
+        long nextSample = startTime + bucketMillis;
+        while (running) {
+            long sleep = nextSample - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            int bucket = (int) ((nextSample - startTime) / bucketMillis) - 1;
+            long now = System.currentTimeMillis();
+            for (String member : members) {
+                Map<String, String> current = source.apply(member);
+                record(member, bucket, current, previous.get(member), Math.max(1, now - previousTime));
+                previous.put(member, current);
+            }
+            previousTime = now;
+            nextSample += bucketMillis;
+            // Skip the buckets, which passed while the members were polled
+            now = System.currentTimeMillis();
+            if (nextSample < now) {
+                nextSample += (now - nextSample) / bucketMillis * bucketMillis;
+            }
+        }
+    }
+
+    private void record(String member, int bucket, Map<String, String> current, Map<String, String> previous,
+                        long elapsedMillis) {
+        double[] values = new double[METRICS.size()];
+        Arrays.fill(values, Double.NaN);
+        String state = current.get("zk_server_state");
+        if (!current.isEmpty()) {
+            values[OUTSTANDING] = number(current, "zk_outstanding_requests");
+            values[AVG_LATENCY] = number(current, "zk_avg_latency");
+            values[MAX_LATENCY] = number(current, "zk_max_latency");
+            values[ZNODES] = number(current, "zk_znode_count");
+            values[WATCHES] = number(current, "zk_watch_count");
+            if (previous != null && !previous.isEmpty()) {
+                values[PACKETS] = (number(current, "zk_packets_received") - number(previous, "zk_packets_received")) *
+                        1000.0 / elapsedMillis;
+                double fsyncs = number(current, "zk_cnt_fsynctime") - number(previous, "zk_cnt_fsynctime");
+                double fsyncTime = number(current, "zk_sum_fsynctime") - number(previous, "zk_sum_fsynctime");
+                values[FSYNC] = fsyncs > 0 ? fsyncTime / fsyncs : Double.NaN;
+            }
+        }
+        synchronized (samples) {
+            List<double[]> memberSamples = samples.get(member);
+            List<String> memberStates = states.get(member);
+            while (memberSamples.size() < bucket) {
+                double[] missing = new double[METRICS.size()];
+                Arrays.fill(missing, Double.NaN);
+                memberSamples.add(missing);
+                memberStates.add(null);
+            }
+            memberSamples.add(values);
+            memberStates.add(state);
+        }
+    }
+
+    private static double number(Map<String, String> stats, String name) {
+        String value = stats.get(name);
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return time when the first bucket started in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return width of one bucket in milliseconds
+     */
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public List<String> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * @param member "host:port" of the member
+     * @return values of {@link #METRICS} in each bucket, NaN if not available
+     */
+    public List<double[]> getSamples(String member) {
+        synchronized (samples) {
+            return new ArrayList<>(samples.get(member));
+        }
+    }
+
+    /**
+     * @param member "host:port" of the member
+     * @return server state in each bucket, null if the member didn't answer or the bucket wasn't sampled
+     */
+    public List<String> getStates(String member) {
+        synchronized (samples) {
+            return new ArrayList<>(states.get(member));
+        }
+    }
+
+    /**
+     * Write the samples into a file, one line for each member and bucket:
+     * millisecondsSinceStart member state outstandingRequests avgLatencyMs maxLatencyMs znodeCount watchCount
+     * packetsReceivedPerSecond fsyncAvgMs
+     * Values which aren't available are written as -1, the state as "-".
+     *
+     * @param fileName file where to write
+     */
+    public void write(String fileName) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+            for (String member : members) {
+                List<double[]> memberSamples = getSamples(member);
+                List<String> memberStates = getStates(member);
+                for (int i = 0; i < memberSamples.size(); i++) {
+                    StringBuilder line = new StringBuilder();
+                    line.append(i * bucketMillis).append(' ').append(member).append(' ')
+                            .append(memberStates.get(i) == null ? "-" : memberStates.get(i));
+                    for (double value : memberSamples.get(i)) {
+                        line.append(' ').append(Double.isNaN(value) ? "-1" : Double.toString(value));
+                    }
+                    writer.write(line.append('\n').toString());
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing server metrics into file.");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.dps.zookeeper.stats;
+
+import org.apache.zookeeper.client.FourLetterWordMain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads server side statistics with the "mntr" four letter word.
+ * The word has to be allowed in the server configuration (4lw.commands.whitelist).
+ */
+public class ServerMonitor {
+
+    /**
+     * Timeout of one four letter word request.
+     */
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private ServerMonitor() {
+    }
+
+    /**
+     * Get the "mntr" statistics of the server.
+     *
+     * @param server "host:port" of the server
+     * @return statistic name to value, empty if the server didn't answer
+     */
+    public static Map<String, String> mntr(String server) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int separator = server.lastIndexOf(':');
+        try {
+            String response = FourLetterWordMain.send4LetterWord(server.substring(0, separator),
+                    Integer.parseInt(server.substring(separator + 1)), "mntr", false, TIMEOUT_MILLIS);
+            for (String line : response.split("\n")) {
+                String[] parts = line.split("\t", 2);
+                if (parts.length == 2) {
+                    result.put(parts[0].trim(), parts[1].trim());
+                }
+            }
+        } catch (Exception e) {
+            // Server down or word not allowed
+        }
+        return result;
+    }
+
+    /**
+     * Largest value of a numeric statistic over the servers.
+     *
+     * @param clusterAddress "host:port,host:port,..."
+     * @param name           statistic name, for example "zk_approximate_data_size"
+     * @return largest value reported by any server, -1 if no server reported it
+     */
+    public static long maxOverServers(String clusterAddress, String name) {
+        long result = -1;
+        for (String server : clusterAddress.split(",")) {
+            String value = mntr(server.trim()).get(name);
+            if (value != null) {
+                try {
+                    result = Math.max(result, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    // Not a number
+                }
+            }
+        }
+        return result;
+    }
+}
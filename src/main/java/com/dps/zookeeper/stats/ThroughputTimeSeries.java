@@ -0,0 +1,161 @@
+package com.dps.zookeeper.stats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Number of finished requests in fixed size time buckets. A background thread samples a counter
+ * of finished requests at the end of every bucket.
+ */
+public class ThroughputTimeSeries {
+
+    /**
+     * Width of one bucket in milliseconds.
+     */
+    private final long bucketMillis;
+
+    /**
+     * Total finished requests so far.
+     */
+    private final LongSupplier requestCounter;
+
+    /**
+     * Finished requests in each bucket.
+     */
+    private final List<Long> buckets = new ArrayList<>();
+
+    private volatile long startTime;
+    private volatile boolean running;
+    private Thread sampler;
+
+    /**
+     * @param bucketMillis   width of one bucket in milliseconds
+     * @param requestCounter total finished requests so far
+     */
+    public ThroughputTimeSeries(long bucketMillis, LongSupplier requestCounter) {
+        this.bucketMillis = bucketMillis;
+        this.requestCounter = requestCounter;
+    }
+
+    /**
+     * Start sampling, first bucket starts now.
+     */
+    public void start() {
+        startTime = System.currentTimeMillis();
+        running = true;
+        sampler = new Thread(() -> {
+            long previous = requestCounter.getAsLong();
+            long nextSample = startTime + bucketMillis;
+            while (running) {
+                long sleep = nextSample - System.currentTimeMillis();
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                long current = requestCounter.getAsLong();
+                synchronized (buckets) {
+                    buckets.add(current - previous);
+                }
+                previous = current;
+                nextSample += bucketMillis;
+            }
+        });
+        sampler.setName("TimeSeriesSampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stop sampling.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        if (sampler != null) {
+            sampler.join();
+        }
+    }
+
+    /**
+     * @return time when the first bucket started in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return width of one bucket in milliseconds
+     */
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * @return finished requests in each bucket
+     */
+    public List<Long> getBuckets() {
+        synchronized (buckets) {
+            return new ArrayList<>(buckets);
+        }
+    }
+
+    /**
+     * Index of the bucket containing the time.
+     *
+     * @param timeMillis time in milliseconds since epoch
+     * @return bucket index
+     */
+    public int bucketOf(long timeMillis) {
+        return (int) Math.max(0, (timeMillis - startTime) / bucketMillis);
+    }
+
+    /**
+     * Average throughput over the buckets.
+     *
+     * @param fromBucket first bucket, inclusive
+     * @param toBucket   last bucket, exclusive
+     * @return requests per second
+     */
+    public double requestsPerSecond(int fromBucket, int toBucket) {
+        List<Long> snapshot = getBuckets();
+        int from = Math.max(0, fromBucket);
+        int to = Math.min(snapshot.size(), toBucket);
+        if (to <= from) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += snapshot.get(i);
+        }
+        return sum * 1000.0 / ((to - from) * bucketMillis);
+    }
+
+    /**
+     * Write the time series into a file, one line for each bucket:
+     * millisecondsSinceStart requestsPerSecond
+     *
+     * @param fileName file where to write
+     */
+    public void write(String fileName) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+            List<Long> snapshot = getBuckets();
+            for (int i = 0; i < snapshot.size(); i++) {
+                writer.write(i * bucketMillis + " " + snapshot.get(i) * 1000 / bucketMillis + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Exception when writing time series into file.");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.dps.zookeeper.trace;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts a text export of operations into the binary trace format. Every line is
+ * "timestamp,sessionId,operation,path,valueSize", where timestamp is in milliseconds and can have
+ * a fraction, session id is decimal or hexadecimal with 0x prefix and operation is one of create,
+ * getData, setData, exists or delete. Value size can be left out for reads and deletes.
+ * Empty lines, lines starting with # and a header line starting with "timestamp" are skipped.
+ */
+public class TraceImporter {
+
+    private TraceImporter() {
+    }
+
+    /**
+     * Import the text export.
+     *
+     * @param textFile  text export
+     * @param traceFile binary trace to write
+     * @return number of imported records
+     * @throws IOException if a file can't be read or written, or a line can't be parsed
+     */
+    public static long importText(String textFile, String traceFile) throws IOException {
+        TraceRecord record = new TraceRecord();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textFile), StandardCharsets.UTF_8));
+             TraceWriter writer = new TraceWriter(traceFile)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("timestamp")) {
+                    continue;
+                }
+                parse(line, lineNumber, record);
+                writer.write(record);
+            }
+            return writer.getRecords();
+        }
+    }
+
+    private static void parse(String line, long lineNumber, TraceRecord record) throws IOException {
+        String[] fields = line.split(",");
+        if (fields.length != 4 && fields.length != 5) {
+            throw new IOException("Line " + lineNumber + " is expected to be timestamp,sessionId,operation,path,valueSize. Given: " + line);
+        }
+        try {
+            record.timestampMicros = Math.round(Double.parseDouble(fields[0].trim()) * 1000);
+            String session = fields[1].trim();
+            record.sessionId = session.startsWith("0x") ? Long.parseUnsignedLong(session.substring(2), 16) : Long.parseLong(session);
+            record.valueSize = fields.length == 5 ? Integer.parseInt(fields[4].trim()) : 0;
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + " has invalid number: " + e.getMessage());
+        }
+        record.opType = TraceRecord.opType(fields[2].trim());
+        if (record.opType < 0) {
+            throw new IOException("Line " + lineNumber + " has unknown operation: " + fields[2]);
+        }
+        record.path = fields[3].trim();
+        if (!record.path.startsWith("/")) {
+            throw new IOException("Line " + lineNumber + " has path, which doesn't start with /: " + record.path);
+        }
+    }
+}
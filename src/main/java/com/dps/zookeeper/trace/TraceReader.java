@@ -0,0 +1,118 @@
+package com.dps.zookeeper.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a binary trace written by {@link TraceWriter} from a memory-mapped file. Only a window
+ * of the file is mapped at a time, so traces larger than the heap or 2 GB can be read.
+ */
+public class TraceReader implements Closeable {
+
+    /**
+     * Size of the mapped window, the window moves forward when a record doesn't fit in it.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+
+    /**
+     * File position of the start of the window.
+     */
+    private long windowStart;
+    private MappedByteBuffer window;
+    private byte[] pathBuffer = new byte[256];
+
+    /**
+     * @param path trace file
+     * @throws IOException if the file can't be read or isn't a trace
+     */
+    public TraceReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        map(0);
+        if (size < TraceWriter.HEADER_SIZE || window.getInt() != TraceWriter.MAGIC) {
+            close();
+            throw new IOException(path + " is not a trace file.");
+        }
+        int version = window.getInt();
+        if (version != TraceWriter.VERSION) {
+            close();
+            throw new IOException("Unsupported trace version " + version + " in " + path);
+        }
+    }
+
+    /**
+     * Read the next record into the given instance.
+     *
+     * @param record record to fill
+     * @return false if there are no more records
+     * @throws IOException if the trace ends in the middle of a record
+     */
+    public boolean next(TraceRecord record) throws IOException {
+        if (!ensure(TraceWriter.RECORD_HEADER_SIZE)) {
+            return false;
+        }
+        int start = window.position();
+        long timestamp = window.getLong();
+        long sessionId = window.getLong();
+        byte opType = window.get();
+        int valueSize = window.getInt();
+        int pathLength = window.getShort();
+        if (window.remaining() < pathLength) {
+            window.position(start);
+            if (!ensure(TraceWriter.RECORD_HEADER_SIZE + pathLength)) {
+                throw new IOException("Trace ends in the middle of a record.");
+            }
+            window.position(window.position() + TraceWriter.RECORD_HEADER_SIZE);
+        }
+        if (pathBuffer.length < pathLength) {
+            pathBuffer = new byte[pathLength];
+        }
+        window.get(pathBuffer, 0, pathLength);
+        record.timestampMicros = timestamp;
+        record.sessionId = sessionId;
+        record.opType = opType;
+        record.valueSize = valueSize;
+        record.path = new String(pathBuffer, 0, pathLength, StandardCharsets.UTF_8);
+        return true;
+    }
+
+    /**
+     * Move the window so that at least the given number of bytes is mapped after the current position.
+     *
+     * @return false if the file ends before
+     */
+    private boolean ensure(int bytes) throws IOException {
+        if (window.remaining() >= bytes) {
+            return true;
+        }
+        long position = windowStart + window.position();
+        if (size - position < bytes) {
+            if (size - position > 0 && bytes == TraceWriter.RECORD_HEADER_SIZE) {
+                throw new IOException("Trace ends in the middle of a record.");
+            }
+            return false;
+        }
+        map(position);
+        return true;
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,66 @@
+package com.dps.zookeeper.trace;
+
+/**
+ * One operation of a trace. Readers fill the same instance for every record, so nothing is
+ * allocated per record except the path.
+ */
+public class TraceRecord {
+
+    public static final byte CREATE = 0;
+    public static final byte GET_DATA = 1;
+    public static final byte SET_DATA = 2;
+    public static final byte EXISTS = 3;
+    public static final byte DELETE = 4;
+
+    /**
+     * Names of the operation types in the text export, indexed by the operation type.
+     */
+    private static final String[] NAMES = {"create", "getData", "setData", "exists", "delete"};
+
+    /**
+     * Time of the operation in microseconds, only the differences between records matter.
+     */
+    public long timestampMicros;
+
+    /**
+     * Session which issued the operation in the traced system.
+     */
+    public long sessionId;
+
+    public byte opType;
+
+    public String path;
+
+    /**
+     * Size of the written value, 0 for reads and deletes.
+     */
+    public int valueSize;
+
+    /**
+     * @return number of operation types
+     */
+    public static int opTypeCount() {
+        return NAMES.length;
+    }
+
+    /**
+     * @param opType operation type
+     * @return name of the operation type
+     */
+    public static String opName(byte opType) {
+        return NAMES[opType];
+    }
+
+    /**
+     * @param name name of the operation type, case is ignored
+     * @return operation type, -1 if the name is unknown
+     */
+    public static byte opType(String name) {
+        for (byte i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,85 @@
+package com.dps.zookeeper.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the binary trace format. The file starts with the magic number and the format version,
+ * followed by the records:
+ * <pre>
+ * long  timestamp in microseconds
+ * long  session id
+ * byte  operation type
+ * int   value size
+ * short path length in bytes
+ * byte[] path in UTF-8
+ * </pre>
+ * Numbers are big-endian.
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * "ZKTR" in ASCII.
+     */
+    public static final int MAGIC = 0x5A4B5452;
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the file header.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of the record without the path.
+     */
+    public static final int RECORD_HEADER_SIZE = 8 + 8 + 1 + 4 + 2;
+
+    private final DataOutputStream out;
+    private long records;
+
+    /**
+     * @param file trace file, overwritten if it exists
+     * @throws IOException
+     */
+    public TraceWriter(String file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Append the record to the trace.
+     *
+     * @param record record to write
+     * @throws IOException
+     */
+    public void write(TraceRecord record) throws IOException {
+        byte[] path = record.path.getBytes(StandardCharsets.UTF_8);
+        if (path.length > Short.MAX_VALUE) {
+            throw new IOException("Path is too long for the trace format: " + record.path.substring(0, 100) + "...");
+        }
+        out.writeLong(record.timestampMicros);
+        out.writeLong(record.sessionId);
+        out.writeByte(record.opType);
+        out.writeInt(record.valueSize);
+        out.writeShort(path.length);
+        out.write(path);
+        records++;
+    }
+
+    /**
+     * @return number of records written
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}